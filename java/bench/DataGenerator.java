@@ -0,0 +1,365 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.BufferedReader;
+ import java.io.BufferedWriter;
+ import java.io.FileReader;
+ import java.io.FileWriter;
+ import java.io.IOException;
+ import java.io.StringReader;
+ import java.io.Writer;
+ import java.math.BigDecimal;
+ import java.sql.SQLException;
+ import java.time.LocalDateTime;
+ import java.util.ArrayList;
+ import java.util.HashSet;
+ import java.util.List;
+ import java.util.Random;
+ import java.util.Set;
+
+ /**
+  * This class builds a large synthetic dataset from the seed files in
+  * data/ and either streams it into the database with COPY or writes it
+  * out as CSV files in the same format as the seeds.
+  *
+  * Skew follows a typical delivery business: a Zipf distribution over
+  * customers, stores and items, order volume growing towards the present,
+  * and lunch and dinner peaks over the day. Generated users and orders are
+  * added to the seed data, which must already be loaded when using -load.
+  *
+  * Usage: java DataGenerator -orders N [-users N] [-years N] [-seed dir]
+  *        [-random seed] (-csv outdir | -load dbname port user)
+  */
+ public class DataGenerator {
+
+    // orders written per COPY statement or per flush to disk
+    private static final int CHUNK_ORDERS = 50000;
+
+    // share of orders placed in each hour of the day
+    private static final double[] HOUR_WEIGHTS = {
+       0.2, 0.1, 0.1, 0.1, 0.1, 0.2, 0.5, 1.0, 1.5, 2.0, 3.5, 7.0,
+       9.0, 7.0, 3.5, 3.0, 4.0, 7.0, 9.0, 8.0, 5.0, 3.0, 1.5, 0.5 };
+
+    /**
+     * Draws ranks 0..n-1 with probability proportional to 1/(rank+1)^s.
+     */
+    static class Zipf {
+       private final double[] _cdf;
+
+       Zipf(int n, double s) {
+          this._cdf = new double[n];
+          double sum = 0;
+          for (int i = 0; i < n; i++) {
+             sum += 1.0 / Math.pow(i + 1, s);
+             this._cdf[i] = sum;
+          }
+          for (int i = 0; i < n; i++)
+             this._cdf[i] /= sum;
+       }
+
+       int next(Random random) {
+          double u = random.nextDouble();
+          int lo = 0, hi = this._cdf.length - 1;
+          while (lo < hi) {
+             int mid = (lo + hi) >>> 1;
+             if (this._cdf[mid] < u)
+                lo = mid + 1;
+             else
+                hi = mid;
+          }
+          return lo;
+       }
+    }//end Zipf
+
+    private final Random _random;
+    private final List<String> _customers = new ArrayList<String>();
+    private final List<Integer> _stores = new ArrayList<Integer>();
+    private final List<String> _items = new ArrayList<String>();
+    private final List<Long> _itemCents = new ArrayList<Long>();
+    private final double[] _hourCdf = new double[24];
+
+    private Zipf _customerSkew, _storeSkew, _itemSkew;
+    private int _nextOrderID;
+    private LocalDateTime _now = LocalDateTime.now().withNano(0);
+    private int _days;
+
+    DataGenerator(long seed) {
+       this._random = new Random(seed);
+       double sum = 0;
+       for (double w : HOUR_WEIGHTS)
+          sum += w;
+       double running = 0;
+       for (int h = 0; h < 24; h++) {
+          running += HOUR_WEIGHTS[h] / sum;
+          this._hourCdf[h] = running;
+       }
+    }
+
+    public static void main(String[] args) throws Exception {
+       long orders = 0, users = -1, seed = 42;
+       int years = 5;
+       String seedDir = "data", csvDir = null;
+       String[] db = null;
+       for (int i = 0; i < args.length; i++) {
+          switch (args[i]) {
+             case "-orders": orders = Long.parseLong(args[++i]); break;
+             case "-users": users = Long.parseLong(args[++i]); break;
+             case "-years": years = Integer.parseInt(args[++i]); break;
+             case "-seed": seedDir = args[++i]; break;
+             case "-random": seed = Long.parseLong(args[++i]); break;
+             case "-csv": csvDir = args[++i]; break;
+             case "-load": db = new String[] { args[++i], args[++i], args[++i] }; break;
+             default: throw new IllegalArgumentException("unknown option " + args[i]);
+          }
+       }
+       if (orders <= 0 || (csvDir == null) == (db == null)) {
+          System.err.println("Usage: java DataGenerator -orders N [-users N] [-years N] [-seed dir]" +
+                             " [-random seed] (-csv outdir | -load dbname port user)");
+          return;
+       }
+       if (users < 0)
+          users = Math.max(1000, orders / 10);
+
+       DataGenerator generator = new DataGenerator(seed);
+       generator.readSeeds(seedDir);
+       generator._days = years * 365;
+
+       long start = System.nanoTime();
+       if (csvDir != null) {
+          generator.writeCsv(csvDir, users, orders);
+       } else {
+          Class.forName("org.postgresql.Driver");
+          PizzaStore esql = new PizzaStore(db[0], db[1], db[2], "");
+          try {
+             generator.load(esql, users, orders);
+          } finally {
+             esql.cleanup();
+          }
+       }
+       double seconds = (System.nanoTime() - start) / 1e9;
+       System.out.println(String.format("Generated %d users and %d orders in %.1f s (%.0f orders/s)",
+          users, orders, seconds, orders / seconds));
+    }//end main
+
+    /**
+     * Reads the seed users, stores, items and orders.
+     */
+    void readSeeds(String dir) throws IOException {
+       for (String[] row : readCsv(dir + "/users.csv"))
+          if (row[2].trim().equals("customer"))
+             this._customers.add(row[0].trim());
+       for (String[] row : readCsv(dir + "/store.csv"))
+          this._stores.add(Integer.parseInt(row[0].trim()));
+       for (String[] row : readCsv(dir + "/items.csv")) {
+          this._items.add(row[0].trim());
+          this._itemCents.add(new BigDecimal(row[3].trim()).movePointRight(2).longValueExact());
+       }
+       int maxOrderID = 0;
+       for (String[] row : readCsv(dir + "/foodorder.csv"))
+          maxOrderID = Math.max(maxOrderID, Integer.parseInt(row[0].trim()));
+       this._nextOrderID = maxOrderID + 1;
+    }
+
+    /**
+     * Builds the skewed samplers once the final customer list is known.
+     */
+    private void prepare(long users) {
+       for (long u = 1; u <= users; u++)
+          this._customers.add(generatedLogin(u));
+       this._customerSkew = new Zipf(this._customers.size(), 1.05);
+       this._storeSkew = new Zipf(this._stores.size(), 0.8);
+       this._itemSkew = new Zipf(this._items.size(), 1.0);
+    }
+
+    void writeCsv(String dir, long users, long orders) throws IOException {
+       prepare(users);
+       try (Writer out = new BufferedWriter(new FileWriter(dir + "/gen_users.csv"), 1 << 16)) {
+          out.write("login,password,role,favoriteItems,phoneNum\n");
+          StringBuilder chunk = new StringBuilder();
+          for (long u = 1; u <= users; u++) {
+             appendUser(chunk, u);
+             if (chunk.length() > (1 << 20)) {
+                out.append(chunk);
+                chunk.setLength(0);
+             }
+          }
+          out.append(chunk);
+       }
+       try (Writer foodOrders = new BufferedWriter(new FileWriter(dir + "/gen_foodorder.csv"), 1 << 16);
+            Writer lineItems = new BufferedWriter(new FileWriter(dir + "/gen_itemsinorder.csv"), 1 << 16)) {
+          foodOrders.write("orderID,login,storeID,totalPrice,\"orderTimestamp\",orderStatus\n");
+          lineItems.write("orderID,itemName,quantity\n");
+          StringBuilder orderChunk = new StringBuilder(), itemChunk = new StringBuilder();
+          for (long done = 0; done < orders; ) {
+             int n = (int) Math.min(CHUNK_ORDERS, orders - done);
+             appendOrders(orderChunk, itemChunk, n);
+             foodOrders.append(orderChunk);
+             lineItems.append(itemChunk);
+             orderChunk.setLength(0);
+             itemChunk.setLength(0);
+             done += n;
+          }
+       }
+       System.out.println("Wrote gen_users.csv, gen_foodorder.csv and gen_itemsinorder.csv to " + dir);
+    }
+
+    void load(PizzaStore esql, long users, long orders) throws SQLException {
+       if (!PgCopy.isAvailable())
+          throw new SQLException("-load needs a JDBC driver with COPY support, use -csv with this driver");
+       List<List<String>> max = esql.executeQueryAndReturnResult("SELECT COALESCE(MAX(orderID), 0) FROM FoodOrder");
+       this._nextOrderID = Math.max(this._nextOrderID, Integer.parseInt(max.get(0).get(0).trim()) + 1);
+       prepare(users);
+
+       StringBuilder chunk = new StringBuilder();
+       for (long u = 1; u <= users; u++) {
+          appendUser(chunk, u);
+          if (chunk.length() > (1 << 22) || u == users) {
+             esql.copyIn("COPY Users FROM STDIN WITH CSV", new StringReader(chunk.toString()));
+             chunk.setLength(0);
+          }
+       }
+
+       StringBuilder orderChunk = new StringBuilder(), itemChunk = new StringBuilder();
+       for (long done = 0; done < orders; ) {
+          int n = (int) Math.min(CHUNK_ORDERS, orders - done);
+          appendOrders(orderChunk, itemChunk, n);
+          // orders first, their line items reference them
+          esql.copyIn("COPY FoodOrder FROM STDIN WITH CSV", new StringReader(orderChunk.toString()));
+          esql.copyIn("COPY ItemsInOrder FROM STDIN WITH CSV", new StringReader(itemChunk.toString()));
+          orderChunk.setLength(0);
+          itemChunk.setLength(0);
+          done += n;
+          System.out.print("\r" + done + " / " + orders + " orders");
+       }
+       System.out.println();
+       esql.executeAndReturnResult("SELECT setval('" + PizzaStore.ORDER_ID_SEQUENCE + "', (SELECT MAX(orderID) FROM FoodOrder))");
+       esql.executeUpdate("ANALYZE");
+    }
+
+    private static String generatedLogin(long u) {
+       return "gen" + u;
+    }
+
+    private void appendUser(StringBuilder out, long u) {
+       double role = this._random.nextDouble();
+       out.append(generatedLogin(u)).append(",pw").append(u).append(',')
+          .append(role < 0.001 ? "manager" : role < 0.011 ? "driver" : "customer")
+          .append(",,555-").append(100 + u % 900).append('-').append(1000 + u % 9000).append('\n');
+    }
+
+    /**
+     * Appends n orders and their line items as CSV rows.
+     */
+    private void appendOrders(StringBuilder orders, StringBuilder lines, int n) {
+       Set<Integer> chosen = new HashSet<Integer>();
+       for (int k = 0; k < n; k++) {
+          int orderID = this._nextOrderID++;
+          String login = this._customers.get(this._customerSkew.next(this._random));
+          int storeID = this._stores.get(this._storeSkew.next(this._random));
+
+          chosen.clear();
+          long totalCents = 0;
+          for (int lineCount = 1 + this._random.nextInt(4); chosen.size() < lineCount; ) {
+             int item = this._itemSkew.next(this._random);
+             if (!chosen.add(item))
+                continue;
+             int quantity = 1 + (this._random.nextDouble() < 0.8 ? 0 : this._random.nextInt(3));
+             totalCents += this._itemCents.get(item) * quantity;
+             lines.append(orderID).append(',');
+             appendQuoted(lines, this._items.get(item));
+             lines.append(',').append(quantity).append('\n');
+          }
+
+          LocalDateTime time = timestamp();
+          boolean recent = time.isAfter(this._now.minusHours(2));
+          orders.append(orderID).append(',').append(login).append(',').append(storeID).append(',')
+                .append(totalCents / 100).append('.').append(totalCents % 100 < 10 ? "0" : "").append(totalCents % 100)
+                .append(',');
+          appendTimestamp(orders, time);
+          orders.append(',').append(recent && this._random.nextBoolean() ? "incomplete" : "complete").append('\n');
+       }
+    }
+
+    /**
+     * Picks a day weighted towards the present and an hour from the daily curve.
+     */
+    private LocalDateTime timestamp() {
+       int daysAgo = (int) (this._days * (1 - Math.sqrt(this._random.nextDouble())));
+       double u = this._random.nextDouble();
+       int hour = 0;
+       while (hour < 23 && this._hourCdf[hour] < u)
+          hour++;
+       LocalDateTime time = this._now.minusDays(daysAgo).withHour(hour)
+          .withMinute(this._random.nextInt(60)).withSecond(this._random.nextInt(60));
+       return time.isAfter(this._now) ? time.minusDays(1) : time;
+    }
+
+    private static void appendTimestamp(StringBuilder out, LocalDateTime t) {
+       out.append(t.getYear()).append('-');
+       pad2(out, t.getMonthValue()).append('-');
+       pad2(out, t.getDayOfMonth()).append(' ');
+       pad2(out, t.getHour()).append(':');
+       pad2(out, t.getMinute()).append(':');
+       pad2(out, t.getSecond());
+    }
+
+    private static StringBuilder pad2(StringBuilder out, int value) {
+       if (value < 10)
+          out.append('0');
+       return out.append(value);
+    }
+
+    private static void appendQuoted(StringBuilder out, String value) {
+       out.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    /**
+     * Reads a CSV file with a header line, honouring quoted fields.
+     */
+    static List<String[]> readCsv(String file) throws IOException {
+       List<String[]> rows = new ArrayList<String[]>();
+       try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+          String line = reader.readLine();
+          while ((line = reader.readLine()) != null) {
+             if (line.trim().isEmpty())
+                continue;
+             List<String> fields = new ArrayList<String>();
+             StringBuilder field = new StringBuilder();
+             boolean quoted = false;
+             for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                   if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                      field.append('"');
+                      i++;
+                   } else if (c == '"') {
+                      quoted = false;
+                   } else {
+                      field.append(c);
+                   }
+                } else if (c == '"') {
+                   quoted = true;
+                } else if (c == ',') {
+                   fields.add(field.toString());
+                   field.setLength(0);
+                } else {
+                   field.append(c);
+                }
+             }
+             fields.add(field.toString());
+             rows.add(fields.toArray(new String[0]));
+          }
+       }
+       return rows;
+    }
+ }//end DataGenerator
@@ -0,0 +1,400 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.BufferedReader;
+ import java.io.ByteArrayOutputStream;
+ import java.io.FileReader;
+ import java.io.FileWriter;
+ import java.io.IOException;
+ import java.io.PrintStream;
+ import java.io.PrintWriter;
+ import java.io.StringReader;
+ import java.util.ArrayList;
+ import java.util.Arrays;
+ import java.util.HashMap;
+ import java.util.LinkedHashMap;
+ import java.util.List;
+ import java.util.Map;
+ import java.util.concurrent.ThreadLocalRandom;
+ import java.util.concurrent.atomic.AtomicLong;
+
+ /**
+  * This class puts a mixed, closed-loop load on PizzaStore. Each virtual
+  * user repeatedly runs a whole session of one role through the real menu
+  * handlers, feeding them scripted input exactly as a terminal user would,
+  * and pauses for a think time between steps.
+  *
+  * Sessions are 80% customers (log in, browse the menu, place an order
+  * item by item or reorder their last one, look at recent orders and the
+  * new order), 15% drivers (page through all
+  * orders and update a status) and 5% managers (filtered order history
+  * and the store list). Latency is reported per handler, and compared with
+  * an earlier run given as the baseline; with a budget, the run fails if
+  * any handler's throughput fell by more than that percentage.
+  *
+  * Usage: java LoadDriver <dbname> <port> <user> [-users n] [-warmup s]
+  *        [-time s] [-think ms] [-out file] [-baseline file] [-budget pct]
+  */
+ public class LoadDriver {
+
+    /**
+     * One scripted step of a session, returning the handler's output.
+     */
+    interface Step {
+       String run() throws Exception;
+    }
+
+    /**
+     * Latency samples of one handler, shared by every virtual user
+     */
+    static class Samples {
+       private long[] _nanos = new long[1 << 12];
+       private int _count = 0;
+       private long _failures = 0;
+
+       synchronized void add(long nanos) {
+          if (this._count == this._nanos.length)
+             this._nanos = Arrays.copyOf(this._nanos, this._count * 2);
+          this._nanos[this._count++] = nanos;
+       }
+
+       synchronized void fail() {
+          this._failures++;
+       }
+
+       synchronized long[] sorted() {
+          long[] copy = Arrays.copyOf(this._nanos, this._count);
+          Arrays.sort(copy);
+          return copy;
+       }
+    }//end Samples
+
+    // statuses drivers move orders to
+    private static final String[] STATUSES = { "preparing", "delivering", "complete" };
+
+    private final PizzaStore _esql;
+    private final Map<String, List<String[]>> _usersByRole = new HashMap<String, List<String[]>>();
+    private final List<Integer> _stores = new ArrayList<Integer>();
+    private final List<MenuCatalog.Item> _items;
+    private final List<Integer> _orderIDs = new ArrayList<Integer>();
+    private final Map<String, Samples> _samples = new LinkedHashMap<String, Samples>();
+    private final AtomicLong _sessions = new AtomicLong();
+    private final long _thinkMs;
+    private volatile boolean _measuring = false;
+
+    LoadDriver(PizzaStore esql, long thinkMs) throws Exception {
+       this._esql = esql;
+       this._thinkMs = thinkMs;
+       for (String role : new String[] { "customer", "driver", "manager" }) {
+          List<String[]> users = new ArrayList<String[]>();
+          for (List<String> row : esql.executeQueryAndReturnResult(
+                "SELECT login, password FROM Users WHERE role=? LIMIT 1000", role)) {
+             String password = PizzaStoreBench.knownPassword(row.get(0).trim(), row.get(1).trim());
+             if (password != null)
+                users.add(new String[] { row.get(0).trim(), password });
+          }
+          if (users.isEmpty())
+             throw new IllegalStateException("no " + role + " with a known password in Users, load data first");
+          this._usersByRole.put(role, users);
+       }
+       for (List<String> row : esql.executeQueryAndReturnResult("SELECT storeID FROM Store LIMIT 1000"))
+          this._stores.add(Integer.parseInt(row.get(0).trim()));
+       for (List<String> row : esql.executeQueryAndReturnResult(
+             "SELECT orderID FROM FoodOrder ORDER BY orderTimestamp DESC, orderID DESC LIMIT 1000"))
+          this._orderIDs.add(Integer.parseInt(row.get(0).trim()));
+       this._items = esql.getMenu().all().defaultOrder();
+       if (this._stores.isEmpty() || this._items.isEmpty() || this._orderIDs.isEmpty())
+          throw new IllegalStateException("load data into Store, Items and FoodOrder first");
+    }
+
+    public static void main(String[] args) throws Exception {
+       if (args.length < 3) {
+          System.err.println("Usage: java [-classpath <classpath>] LoadDriver <dbname> <port> <user>" +
+                             " [-users n] [-warmup s] [-time s] [-think ms] [-out file] [-baseline file] [-budget pct]");
+          return;
+       }
+       int users = 50;
+       long warmupMs = 10000, measureMs = 60000, thinkMs = 100;
+       String outFile = null, baselineFile = null;
+       double budgetPct = -1;
+       for (int i = 3; i + 1 < args.length; i += 2) {
+          switch (args[i]) {
+             case "-users": users = Integer.parseInt(args[i + 1]); break;
+             case "-warmup": warmupMs = Long.parseLong(args[i + 1]) * 1000; break;
+             case "-time": measureMs = Long.parseLong(args[i + 1]) * 1000; break;
+             case "-think": thinkMs = Long.parseLong(args[i + 1]); break;
+             case "-out": outFile = args[i + 1]; break;
+             case "-baseline": baselineFile = args[i + 1]; break;
+             case "-budget": budgetPct = Double.parseDouble(args[i + 1]); break;
+             default: throw new IllegalArgumentException("unknown option " + args[i]);
+          }
+       }
+
+       Class.forName("org.postgresql.Driver");
+       PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+       boolean overBudget = false;
+       try {
+          LoadDriver driver = new LoadDriver(esql, thinkMs);
+          System.out.println("# " + users + " virtual users, " + thinkMs + " ms think time, " +
+                             warmupMs / 1000 + " s warmup, " + measureMs / 1000 + " s measurement");
+          driver.run(users, warmupMs, measureMs);
+          Map<String, Double> baseline = baselineFile == null ? null : readThroughput(baselineFile);
+          Map<String, Double> throughput = driver.report(measureMs, baseline);
+          if (outFile != null)
+             writeThroughput(throughput, outFile);
+          System.out.println(esql.getPool());
+          System.out.println(esql.getBreaker() + ", " + esql.getRetryPolicy().retries() + " retries");
+          if (esql.getReplicas() != null)
+             System.out.println(esql.getReplicas());
+          if (baseline != null && budgetPct >= 0)
+             overBudget = !withinBudget(throughput, baseline, budgetPct);
+       } finally {
+          esql.cleanup();
+       }
+       if (overBudget)
+          System.exit(1);
+    }//end main
+
+    void run(int users, long warmupMs, long measureMs) throws InterruptedException {
+       long stopAt = System.currentTimeMillis() + warmupMs + measureMs;
+       Thread[] workers = new Thread[users];
+       for (int u = 0; u < users; u++) {
+          workers[u] = new Thread(() -> {
+             ThreadLocalRandom random = ThreadLocalRandom.current();
+             while (System.currentTimeMillis() < stopAt) {
+                double mix = random.nextDouble();
+                if (mix < 0.80)
+                   customerSession(random);
+                else if (mix < 0.95)
+                   driverSession(random);
+                else
+                   managerSession(random);
+                if (this._measuring)
+                   this._sessions.incrementAndGet();
+             }
+          }, "vuser-" + u);
+          workers[u].start();
+       }
+       Thread.sleep(warmupMs);
+       this._measuring = true;
+       for (Thread worker : workers)
+          worker.join();
+    }//end run
+
+    private void customerSession(ThreadLocalRandom random) {
+       String[] user = pick(this._usersByRole.get("customer"), random);
+       if (step("LogIn", random, () -> login(user)) == null)
+          return;
+       Principal principal = new Principal(user[0], Principal.Role.CUSTOMER);
+       step("viewMenu", random, () ->
+          script(() -> PizzaStore.viewMenu(this._esql), "1", String.valueOf(1 + random.nextInt(3)), "9"));
+
+       String placed;
+       if (random.nextBoolean()) {
+          // repeat customer: last order, same store, confirmed
+          placed = step("reorder", random, () ->
+             script(() -> PizzaStore.reorder(this._esql, user[0]), "2", "y", "y"));
+       } else {
+          StringBuilder order = new StringBuilder();
+          order.append(pick(this._stores, random)).append('\n');
+          for (int n = 1 + random.nextInt(3); n > 0; n--) {
+             order.append(pick(this._items, random).name).append('\n')
+                  .append(1 + random.nextInt(3)).append('\n')
+                  .append(n > 1 ? "y" : "n").append('\n');
+          }
+          placed = step("placeOrder", random, () ->
+             script(() -> PizzaStore.placeOrder(this._esql, user[0]), order.toString()));
+       }
+
+       step("viewRecentOrders", random, () ->
+          script(() -> PizzaStore.viewRecentOrders(this._esql, principal)));
+       int marker = placed == null ? -1 : placed.indexOf("Your order ID is ");
+       if (marker >= 0) {
+          String orderID = placed.substring(marker + 17).trim().split("\\s")[0];
+          synchronized (this._orderIDs) {
+             this._orderIDs.set(random.nextInt(this._orderIDs.size()), Integer.parseInt(orderID));
+          }
+          step("viewOrderInfo", random, () ->
+             script(() -> PizzaStore.viewOrderInfo(this._esql, principal), orderID));
+       }
+    }
+
+    private void driverSession(ThreadLocalRandom random) {
+       String[] user = pick(this._usersByRole.get("driver"), random);
+       if (step("LogIn", random, () -> login(user)) == null)
+          return;
+       step("viewAllOrders", random, () ->
+          script(() -> PizzaStore.viewAllOrders(this._esql, new Principal(user[0], Principal.Role.DRIVER)), "n", "y", "n"));
+       int orderID;
+       synchronized (this._orderIDs) {
+          orderID = pick(this._orderIDs, random);
+       }
+       step("updateOrderStatus", random, () ->
+          script(() -> PizzaStore.updateOrderStatus(this._esql), String.valueOf(orderID),
+                 STATUSES[random.nextInt(STATUSES.length)]));
+    }
+
+    private void managerSession(ThreadLocalRandom random) {
+       String[] user = pick(this._usersByRole.get("manager"), random);
+       if (step("LogIn", random, () -> login(user)) == null)
+          return;
+       String store = String.valueOf(pick(this._stores, random));
+       step("viewAllOrders", random, () ->
+          script(() -> PizzaStore.viewAllOrders(this._esql, new Principal(user[0], Principal.Role.MANAGER)), "y", store, "", "", "", "n"));
+       step("viewStores", random, () -> script(() -> PizzaStore.viewStores(this._esql), "1", "", "", "y", "n"));
+    }
+
+    private String login(String[] user) throws Exception {
+       String output = script(() -> {
+          if (PizzaStore.LogIn(this._esql) == null)
+             throw new IllegalStateException("login failed for " + user[0]);
+       }, user[0], user[1]);
+       return output;
+    }
+
+    /*
+     * Runs one step, records its latency and then thinks.
+     * @return the step's output, or null if it failed
+     */
+    private String step(String name, ThreadLocalRandom random, Step step) {
+       Samples samples;
+       synchronized (this._samples) {
+          samples = this._samples.computeIfAbsent(name, n -> new Samples());
+       }
+       String output = null;
+       long start = System.nanoTime();
+       QueryMetrics.Span span = this._esql.metrics().span(name);
+       try {
+          output = step.run();
+          if (this._measuring)
+             samples.add(System.nanoTime() - start);
+       } catch (Throwable e) {
+          if (this._measuring)
+             samples.fail();
+       } finally {
+          span.close();
+       }
+       if (this._thinkMs > 0) {
+          try {
+             // exponential think time around the configured mean
+             Thread.sleep((long) (-this._thinkMs * Math.log(1 - random.nextDouble())));
+          } catch (InterruptedException e) {
+             Thread.currentThread().interrupt();
+          }
+       }
+       return output;
+    }
+
+    interface Handler {
+       void run() throws Exception;
+    }
+
+    /*
+     * Runs a handler with the given lines as its input and returns what it
+     * printed. Running out of input means the script did not match the
+     * handler's prompts, which fails the step.
+     */
+    private static String script(Handler handler, String... lines) throws Exception {
+       StringBuilder input = new StringBuilder();
+       for (String line : lines)
+          input.append(line).append('\n');
+       ByteArrayOutputStream output = new ByteArrayOutputStream();
+       PizzaStore.bindSession(new BufferedReader(new StringReader(input.toString())), new PrintStream(output));
+       try {
+          handler.run();
+       } finally {
+          PizzaStore.unbindSession();
+       }
+       String printed = output.toString();
+       if (printed.contains("Error "))
+          throw new IllegalStateException(printed);
+       return printed;
+    }
+
+    private static <T> T pick(List<T> list, ThreadLocalRandom random) {
+       return list.get(random.nextInt(list.size()));
+    }
+
+    /*
+     * Prints the latency of every handler, with the change in throughput
+     * against the baseline if there is one.
+     * @return the calls per second of every handler
+     */
+    Map<String, Double> report(long measureMs, Map<String, Double> baseline) {
+       Map<String, Double> throughput = new LinkedHashMap<String, Double>();
+       System.out.println();
+       System.out.println(String.format("%.1f sessions/s", this._sessions.get() * 1000.0 / measureMs));
+       System.out.println(String.format("%-18s %10s %10s %10s %10s %10s %10s %8s %12s",
+          "Handler", "calls/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "vs baseline"));
+       for (Map.Entry<String, Samples> entry : this._samples.entrySet()) {
+          Samples samples = entry.getValue();
+          long[] sorted = samples.sorted();
+          long sum = 0;
+          for (long sample : sorted)
+             sum += sample;
+          double callsPerSec = sorted.length * 1000.0 / measureMs;
+          Double base = baseline == null ? null : baseline.get(entry.getKey());
+          throughput.put(entry.getKey(), callsPerSec);
+          System.out.println(String.format("%-18s %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f %8d %12s",
+             entry.getKey(), callsPerSec,
+             sorted.length == 0 ? 0 : sum / 1e6 / sorted.length,
+             PizzaStoreBench.percentile(sorted, 0.50) / 1000.0,
+             PizzaStoreBench.percentile(sorted, 0.99) / 1000.0,
+             PizzaStoreBench.percentile(sorted, 0.999) / 1000.0,
+             sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6,
+             samples._failures,
+             base == null ? "" : String.format("%+.1f%%", PizzaStoreBench.change(base, callsPerSec))));
+       }
+       return throughput;
+    }//end report
+
+    /*
+     * Lists the handlers whose throughput fell more than budgetPct below
+     * the baseline.
+     * @return true if there were none
+     */
+    static boolean withinBudget(Map<String, Double> throughput, Map<String, Double> baseline, double budgetPct) {
+       boolean within = true;
+       for (Map.Entry<String, Double> entry : throughput.entrySet()) {
+          Double base = baseline.get(entry.getKey());
+          double change = base == null ? 0 : PizzaStoreBench.change(base, entry.getValue());
+          if (change < -budgetPct) {
+             System.out.println(String.format("%s: throughput %.1f%% below the baseline, over the %.1f%% budget",
+                entry.getKey(), -change, budgetPct));
+             within = false;
+          }
+       }
+       return within;
+    }//end withinBudget
+
+    static void writeThroughput(Map<String, Double> throughput, String file) throws IOException {
+       try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+          for (Map.Entry<String, Double> entry : throughput.entrySet())
+             writer.println(entry.getKey() + "\t" + entry.getValue());
+       }
+    }
+
+    static Map<String, Double> readThroughput(String file) throws IOException {
+       Map<String, Double> throughput = new HashMap<String, Double>();
+       try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+             if (!line.isEmpty()) {
+                String[] f = line.split("\t");
+                throughput.put(f[0], Double.parseDouble(f[1]));
+             }
+          }
+       }
+       return throughput;
+    }
+ }//end LoadDriver
@@ -0,0 +1,394 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.BufferedReader;
+ import java.io.FileReader;
+ import java.io.FileWriter;
+ import java.io.IOException;
+ import java.io.OutputStream;
+ import java.io.PrintStream;
+ import java.io.PrintWriter;
+ import java.io.StringReader;
+ import java.lang.management.ManagementFactory;
+ import java.util.ArrayList;
+ import java.util.Arrays;
+ import java.util.HashMap;
+ import java.util.LinkedHashMap;
+ import java.util.List;
+ import java.util.Map;
+ import java.util.concurrent.CyclicBarrier;
+ import java.util.concurrent.ThreadLocalRandom;
+
+ /**
+  * This class benchmarks the data-access hot paths of PizzaStore against a
+  * running Postgres database, loaded with data/*.csv or a larger dataset
+  * built by the data generator.
+  *
+  * Each benchmark runs for a warmup period and then a measurement period,
+  * on one or more threads sharing one PizzaStore. It reports throughput,
+  * latency percentiles and bytes allocated per operation by the calling
+  * thread. Results can be written to a file and compared with an earlier
+  * run given as the baseline; with a budget, the run fails if any
+  * benchmark's throughput fell by more than that percentage.
+  *
+  * Usage: java PizzaStoreBench <dbname> <port> <user> [-warmup s] [-time s]
+  *        [-threads n] [-bench name,name] [-out file] [-baseline file]
+  *        [-budget pct]
+  */
+ public class PizzaStoreBench {
+
+    /**
+     * One benchmarked operation
+     */
+    interface Op {
+       void run(ThreadLocalRandom random) throws Exception;
+    }
+
+    /**
+     * Measurements of one benchmark
+     */
+    static class Result {
+       String name;
+       long ops;
+       double opsPerSec;
+       double meanUs, p50Us, p90Us, p99Us, p999Us, maxUs;
+       double allocBytesPerOp;
+
+       String toTsv() {
+          return name + "\t" + opsPerSec + "\t" + meanUs + "\t" + p50Us + "\t" + p90Us + "\t" +
+                 p99Us + "\t" + p999Us + "\t" + maxUs + "\t" + allocBytesPerOp;
+       }
+
+       static Result fromTsv(String line) {
+          String[] f = line.split("\t");
+          Result r = new Result();
+          r.name = f[0];
+          r.opsPerSec = Double.parseDouble(f[1]);
+          r.meanUs = Double.parseDouble(f[2]);
+          r.p50Us = Double.parseDouble(f[3]);
+          r.p90Us = Double.parseDouble(f[4]);
+          r.p99Us = Double.parseDouble(f[5]);
+          r.p999Us = Double.parseDouble(f[6]);
+          r.maxUs = Double.parseDouble(f[7]);
+          r.allocBytesPerOp = Double.parseDouble(f[8]);
+          return r;
+       }
+    }//end Result
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+       (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // output of the print benchmarks is thrown away
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws Exception {
+       if (args.length < 3) {
+          System.err.println("Usage: java [-classpath <classpath>] PizzaStoreBench <dbname> <port> <user>" +
+                             " [-warmup s] [-time s] [-threads n] [-bench name,name] [-out file] [-baseline file]" +
+                             " [-budget pct]");
+          return;
+       }
+       long warmupMs = 5000, measureMs = 10000;
+       double budgetPct = -1;
+       int threads = 1;
+       String only = null, outFile = null, baselineFile = null;
+       for (int i = 3; i + 1 < args.length; i += 2) {
+          switch (args[i]) {
+             case "-warmup": warmupMs = Long.parseLong(args[i + 1]) * 1000; break;
+             case "-time": measureMs = Long.parseLong(args[i + 1]) * 1000; break;
+             case "-threads": threads = Integer.parseInt(args[i + 1]); break;
+             case "-bench": only = args[i + 1]; break;
+             case "-out": outFile = args[i + 1]; break;
+             case "-baseline": baselineFile = args[i + 1]; break;
+             case "-budget": budgetPct = Double.parseDouble(args[i + 1]); break;
+             default: throw new IllegalArgumentException("unknown option " + args[i]);
+          }
+       }
+
+       Class.forName("org.postgresql.Driver");
+       PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+       boolean overBudget = false;
+       try {
+          Map<String, Op> benchmarks = benchmarks(esql);
+          List<Result> results = new ArrayList<Result>();
+          for (Map.Entry<String, Op> entry : benchmarks.entrySet()) {
+             if (only != null && !Arrays.asList(only.split(",")).contains(entry.getKey()))
+                continue;
+             System.out.println("# " + entry.getKey() + ": " + threads + " thread(s), " +
+                                warmupMs / 1000 + " s warmup, " + measureMs / 1000 + " s measurement");
+             results.add(measure(entry.getKey(), entry.getValue(), threads, warmupMs, measureMs));
+          }
+          Map<String, Result> baseline = baselineFile == null ? null : readResults(baselineFile);
+          report(results, baseline);
+          if (outFile != null)
+             writeResults(results, outFile);
+          System.out.println(esql.getPool());
+          if (baseline != null && budgetPct >= 0)
+             overBudget = !withinBudget(results, baseline, budgetPct);
+       } finally {
+          esql.cleanup();
+       }
+       if (overBudget)
+          System.exit(1);
+    }//end main
+
+    /**
+     * Sets up every benchmark with sample keys read from the database.
+     */
+    static Map<String, Op> benchmarks(PizzaStore esql) throws Exception {
+       List<List<String>> users = new ArrayList<List<String>>();
+       for (List<String> row : esql.executeQueryAndReturnResult(
+             "SELECT login, password FROM Users WHERE role='customer' LIMIT 1000")) {
+          String password = knownPassword(row.get(0).trim(), row.get(1).trim());
+          if (password != null)
+             users.add(Arrays.asList(row.get(0).trim(), password));
+       }
+       List<List<String>> stores = esql.executeQueryAndReturnResult("SELECT storeID FROM Store LIMIT 1000");
+       List<MenuCatalog.Item> items = esql.getMenu().all().defaultOrder();
+       if (users.isEmpty() || stores.isEmpty() || items.isEmpty())
+          throw new IllegalStateException("load data into Users, Store and Items first;" +
+                                          " hashed passwords are only known for generated users");
+
+       Map<String, Op> benchmarks = new LinkedHashMap<String, Op>();
+
+       benchmarks.put("returnResult", random ->
+          esql.executeQueryAndReturnResult("SELECT itemName, ingredients, typeOfItem, price, description FROM Items"));
+
+       benchmarks.put("printResult", random -> {
+          PizzaStore.bindSession(null, DISCARD);
+          try {
+             esql.executeQueryAndPrintResult("SELECT * FROM Store");
+          } finally {
+             PizzaStore.unbindSession();
+          }
+       });
+
+       benchmarks.put("login", random -> {
+          List<String> user = users.get(random.nextInt(users.size()));
+          String script = user.get(0).trim() + "\n" + user.get(1).trim() + "\n";
+          PizzaStore.bindSession(new BufferedReader(new StringReader(script)), DISCARD);
+          try {
+             if (PizzaStore.LogIn(esql) == null)
+                throw new IllegalStateException("login failed for " + user.get(0));
+          } finally {
+             PizzaStore.unbindSession();
+          }
+       });
+
+       // the same, paying for the password hash on every login
+       benchmarks.put("loginUncached", random -> {
+          List<String> user = users.get(random.nextInt(users.size()));
+          esql.principals().invalidate(user.get(0));
+          String script = user.get(0) + "\n" + user.get(1) + "\n";
+          PizzaStore.bindSession(new BufferedReader(new StringReader(script)), DISCARD);
+          try {
+             if (PizzaStore.LogIn(esql) == null)
+                throw new IllegalStateException("login failed for " + user.get(0));
+          } finally {
+             PizzaStore.unbindSession();
+          }
+       });
+
+       benchmarks.put("placeOrder", random -> {
+          String login = users.get(random.nextInt(users.size())).get(0).trim();
+          int storeID = Integer.parseInt(stores.get(random.nextInt(stores.size())).get(0).trim());
+          Map<String, Integer> basket = new HashMap<String, Integer>();
+          long total = 0;
+          for (int n = 1 + random.nextInt(3); n > 0; n--) {
+             MenuCatalog.Item item = items.get(random.nextInt(items.size()));
+             int quantity = 1 + random.nextInt(3);
+             basket.merge(item.name, quantity, Integer::sum);
+             total += item.priceCents * quantity;
+          }
+          PizzaStore.bindSession(null, DISCARD);
+          try {
+             PizzaStore.submitOrder(esql, login, storeID, basket, total);
+          } finally {
+             PizzaStore.unbindSession();
+          }
+       });
+
+       benchmarks.put("customerHistory", random -> {
+          String login = users.get(random.nextInt(users.size())).get(0).trim();
+          new OrderHistory(20).login(login).nextPage(esql);
+       });
+
+       benchmarks.put("allOrdersHistory", random -> {
+          OrderHistory history = new OrderHistory(20);
+          // a few pages deep, to show the cost does not grow with depth
+          for (int page = 1 + random.nextInt(5); page > 0; page--)
+             history.nextPage(esql);
+       });
+
+       return benchmarks;
+    }//end benchmarks
+
+    /**
+     * Runs one benchmark on the given number of threads.
+     */
+    static Result measure(String name, Op op, int threads, long warmupMs, long measureMs) throws Exception {
+       CyclicBarrier start = new CyclicBarrier(threads);
+       long[][] samples = new long[threads][];
+       long[] counts = new long[threads];
+       long[] allocated = new long[threads];
+       Throwable[] failure = new Throwable[1];
+
+       Thread[] workers = new Thread[threads];
+       for (int t = 0; t < threads; t++) {
+          int index = t;
+          workers[t] = new Thread(() -> {
+             try {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                start.await();
+                long warmupEnd = System.nanoTime() + warmupMs * 1000000L;
+                while (System.nanoTime() < warmupEnd)
+                   op.run(random);
+
+                long[] own = new long[1 << 16];
+                long count = 0;
+                long allocStart = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long end = System.nanoTime() + measureMs * 1000000L;
+                long now = System.nanoTime();
+                while (now < end) {
+                   op.run(random);
+                   long after = System.nanoTime();
+                   if (count == own.length)
+                      own = Arrays.copyOf(own, own.length * 2);
+                   own[(int) count++] = after - now;
+                   now = after;
+                }
+                allocated[index] = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocStart;
+                samples[index] = Arrays.copyOf(own, (int) count);
+                counts[index] = count;
+             } catch (Throwable e) {
+                synchronized (failure) {
+                   failure[0] = e;
+                }
+             }
+          }, "bench-" + t);
+          workers[t].start();
+       }
+       for (Thread worker : workers)
+          worker.join();
+       if (failure[0] != null)
+          throw new RuntimeException(name + " failed", failure[0]);
+
+       long total = 0, bytes = 0;
+       for (int t = 0; t < threads; t++) {
+          total += counts[t];
+          bytes += allocated[t];
+       }
+       long[] all = new long[(int) total];
+       int pos = 0;
+       long sum = 0;
+       for (long[] own : samples) {
+          System.arraycopy(own, 0, all, pos, own.length);
+          pos += own.length;
+          for (long sample : own)
+             sum += sample;
+       }
+       Arrays.sort(all);
+
+       Result r = new Result();
+       r.name = name;
+       r.ops = total;
+       r.opsPerSec = total * 1000.0 / measureMs;
+       r.meanUs = total == 0 ? 0 : sum / 1000.0 / total;
+       r.p50Us = percentile(all, 0.50);
+       r.p90Us = percentile(all, 0.90);
+       r.p99Us = percentile(all, 0.99);
+       r.p999Us = percentile(all, 0.999);
+       r.maxUs = all.length == 0 ? 0 : all[all.length - 1] / 1000.0;
+       r.allocBytesPerOp = total == 0 ? 0 : (double) bytes / total;
+       return r;
+    }//end measure
+
+    /**
+     * @return the plaintext password of a user read from Users: the column
+     *         itself until PasswordHasher replaced it, pwN for the generated
+     *         user genN, or null when it cannot be known
+     */
+    static String knownPassword(String login, String stored) {
+       if (!PasswordHasher.isHash(stored))
+          return stored;
+       if (login.matches("gen[0-9]+"))
+          return "pw" + login.substring(3);
+       return null;
+    }
+
+    static double percentile(long[] sorted, double p) {
+       if (sorted.length == 0)
+          return 0;
+       int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+       return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    static void report(List<Result> results, Map<String, Result> baseline) {
+       System.out.println();
+       System.out.println(String.format("%-18s %12s %10s %10s %10s %10s %10s %10s %12s",
+          "Benchmark", "ops/s", "mean us", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "alloc B/op"));
+       for (Result r : results) {
+          System.out.println(String.format("%-18s %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %12.0f",
+             r.name, r.opsPerSec, r.meanUs, r.p50Us, r.p90Us, r.p99Us, r.p999Us, r.maxUs, r.allocBytesPerOp));
+          Result base = baseline == null ? null : baseline.get(r.name);
+          if (base != null)
+             System.out.println(String.format("%-18s %+11.1f%% %10s %+9.1f%% %10s %+9.1f%% %10s %10s %+11.1f%%",
+                "  vs baseline", change(base.opsPerSec, r.opsPerSec), "",
+                change(base.p50Us, r.p50Us), "", change(base.p99Us, r.p99Us), "", "",
+                change(base.allocBytesPerOp, r.allocBytesPerOp)));
+       }
+    }
+
+    /*
+     * Lists the benchmarks whose throughput fell more than budgetPct below
+     * the baseline.
+     * @return true if there were none
+     */
+    static boolean withinBudget(List<Result> results, Map<String, Result> baseline, double budgetPct) {
+       boolean within = true;
+       for (Result r : results) {
+          Result base = baseline.get(r.name);
+          if (base != null && change(base.opsPerSec, r.opsPerSec) < -budgetPct) {
+             System.out.println(String.format("%s: throughput %.1f%% below the baseline, over the %.1f%% budget",
+                r.name, -change(base.opsPerSec, r.opsPerSec), budgetPct));
+             within = false;
+          }
+       }
+       return within;
+    }//end withinBudget
+
+    static double change(double before, double after) {
+       return before == 0 ? 0 : (after - before) * 100.0 / before;
+    }
+
+    static void writeResults(List<Result> results, String file) throws IOException {
+       try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+          for (Result r : results)
+             writer.println(r.toTsv());
+       }
+    }
+
+    static Map<String, Result> readResults(String file) throws IOException {
+       Map<String, Result> results = new HashMap<String, Result>();
+       try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+             if (!line.isEmpty()) {
+                Result r = Result.fromTsv(line);
+                results.put(r.name, r);
+             }
+          }
+       }
+       return results;
+    }
+ }//end PizzaStoreBench
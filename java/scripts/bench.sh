@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program and the benchmarks
+javac -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#run the benchmarks, extra arguments are passed through
+#e.g. -threads 8 -time 30 -out after.tsv -baseline before.tsv
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PizzaStoreBench $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#load data/*.csv from this machine with client-side COPY, extra arguments are passed through
+#e.g. -resume to continue an interrupted load. COPY needs a newer driver than pg73jdbc3.jar,
+#point PGJDBC at it, e.g. PGJDBC=postgresql-42.7.3.jar
+java -cp $DIR/../classes:${PGJDBC:-$DIR/../lib/pg73jdbc3.jar} BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER -data $DIR/../../data "$@"
@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program and the load tools
+javac -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#run the load driver, extra arguments are passed through
+#e.g. -users 200 -think 50 -time 120
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar LoadDriver $USER"_project_phase_3_DB" $PGPORT $USER "$@"
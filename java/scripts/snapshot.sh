@@ -0,0 +1,15 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#export the orders to a snapshot file, or analyze one, e.g.
+#  bash snapshot.sh export /tmp/orders.snap
+#  bash snapshot.sh pairs /tmp/orders.snap -from 2024-01-01 -limit 10
+if [ "$1" = "export" ]; then
+   java -cp $DIR/../classes:${PGJDBC:-$DIR/../lib/pg73jdbc3.jar} OrderSnapshot export $USER"_project_phase_3_DB" $PGPORT $USER "${@:2}"
+else
+   java -cp $DIR/../classes OrderSnapshot "$@"
+fi
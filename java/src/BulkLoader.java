@@ -0,0 +1,257 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.File;
+ import java.io.IOException;
+ import java.io.InputStream;
+ import java.io.InputStreamReader;
+ import java.nio.ByteBuffer;
+ import java.nio.MappedByteBuffer;
+ import java.nio.channels.FileChannel;
+ import java.nio.charset.StandardCharsets;
+ import java.nio.file.StandardOpenOption;
+ import java.sql.SQLException;
+ import java.util.ArrayList;
+ import java.util.List;
+ import java.util.concurrent.ExecutorService;
+ import java.util.concurrent.Executors;
+ import java.util.concurrent.Future;
+
+ /**
+  * This class loads the CSV files in data/ from the client machine with
+  * COPY ... FROM STDIN, replacing the server-side paths in load_data.sql.
+  *
+  * Users, Items and Store do not reference each other and are loaded in
+  * parallel; FoodOrder follows once they are in, then ItemsInOrder. Each
+  * file is memory-mapped and sent in chunks that end on a row boundary.
+  * Every chunk is committed together with its end offset in LoadProgress,
+  * so an interrupted load continues from the last committed chunk when
+  * run again with -resume.
+  *
+  * Usage: java BulkLoader <dbname> <port> <user> [-data dir] [-chunkMB n] [-resume]
+  */
+ public class BulkLoader {
+
+    // tables loaded in parallel, then in order, with their files in data/
+    private static final String[][] INDEPENDENT = {
+       { "Users", "users.csv" }, { "Items", "items.csv" }, { "Store", "store.csv" } };
+    private static final String[][] DEPENDENT = {
+       { "FoodOrder", "foodorder.csv" }, { "ItemsInOrder", "itemsinorder.csv" } };
+
+    private final PizzaStore _esql;
+    private final String _dataDir;
+    private final long _chunkBytes;
+    private final boolean _resume;
+
+    /**
+     * Creates a loader that writes through the given PizzaStore.
+     *
+     * @param esql the connected store
+     * @param dataDir the directory holding the CSV files
+     * @param chunkBytes the approximate size of each committed chunk
+     * @param resume true to continue from the offsets in LoadProgress
+     */
+    public BulkLoader(PizzaStore esql, String dataDir, long chunkBytes, boolean resume) {
+       this._esql = esql;
+       this._dataDir = dataDir;
+       this._chunkBytes = chunkBytes;
+       this._resume = resume;
+    }//end BulkLoader
+
+    public static void main(String[] args) throws Exception {
+       if (args.length < 3) {
+          System.err.println("Usage: java [-classpath <classpath>] BulkLoader <dbname> <port> <user>" +
+                             " [-data dir] [-chunkMB n] [-resume]");
+          return;
+       }
+       String dataDir = "data";
+       long chunkBytes = 16L << 20;
+       boolean resume = false;
+       for (int i = 3; i < args.length; i++) {
+          switch (args[i]) {
+             case "-data": dataDir = args[++i]; break;
+             case "-chunkMB": chunkBytes = Long.parseLong(args[++i]) << 20; break;
+             case "-resume": resume = true; break;
+             default: throw new IllegalArgumentException("unknown option " + args[i]);
+          }
+       }
+       if (!PgCopy.isAvailable()) {
+          System.err.println("BulkLoader needs a PostgreSQL JDBC driver with COPY support on the classpath;" +
+                             " the bundled pg73jdbc3.jar does not have it.");
+          System.exit(1);
+       }
+
+       Class.forName("org.postgresql.Driver");
+       PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+       try {
+          long start = System.nanoTime();
+          long rows = new BulkLoader(esql, dataDir, chunkBytes, resume).load();
+          double seconds = (System.nanoTime() - start) / 1e9;
+          System.out.println(String.format("Loaded %d rows in %.1f s (%.0f rows/s)", rows, seconds, rows / seconds));
+       } finally {
+          esql.cleanup();
+       }
+    }//end main
+
+    /**
+     * Loads every table, respecting foreign key order.
+     *
+     * @return the number of rows loaded
+     * @throws java.lang.Exception when any table fails to load
+     */
+    public long load() throws Exception {
+       long rows = 0;
+       ExecutorService workers = Executors.newFixedThreadPool(INDEPENDENT.length);
+       try {
+          List<Future<Long>> loads = new ArrayList<Future<Long>>();
+          for (String[] table : INDEPENDENT)
+             loads.add(workers.submit(() -> loadTable(table[0], table[1])));
+          for (Future<Long> load : loads)
+             rows += load.get();
+       } finally {
+          workers.shutdown();
+       }
+       for (String[] table : DEPENDENT) {
+          rows += loadTable(table[0], table[1]);
+          if (table[0].equals("FoodOrder")) {
+             // continue the order id sequence after the loaded orders
+             this._esql.executeAndReturnResult("SELECT setval('" + PizzaStore.ORDER_ID_SEQUENCE +
+                                                "', (SELECT COALESCE(MAX(orderID), 1) FROM FoodOrder))");
+          }
+       }
+       // users reference menu items in their favoriteItems text
+       this._esql.executeAndReturnResult("SELECT import_favorite_items()");
+       this._esql.executeUpdate("ANALYZE");
+       return rows;
+    }//end load
+
+    /**
+     * Streams one CSV file into its table, one committed chunk at a time.
+     *
+     * @return the number of rows loaded by this run
+     */
+    long loadTable(String table, String fileName) throws IOException, SQLException {
+       File file = new File(this._dataDir, fileName);
+       long start = System.nanoTime();
+       long rows = 0;
+       try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+          long size = channel.size();
+          long offset = startOffset(table, channel, size);
+          if (offset >= size) {
+             System.out.println(table + ": already loaded");
+             return 0;
+          }
+          String copy = "COPY " + table + " FROM STDIN WITH CSV";
+          while (offset < size) {
+             MappedByteBuffer chunk = nextChunk(channel, offset, size);
+             long end = offset + chunk.limit();
+             long copied = this._esql.executeInTransaction(() -> {
+                long n = this._esql.copyIn(copy,
+                   new InputStreamReader(new BufferInputStream(chunk), StandardCharsets.UTF_8));
+                this._esql.executeUpdate("UPDATE LoadProgress SET byteOffset=?, rowsLoaded=rowsLoaded+? WHERE tableName=?",
+                                         end, n, table);
+                return n;
+             });
+             rows += copied;
+             offset = end;
+             double seconds = (System.nanoTime() - start) / 1e9;
+             System.out.println(String.format("%s: %d rows, %d%% of %s, %.0f rows/s",
+                table, rows, offset * 100 / size, fileName, rows / seconds));
+          }
+       }
+       return rows;
+    }//end loadTable
+
+    /*
+     * Returns the offset to copy from, recording a fresh start in
+     * LoadProgress unless an earlier load of the same file is resumed.
+     */
+    private long startOffset(String table, FileChannel channel, long size) throws IOException, SQLException {
+       if (this._resume) {
+          List<List<String>> progress = this._esql.executeQueryAndReturnResult(
+             "SELECT byteOffset, fileSize FROM LoadProgress WHERE tableName=?", table);
+          if (!progress.isEmpty()) {
+             if (Long.parseLong(progress.get(0).get(1).trim()) != size)
+                throw new SQLException(table + ": the file changed size since the interrupted load, cannot resume");
+             return Long.parseLong(progress.get(0).get(0).trim());
+          }
+       }
+       long headerEnd = size == 0 ? 0 : nextChunk(channel, 0, size, 1).limit();
+       this._esql.executeInTransaction(() -> {
+          this._esql.executeUpdate("DELETE FROM LoadProgress WHERE tableName=?", table);
+          this._esql.executeUpdate("INSERT INTO LoadProgress (tableName, fileSize, byteOffset, rowsLoaded) VALUES (?, ?, ?, 0)",
+                                   table, size, headerEnd);
+          return null;
+       });
+       return headerEnd;
+    }
+
+    private MappedByteBuffer nextChunk(FileChannel channel, long offset, long size) throws IOException {
+       return nextChunk(channel, offset, size, this._chunkBytes);
+    }
+
+    /*
+     * Maps the rows starting at offset, about chunkBytes of them, cut after
+     * the last line break that is not inside a quoted field. A single row
+     * longer than chunkBytes is mapped whole.
+     */
+    private static MappedByteBuffer nextChunk(FileChannel channel, long offset, long size, long chunkBytes) throws IOException {
+       for (long length = chunkBytes; ; length *= 2) {
+          length = Math.min(length, Math.min(size - offset, Integer.MAX_VALUE));
+          MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+          if (offset + length == size)
+             return map;
+          boolean quoted = false;
+          int rowEnd = -1;
+          for (int i = 0; i < length; i++) {
+             byte b = map.get(i);
+             if (b == '"')
+                quoted = !quoted;
+             else if (b == '\n' && !quoted) {
+                rowEnd = i + 1;
+                if (chunkBytes == 1)
+                   break;
+             }
+          }
+          if (rowEnd > 0) {
+             map.limit(rowEnd);
+             return map;
+          }
+       }
+    }//end nextChunk
+
+    /*
+     * Reads a mapped chunk without copying it to the heap first
+     */
+    private static class BufferInputStream extends InputStream {
+       private final ByteBuffer _buffer;
+
+       BufferInputStream(ByteBuffer buffer) {
+          this._buffer = buffer;
+       }
+
+       @Override
+       public int read() {
+          return this._buffer.hasRemaining() ? this._buffer.get() & 0xff : -1;
+       }
+
+       @Override
+       public int read(byte[] bytes, int off, int len) {
+          if (!this._buffer.hasRemaining())
+             return -1;
+          len = Math.min(len, this._buffer.remaining());
+          this._buffer.get(bytes, off, len);
+          return len;
+       }
+    }//end BufferInputStream
+ }//end BulkLoader
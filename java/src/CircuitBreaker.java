@@ -0,0 +1,158 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.SQLException;
+ import java.sql.SQLTimeoutException;
+ import java.sql.SQLTransientConnectionException;
+ import java.util.concurrent.TimeUnit;
+ import java.util.concurrent.atomic.AtomicInteger;
+ import java.util.concurrent.atomic.AtomicLong;
+ import java.util.concurrent.atomic.LongAdder;
+
+ /**
+  * This class stops sending calls to a database that is down or saturated.
+  * Only failures that mean the server could not do the work count: broken
+  * connections, timeouts waiting for a pooled connection or for a
+  * statement, cancelled statements and out-of-resources errors. Any other
+  * outcome, including constraint violations, shows the server is answering
+  * and resets the count. Drivers that set no SQLState, like the bundled
+  * pg73jdbc3.jar, are classified by exception type and message instead.
+  *
+  * After that many failures in a row the breaker opens, and for the open
+  * interval every call fails at once instead of waiting for a connection.
+  * Then one call is let through as a trial: if it succeeds the breaker
+  * closes, otherwise it opens for another interval. A trial that never
+  * reports back is followed by another one an interval later.
+  */
+ public class CircuitBreaker {
+
+    // failures in a row that open the breaker, -Dpizzastore.breaker.failures; 0 turns it off
+    static final int FAILURES = Integer.getInteger("pizzastore.breaker.failures", 5);
+
+    // how long calls fail fast before a trial call, -Dpizzastore.breaker.openMs
+    static final long OPEN_MS = Long.getLong("pizzastore.breaker.openMs", 5000);
+
+    // what a call refused by an open breaker reports, as Postgres does when it cannot accept connections
+    static final String REFUSED_STATE = "57P03";
+
+    private final int _threshold;
+    private final long _openNanos;
+    private final AtomicInteger _failures = new AtomicInteger();
+    private final LongAdder _refused = new LongAdder();
+    private final LongAdder _opened = new LongAdder();
+    private volatile boolean _open = false;
+
+    // when the breaker opened or last let a trial call through, in ns
+    private final AtomicLong _openedAt = new AtomicLong();
+
+    /**
+     * Creates a closed breaker
+     *
+     * @param threshold failures in a row that open it, 0 never opens it
+     * @param openMs how long it stays open before a trial call
+     */
+    public CircuitBreaker(int threshold, long openMs) {
+       this._threshold = threshold;
+       this._openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+    }//end CircuitBreaker
+
+    /**
+     * @return a breaker configured from the pizzastore.breaker.* system properties
+     */
+    public static CircuitBreaker fromSystemProperties() {
+       return new CircuitBreaker(FAILURES, OPEN_MS);
+    }
+
+    /**
+     * Lets a call through, or refuses it while the breaker is open.
+     *
+     * @throws java.sql.SQLTransientConnectionException when the call is refused
+     */
+    public void acquire() throws SQLException {
+       if (!this._open)
+          return;
+       long openedAt = this._openedAt.get();
+       long now = System.nanoTime();
+       if (now - openedAt >= this._openNanos && this._openedAt.compareAndSet(openedAt, now))
+          return;
+       this._refused.increment();
+       throw new SQLTransientConnectionException(
+          "The database is not responding, please try again in a few seconds", REFUSED_STATE);
+    }//end acquire
+
+    /**
+     * Records a call the server answered.
+     */
+    public void success() {
+       if (this._failures.get() != 0)
+          this._failures.set(0);
+       if (this._open)
+          this._open = false;
+    }//end success
+
+    /**
+     * Records a failed call; failures that do not count are successes.
+     */
+    public void failure(SQLException e) {
+       if (!isOverload(e)) {
+          success();
+          return;
+       }
+       if (this._threshold <= 0)
+          return;
+       if (this._failures.incrementAndGet() >= this._threshold || this._open) {
+          this._openedAt.set(System.nanoTime());
+          if (!this._open)
+             this._opened.increment();
+          this._open = true;
+       }
+    }//end failure
+
+    /**
+     * @return true for failures that mean the database could not do the
+     *         work, as opposed to refusing it
+     */
+    public static boolean isOverload(SQLException e) {
+       if (e instanceof SQLTimeoutException)
+          return true;
+       String state = e.getSQLState();
+       if (state != null)
+          return state.startsWith("08") || state.startsWith("53") || state.equals("57014") || state.equals("57P03");
+       return e instanceof SQLTransientConnectionException || ConnectionPool.isConnectionFailure(e) ||
+              ConnectionPool.mentions(e, OVERLOAD_MESSAGES);
+    }
+
+    // how the server words classes 53, 57014 and 57P03 to drivers that set no SQLState
+    private static final String[] OVERLOAD_MESSAGES = {
+       "too many clients", "remaining connection slots", "out of memory", "no space left on device",
+       "could not resize shared memory", "canceling statement due to", "the database system is starting up",
+       "the database system is shutting down", "the database system is in recovery mode"
+    };
+
+    public boolean isOpen() {
+       return this._open;
+    }
+
+    /**
+     * @return the calls refused so far
+     */
+    public long refused() {
+       return this._refused.sum();
+    }
+
+    @Override
+    public String toString() {
+       return "CircuitBreaker[" + (this._open ? "open" : "closed") + ", opened " + this._opened.sum() +
+              " times, refused " + this._refused.sum() + " calls]";
+    }
+ }//end CircuitBreaker
@@ -0,0 +1,489 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.Connection;
+ import java.sql.DriverManager;
+ import java.sql.PreparedStatement;
+ import java.sql.ResultSet;
+ import java.sql.SQLException;
+ import java.sql.SQLNonTransientConnectionException;
+ import java.sql.SQLRecoverableException;
+ import java.sql.SQLTimeoutException;
+ import java.util.ArrayDeque;
+ import java.util.ArrayList;
+ import java.util.Iterator;
+ import java.util.List;
+ import java.util.concurrent.Executors;
+ import java.util.concurrent.ScheduledExecutorService;
+ import java.util.concurrent.TimeUnit;
+ import java.util.concurrent.locks.Condition;
+ import java.util.concurrent.locks.ReentrantLock;
+
+ /**
+  * This class keeps a bounded set of physical connections to one database.
+  * Callers borrow a connection for the duration of a statement (or a
+  * transaction) and hand it back with release().
+  *
+  * Connections are validated on borrow when they have been idle for a while,
+  * closed after sitting idle past the idle timeout, and retired once they
+  * reach their maximum lifetime. Each connection owns its own StatementCache.
+  */
+ public class ConnectionPool {
+
+    /**
+     * Pool settings. Every value can be overridden with a system property,
+     * e.g. -Dpizzastore.pool.maxSize=20
+     */
+    public static class Config {
+       public int minSize = 1;
+       public int maxSize = 10;
+       public long acquireTimeoutMs = 30000;
+       public long idleTimeoutMs = 600000;
+       public long maxLifetimeMs = 1800000;
+       public long validationIntervalMs = 1000;
+       public int statementCacheSize = 64;
+
+       public static Config fromSystemProperties() {
+          Config config = new Config();
+          config.minSize = Integer.getInteger("pizzastore.pool.minSize", config.minSize);
+          config.maxSize = Integer.getInteger("pizzastore.pool.maxSize", config.maxSize);
+          config.acquireTimeoutMs = Long.getLong("pizzastore.pool.acquireTimeoutMs", config.acquireTimeoutMs);
+          config.idleTimeoutMs = Long.getLong("pizzastore.pool.idleTimeoutMs", config.idleTimeoutMs);
+          config.maxLifetimeMs = Long.getLong("pizzastore.pool.maxLifetimeMs", config.maxLifetimeMs);
+          config.validationIntervalMs = Long.getLong("pizzastore.pool.validationIntervalMs", config.validationIntervalMs);
+          config.statementCacheSize = Integer.getInteger("pizzastore.pool.statementCacheSize", config.statementCacheSize);
+          return config;
+       }
+    }//end Config
+
+    /**
+     * A physical connection handed out by the pool, together with the
+     * prepared statements cached on it.
+     */
+    public static class PooledConnection {
+       private final Connection _connection;
+       private final StatementCache _statements;
+       private final long _createdAt;
+       private long _lastUsed;
+
+       PooledConnection(Connection connection, int statementCacheSize) {
+          this._connection = connection;
+          this._statements = new StatementCache(connection, statementCacheSize);
+          this._createdAt = System.currentTimeMillis();
+          this._lastUsed = this._createdAt;
+       }
+
+       public Connection connection() { return this._connection; }
+       public StatementCache statements() { return this._statements; }
+
+       void close() {
+          this._statements.clear();
+          try {
+             this._connection.close();
+          } catch (SQLException e) {
+             // ignored.
+          }
+       }
+    }//end PooledConnection
+
+    private final String _url;
+    private final String _user;
+    private final String _passwd;
+    private final Config _config;
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _available = this._lock.newCondition();
+
+    // idle connections, most recently used first.
+    private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+
+    // number of open connections, idle or borrowed, including ones being opened.
+    private int _total = 0;
+    private int _waiting = 0;
+    private boolean _closed = false;
+
+    // metrics, guarded by _lock.
+    private long _borrows = 0;
+    private long _timeouts = 0;
+    private long _totalWaitNanos = 0;
+    private long _maxWaitNanos = 0;
+    private long _created = 0;
+    private long _destroyed = 0;
+
+    private final ScheduledExecutorService _housekeeper;
+
+    /**
+     * Creates a new pool and opens its minimum number of connections
+     *
+     * @param url the JDBC connection URL
+     * @param user the user name used to login to the database
+     * @param passwd the user login password
+     * @param config the pool settings
+     * @throws java.sql.SQLException when the initial connections cannot be opened
+     */
+    public ConnectionPool(String url, String user, String passwd, Config config) throws SQLException {
+       if (config.minSize < 0 || config.maxSize < 1 || config.minSize > config.maxSize)
+          throw new IllegalArgumentException("invalid pool size " + config.minSize + ".." + config.maxSize);
+       this._url = url;
+       this._user = user;
+       this._passwd = passwd;
+       this._config = config;
+
+       List<PooledConnection> initial = new ArrayList<PooledConnection>();
+       try {
+          for (int i = 0; i < config.minSize; i++)
+             initial.add(open());
+       } catch (SQLException e) {
+          for (PooledConnection c : initial)
+             c.close();
+          throw e;
+       }
+       this._idle.addAll(initial);
+       this._total = initial.size();
+
+       this._housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread t = new Thread(r, "pool-housekeeper");
+          t.setDaemon(true);
+          return t;
+       });
+       long period = Math.max(1000, Math.min(config.idleTimeoutMs, config.maxLifetimeMs) / 4);
+       this._housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }//end ConnectionPool
+
+    /**
+     * Borrows a connection, waiting up to the acquire timeout for one to
+     * become available.
+     *
+     * @return a validated connection that must be given back with release()
+     * @throws java.sql.SQLException when no connection could be obtained in time
+     */
+    public PooledConnection borrow() throws SQLException {
+       long start = System.nanoTime();
+       long deadline = start + TimeUnit.MILLISECONDS.toNanos(this._config.acquireTimeoutMs);
+       while (true) {
+          PooledConnection candidate = null;
+          boolean create = false;
+          this._lock.lock();
+          try {
+             while (candidate == null && !create) {
+                if (this._closed)
+                   throw new SQLException("Connection pool is closed");
+                if (!this._idle.isEmpty()) {
+                   candidate = this._idle.pollFirst();
+                } else if (this._total < this._config.maxSize) {
+                   this._total++;
+                   create = true;
+                } else {
+                   long remaining = deadline - System.nanoTime();
+                   if (remaining <= 0) {
+                      this._timeouts++;
+                      throw new SQLTimeoutException("Timed out after " + this._config.acquireTimeoutMs +
+                                             " ms waiting for a database connection");
+                   }
+                   this._waiting++;
+                   try {
+                      this._available.awaitNanos(remaining);
+                   } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                      throw new SQLException("Interrupted while waiting for a database connection");
+                   } finally {
+                      this._waiting--;
+                   }
+                }
+             }
+          } finally {
+             this._lock.unlock();
+          }
+
+          if (create) {
+             try {
+                candidate = open();
+             } catch (SQLException e) {
+                discard(null);
+                throw e;
+             }
+          } else if (!isUsable(candidate)) {
+             discard(candidate);
+             continue;
+          }
+
+          long waited = System.nanoTime() - start;
+          this._lock.lock();
+          try {
+             this._borrows++;
+             this._totalWaitNanos += waited;
+             this._maxWaitNanos = Math.max(this._maxWaitNanos, waited);
+          } finally {
+             this._lock.unlock();
+          }
+          return candidate;
+       }
+    }//end borrow
+
+    /**
+     * Gives a borrowed connection back to the pool.
+     *
+     * @param c the borrowed connection
+     * @param broken true if the connection failed and must not be reused
+     */
+    public void release(PooledConnection c, boolean broken) {
+       long now = System.currentTimeMillis();
+       if (broken || now - c._createdAt >= this._config.maxLifetimeMs) {
+          discard(c);
+          return;
+       }
+       c._lastUsed = now;
+       this._lock.lock();
+       try {
+          if (!this._closed) {
+             this._idle.offerFirst(c);
+             this._available.signal();
+             return;
+          }
+       } finally {
+          this._lock.unlock();
+       }
+       discard(c);
+    }//end release
+
+    // how the bundled pg73jdbc3.jar, which sets no SQLState, reports a lost connection
+    private static final String[] CONNECTION_FAILURE_MESSAGES = {
+       "i/o error", "io erro", "broken the connection", "connection is closed", "connection refused",
+       "connection attempt failed", "connection error has occurred", "backend start-up failed",
+       "terminating connection"
+    };
+
+    /**
+     * Returns true if the given exception means the connection itself is
+     * no longer usable: SQLState class 08 (connection exception), or for
+     * drivers that set no SQLState, the JDBC connection exception types
+     * and the driver's messages for a lost connection.
+     */
+    public static boolean isConnectionFailure(SQLException e) {
+       String state = e.getSQLState();
+       if (state != null)
+          return state.startsWith("08");
+       return e instanceof SQLRecoverableException || e instanceof SQLNonTransientConnectionException ||
+              mentions(e, CONNECTION_FAILURE_MESSAGES);
+    }
+
+    /*
+     * The pg73 driver passes the server's error response on as the
+     * message, which then starts with its severity. FATAL ends the
+     * session, so only ERROR proves the connection still works.
+     */
+    private static boolean isServerError(SQLException e) {
+       String message = e.getMessage();
+       return message != null && message.startsWith("ERROR:");
+    }
+
+    /**
+     * @return true if the exception's message contains one of the
+     *         fragments, ignoring case
+     */
+    static boolean mentions(SQLException e, String... fragments) {
+       String message = e.getMessage();
+       if (message == null)
+          return false;
+       message = message.toLowerCase();
+       for (String fragment : fragments)
+          if (message.contains(fragment))
+             return true;
+       return false;
+    }
+
+    /**
+     * Decides whether a connection that a call failed on may go back to
+     * the pool. A failure the driver classified is trusted, and so is an
+     * error the server answered with, which the pg73 driver reports as
+     * "ERROR: ..." without a SQLState. Anything else may have come from a
+     * dead connection, which is then checked with SELECT 1. Call it
+     * outside of an aborted transaction.
+     *
+     * @return true if the connection must be discarded
+     */
+    public boolean isBroken(PooledConnection c, SQLException e) {
+       if (isConnectionFailure(e))
+          return true;
+       if (e.getSQLState() != null || isServerError(e))
+          return false;
+       return !isAlive(c);
+    }
+
+    /**
+     * Closes every idle connection and refuses further borrows. Borrowed
+     * connections are closed as they are released.
+     */
+    public void close() {
+       List<PooledConnection> toClose;
+       this._lock.lock();
+       try {
+          this._closed = true;
+          toClose = new ArrayList<PooledConnection>(this._idle);
+          this._idle.clear();
+          this._total -= toClose.size();
+          this._destroyed += toClose.size();
+          this._available.signalAll();
+       } finally {
+          this._lock.unlock();
+       }
+       this._housekeeper.shutdownNow();
+       for (PooledConnection c : toClose)
+          c.close();
+    }//end close
+
+    public int active() {
+       this._lock.lock();
+       try { return this._total - this._idle.size(); } finally { this._lock.unlock(); }
+    }
+
+    public int idle() {
+       this._lock.lock();
+       try { return this._idle.size(); } finally { this._lock.unlock(); }
+    }
+
+    public int waiting() {
+       this._lock.lock();
+       try { return this._waiting; } finally { this._lock.unlock(); }
+    }
+
+    /**
+     * @return the average time spent in borrow(), in microseconds
+     */
+    public long averageWaitMicros() {
+       this._lock.lock();
+       try {
+          return this._borrows == 0 ? 0 : this._totalWaitNanos / this._borrows / 1000;
+       } finally {
+          this._lock.unlock();
+       }
+    }
+
+    @Override
+    public String toString() {
+       this._lock.lock();
+       try {
+          return "ConnectionPool[active=" + (this._total - this._idle.size()) +
+                 ", idle=" + this._idle.size() +
+                 ", waiting=" + this._waiting +
+                 ", max=" + this._config.maxSize +
+                 ", borrows=" + this._borrows +
+                 ", timeouts=" + this._timeouts +
+                 ", avgWaitUs=" + (this._borrows == 0 ? 0 : this._totalWaitNanos / this._borrows / 1000) +
+                 ", maxWaitUs=" + this._maxWaitNanos / 1000 +
+                 ", created=" + this._created +
+                 ", destroyed=" + this._destroyed + "]";
+       } finally {
+          this._lock.unlock();
+       }
+    }
+
+    private PooledConnection open() throws SQLException {
+       Connection connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+       this._lock.lock();
+       try {
+          this._created++;
+       } finally {
+          this._lock.unlock();
+       }
+       return new PooledConnection(connection, this._config.statementCacheSize);
+    }
+
+    /**
+     * Checks a connection taken from the idle list. Connections used within
+     * the validation interval are trusted without a round trip.
+     */
+    private boolean isUsable(PooledConnection c) {
+       long now = System.currentTimeMillis();
+       if (now - c._createdAt >= this._config.maxLifetimeMs)
+          return false;
+       if (now - c._lastUsed < this._config.validationIntervalMs)
+          return true;
+       return isAlive(c);
+    }
+
+    private boolean isAlive(PooledConnection c) {
+       try {
+          if (c._connection.isClosed())
+             return false;
+          PreparedStatement stmt = c._statements.prepare("SELECT 1");
+          ResultSet rs = stmt.executeQuery();
+          rs.close();
+          return true;
+       } catch (SQLException e) {
+          return false;
+       }
+    }
+
+    /**
+     * Closes a connection and frees its slot. A null connection only frees
+     * a slot that was reserved for a connection that failed to open.
+     */
+    private void discard(PooledConnection c) {
+       this._lock.lock();
+       try {
+          this._total--;
+          if (c != null)
+             this._destroyed++;
+          this._available.signal();
+       } finally {
+          this._lock.unlock();
+       }
+       if (c != null)
+          c.close();
+    }
+
+    /**
+     * Periodically closes connections that idled too long or reached their
+     * maximum lifetime, then tops the pool back up to its minimum size.
+     */
+    private void housekeep() {
+       long now = System.currentTimeMillis();
+       List<PooledConnection> expired = new ArrayList<PooledConnection>();
+       int missing;
+       this._lock.lock();
+       try {
+          if (this._closed)
+             return;
+          // idle list is most recently used first, so walk from the tail
+          Iterator<PooledConnection> it = this._idle.descendingIterator();
+          while (it.hasNext()) {
+             PooledConnection c = it.next();
+             boolean tooOld = now - c._createdAt >= this._config.maxLifetimeMs;
+             boolean tooIdle = now - c._lastUsed >= this._config.idleTimeoutMs &&
+                               this._total - expired.size() > this._config.minSize;
+             if (tooOld || tooIdle) {
+                it.remove();
+                expired.add(c);
+             }
+          }
+          this._total -= expired.size();
+          this._destroyed += expired.size();
+          missing = Math.max(0, this._config.minSize - this._total);
+          this._total += missing;
+       } finally {
+          this._lock.unlock();
+       }
+
+       for (PooledConnection c : expired)
+          c.close();
+       for (int i = 0; i < missing; i++) {
+          try {
+             PooledConnection c = open();
+             release(c, false);
+          } catch (SQLException e) {
+             discard(null);
+          }
+       }
+    }//end housekeep
+ }//end ConnectionPool
@@ -0,0 +1,160 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.math.BigDecimal;
+ import java.math.RoundingMode;
+ import java.sql.SQLException;
+ import java.util.ArrayList;
+ import java.util.Collections;
+ import java.util.Comparator;
+ import java.util.HashMap;
+ import java.util.List;
+ import java.util.Map;
+
+ /**
+  * This class is an immutable snapshot of the Items table. Lookups by name
+  * go through a hash index, and every menu view (all items or one type,
+  * in default or price order) is computed once when the snapshot is built.
+  * Prices are held as whole cents.
+  *
+  * Snapshots are tagged with the MenuVersion counter, which a trigger on
+  * Items bumps on every change, so a newer version means a reload.
+  */
+ public class MenuCatalog {
+
+    /**
+     * One row of the Items table
+     */
+    public static final class Item {
+       public final String name;
+       public final String ingredients;
+       public final String type;
+       public final long priceCents;
+       public final String description;
+
+       Item(String name, String ingredients, String type, long priceCents, String description) {
+          this.name = name;
+          this.ingredients = ingredients;
+          this.type = type;
+          this.priceCents = priceCents;
+          this.description = description;
+       }
+    }//end Item
+
+    /**
+     * A set of items in table order and in ascending price order
+     */
+    public static final class View {
+       private final List<Item> _defaultOrder;
+       private final List<Item> _byPrice;
+
+       View(List<Item> defaultOrder) {
+          List<Item> byPrice = new ArrayList<Item>(defaultOrder);
+          byPrice.sort(Comparator.comparingLong(item -> item.priceCents));
+          this._defaultOrder = Collections.unmodifiableList(new ArrayList<Item>(defaultOrder));
+          this._byPrice = Collections.unmodifiableList(byPrice);
+       }
+
+       public List<Item> defaultOrder() { return this._defaultOrder; }
+       public List<Item> byPrice() { return this._byPrice; }
+
+       /**
+        * @return the number of leading byPrice() items costing at most maxCents
+        */
+       public int countAtMost(long maxCents) {
+          int lo = 0, hi = this._byPrice.size();
+          while (lo < hi) {
+             int mid = (lo + hi) >>> 1;
+             if (this._byPrice.get(mid).priceCents <= maxCents)
+                lo = mid + 1;
+             else
+                hi = mid;
+          }
+          return lo;
+       }
+    }//end View
+
+    private static final View EMPTY = new View(Collections.<Item>emptyList());
+
+    private final long _version;
+    private final Map<String, Item> _byName;
+    private final View _all;
+    private final Map<String, View> _byType;
+
+    private MenuCatalog(long version, List<Item> items) {
+       this._version = version;
+       this._byName = new HashMap<String, Item>(items.size() * 2);
+       Map<String, List<Item>> types = new HashMap<String, List<Item>>();
+       for (Item item : items) {
+          this._byName.put(item.name, item);
+          types.computeIfAbsent(item.type, t -> new ArrayList<Item>()).add(item);
+       }
+       this._all = new View(items);
+       this._byType = new HashMap<String, View>();
+       for (Map.Entry<String, List<Item>> entry : types.entrySet())
+          this._byType.put(entry.getKey(), new View(entry.getValue()));
+    }
+
+    /**
+     * Reads the whole Items table into a new snapshot
+     *
+     * @param esql the database handle
+     * @param version the MenuVersion value read before the items
+     * @return the snapshot
+     * @throws java.sql.SQLException when the items cannot be read
+     */
+    public static MenuCatalog load(PizzaStore esql, long version) throws SQLException {
+       List<List<String>> rows = esql.executeQueryAndReturnResult(
+          "SELECT itemName, ingredients, typeOfItem, price, description FROM Items");
+       List<Item> items = new ArrayList<Item>(rows.size());
+       for (List<String> row : rows)
+          items.add(new Item(row.get(0).trim(), row.get(1), row.get(2).trim(), parseCents(row.get(3)), row.get(4)));
+       return new MenuCatalog(version, items);
+    }//end load
+
+    public long version() { return this._version; }
+
+    /**
+     * @return the item with the given name, or null if it is not on the menu
+     */
+    public Item get(String name) {
+       return this._byName.get(name);
+    }
+
+    public View all() { return this._all; }
+
+    /**
+     * @return the items of one typeOfItem, empty if there are none
+     */
+    public View ofType(String type) {
+       View view = this._byType.get(type);
+       return view != null ? view : EMPTY;
+    }
+
+    /**
+     * Converts a decimal(10,2) value such as "9.99" to cents
+     */
+    public static long parseCents(String price) {
+       return new BigDecimal(price.trim()).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /**
+     * Formats cents the way Postgres prints decimal(10,2), e.g. "9.99"
+     */
+    public static String formatCents(long cents) {
+       String sign = cents < 0 ? "-" : "";
+       cents = Math.abs(cents);
+       long fraction = cents % 100;
+       return sign + (cents / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+ }//end MenuCatalog
@@ -0,0 +1,158 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.SQLException;
+ import java.util.ArrayList;
+ import java.util.Collections;
+ import java.util.LinkedHashMap;
+ import java.util.List;
+ import java.util.Map;
+
+ /**
+  * This class is one order with its line items, read with a single join
+  * of FoodOrder, ItemsInOrder and Items. Unit prices are the current menu
+  * prices, since line items do not record the price paid.
+  *
+  * Completed and cancelled orders no longer change their status, so they
+  * are kept in a small LRU cache and looked up again without a query. The
+  * prices shown do change with the menu, so an entry is only used while
+  * the menu version read together with its prices is current. Orders can also be
+  * deleted, by cascades from Users and Store, which the cache is not told
+  * of, so an entry is also dropped once its time-to-live has passed.
+  */
+ public final class OrderDetail {
+
+    public static final String[] HEADER_COLUMNS = { "Order ID", "Status", "Order Timestamp", "Total" };
+    public static final String[] LINE_COLUMNS = { "Order Items", "Quantity", "Unit Price", "Line Total" };
+
+    private static final String QUERY =
+       "SELECT o.orderID, o.login, o.orderStatus, o.orderTimestamp, o.totalPrice," +
+       " l.itemName, l.quantity, i.price, l.quantity * i.price," +
+       " (SELECT version FROM MenuVersion)" +
+       " FROM FoodOrder o" +
+       " LEFT JOIN ItemsInOrder l ON l.orderID = o.orderID" +
+       " LEFT JOIN Items i ON i.itemName = l.itemName" +
+       " WHERE o.orderID=? AND (? OR o.login=?)" +
+       " ORDER BY l.itemName";
+
+    public final int orderID;
+    public final String login;
+    public final String status;
+    public final String timestamp;
+    public final String total;
+    public final List<String[]> lines;
+
+    // the MenuVersion read with the prices, in the same snapshot; see Cache
+    private final long _menuVersion;
+    private long _loadedAt;
+
+    private OrderDetail(int orderID, String login, String status, String timestamp, String total, List<String[]> lines,
+                        long menuVersion) {
+       this._menuVersion = menuVersion;
+       this.orderID = orderID;
+       this.login = login;
+       this.status = status;
+       this.timestamp = timestamp;
+       this.total = total;
+       this.lines = Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * @return the header as a single row of HEADER_COLUMNS
+     */
+    public List<String[]> header() {
+       return Collections.singletonList(new String[] { String.valueOf(this.orderID), this.status, this.timestamp, this.total });
+    }
+
+    /**
+     * @return true if the order's status can no longer change
+     */
+    public boolean isFinal() {
+       OrderStatus status = OrderStatus.parse(this.status);
+       return status != null && status.isFinal();
+    }
+
+    /**
+     * Reads an order the user may see, in one round trip. Users without
+     * the VIEW_ALL_ORDERS permission only see their own orders.
+     *
+     * @param esql the database handle
+     * @param orderID the order to read
+     * @param user the user asking
+     * @return the order, or null if it does not exist or is not visible
+     * @throws java.sql.SQLException when the query failed
+     */
+    public static OrderDetail fetch(PizzaStore esql, int orderID, Principal user) throws SQLException {
+       List<List<String>> rows = esql.executeQueryAndReturnResult(QUERY, orderID,
+          user.can(Principal.Permission.VIEW_ALL_ORDERS), user.login);
+       if (rows.isEmpty())
+          return null;
+
+       List<String> first = rows.get(0);
+       List<String[]> lines = new ArrayList<String[]>(rows.size());
+       for (List<String> row : rows) {
+          // an order without line items comes back as one row of nulls
+          if (row.get(5) != null)
+             lines.add(new String[] { row.get(5), row.get(6), row.get(7), row.get(8) });
+       }
+       return new OrderDetail(orderID, first.get(1).trim(), first.get(2) == null ? null : first.get(2).trim(),
+                              first.get(3), first.get(4), lines, Long.parseLong(first.get(9).trim()));
+    }//end fetch
+
+    /**
+     * Least recently used cache of finished orders, safe for concurrent use
+     */
+    public static class Cache {
+       private final LinkedHashMap<Integer, OrderDetail> _orders;
+       private final long _ttlMs;
+
+       /**
+        * @param capacity the most orders remembered at once
+        * @param ttlMs how long an entry is trusted, 0 disables the cache
+        */
+       public Cache(int capacity, long ttlMs) {
+          this._ttlMs = ttlMs;
+          this._orders = new LinkedHashMap<Integer, OrderDetail>(16, 0.75f, true) {
+             @Override
+             protected boolean removeEldestEntry(Map.Entry<Integer, OrderDetail> eldest) {
+                return size() > capacity;
+             }
+          };
+       }
+
+       /**
+        * @return the order if it was read under this menu version and has
+        *         not expired, or null
+        */
+       public synchronized OrderDetail get(int orderID, long menuVersion) {
+          OrderDetail order = this._orders.get(orderID);
+          if (order == null)
+             return null;
+          if (order._menuVersion != menuVersion || System.currentTimeMillis() - order._loadedAt >= this._ttlMs) {
+             this._orders.remove(orderID);
+             return null;
+          }
+          return order;
+       }
+
+       /**
+        * Remembers the order if its status is final.
+        */
+       public synchronized void put(OrderDetail order) {
+          if (this._ttlMs <= 0 || !order.isFinal())
+             return;
+          order._loadedAt = System.currentTimeMillis();
+          this._orders.put(order.orderID, order);
+       }
+    }//end Cache
+ }//end OrderDetail
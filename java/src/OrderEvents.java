@@ -0,0 +1,279 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.lang.reflect.Method;
+ import java.sql.Connection;
+ import java.sql.DriverManager;
+ import java.sql.SQLException;
+ import java.sql.Statement;
+ import java.util.ArrayList;
+ import java.util.List;
+ import java.util.concurrent.ConcurrentHashMap;
+ import java.util.concurrent.ConcurrentLinkedQueue;
+ import java.util.concurrent.CopyOnWriteArrayList;
+ import java.util.concurrent.atomic.AtomicInteger;
+
+ /**
+  * This class fans order status changes out to the sessions that care
+  * about them. A trigger on FoodOrder sends every change with NOTIFY on
+  * the order_status channel as "orderID status login". One listener
+  * thread, on its own connection outside the pool, receives them and
+  * queues each event for the sessions subscribed to that login, and for
+  * the sessions subscribed to every order.
+  *
+  * Sessions drain their queue between menu choices, so nobody has to
+  * poll the database to notice a change. Events sent while the listener
+  * is reconnecting are lost.
+  *
+  * NOTIFY payloads need a PostgreSQL JDBC driver that returns them; with
+  * the bundled pg73 driver isSupported() is false and subscribing does
+  * nothing.
+  */
+ public class OrderEvents {
+
+    static final String CHANNEL = "order_status";
+
+    // how long one wait for notifications lasts, -Dpizzastore.events.pollMs
+    static final long POLL_MS = Long.getLong("pizzastore.events.pollMs", 500);
+
+    // events kept per subscription before the oldest are dropped
+    static final int QUEUE_LIMIT = 100;
+
+    private static final Class<?> PG_CONNECTION;
+    private static final Method GET_NOTIFICATIONS;
+    private static final Method GET_NOTIFICATIONS_WAIT;
+    private static final Method GET_PARAMETER;
+
+    static {
+       Class<?> pgConnection = null;
+       Method getNotifications = null, getNotificationsWait = null, getParameter = null;
+       try {
+          pgConnection = Class.forName("org.postgresql.PGConnection");
+          getNotifications = pgConnection.getMethod("getNotifications");
+          getParameter = Class.forName("org.postgresql.PGNotification").getMethod("getParameter");
+          try {
+             getNotificationsWait = pgConnection.getMethod("getNotifications", int.class);
+          } catch (NoSuchMethodException e) {
+             // older drivers only poll.
+          }
+       } catch (ReflectiveOperationException e) {
+          getParameter = null;
+       }
+       PG_CONNECTION = pgConnection;
+       GET_NOTIFICATIONS = getNotifications;
+       GET_NOTIFICATIONS_WAIT = getNotificationsWait;
+       GET_PARAMETER = getParameter;
+    }
+
+    /**
+     * One status change
+     */
+    public static final class Event {
+       public final int orderID;
+       public final OrderStatus status;
+       public final String login;
+
+       Event(int orderID, OrderStatus status, String login) {
+          this.orderID = orderID;
+          this.status = status;
+          this.login = login;
+       }
+
+       /**
+        * @return the event parsed from a NOTIFY payload, or null if malformed
+        */
+       static Event parse(String payload) {
+          String[] parts = payload == null ? new String[0] : payload.split(" ", 3);
+          if (parts.length < 3)
+             return null;
+          try {
+             OrderStatus status = OrderStatus.parse(parts[1]);
+             return status == null ? null : new Event(Integer.parseInt(parts[0]), status, parts[2].trim());
+          } catch (NumberFormatException e) {
+             return null;
+          }
+       }
+    }//end Event
+
+    /**
+     * The events queued for one session, until it is closed
+     */
+    public final class Subscription implements AutoCloseable {
+       private final String _login;
+       private final ConcurrentLinkedQueue<Event> _queue = new ConcurrentLinkedQueue<Event>();
+       private final AtomicInteger _size = new AtomicInteger();
+
+       Subscription(String login) {
+          this._login = login;
+       }
+
+       void offer(Event event) {
+          this._queue.add(event);
+          // bounded, so a session that never drains cannot grow without limit
+          if (this._size.incrementAndGet() > QUEUE_LIMIT && this._queue.poll() != null)
+             this._size.decrementAndGet();
+       }
+
+       /**
+        * @return the events received since the last call, oldest first
+        */
+       public List<Event> drain() {
+          List<Event> events = new ArrayList<Event>();
+          Event event;
+          while ((event = this._queue.poll()) != null) {
+             this._size.decrementAndGet();
+             events.add(event);
+          }
+          return events;
+       }
+
+       @Override
+       public void close() {
+          unsubscribe(this);
+       }
+    }//end Subscription
+
+    private final String _url;
+    private final String _user;
+    private final String _passwd;
+
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>> _byLogin =
+       new ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>>();
+    private final CopyOnWriteArrayList<Subscription> _everyOrder = new CopyOnWriteArrayList<Subscription>();
+
+    private Thread _listener = null;
+    private volatile boolean _running = true;
+
+    /**
+     * Creates a dispatcher; the listener starts with the first subscription.
+     *
+     * @param url the JDBC URL of the database
+     * @param user the database user
+     * @param passwd the database password
+     */
+    public OrderEvents(String url, String user, String passwd) {
+       this._url = url;
+       this._user = user;
+       this._passwd = passwd;
+    }//end OrderEvents
+
+    /**
+     * @return true if the JDBC driver delivers NOTIFY payloads
+     */
+    public static boolean isSupported() {
+       return GET_PARAMETER != null;
+    }
+
+    /**
+     * Subscribes a session to changes of one user's orders.
+     *
+     * @param login the user whose orders to follow, or null for every order
+     * @return the subscription, to drain and finally close
+     */
+    public Subscription subscribe(String login) {
+       Subscription subscription = new Subscription(login);
+       if (!isSupported() || !Boolean.parseBoolean(System.getProperty("pizzastore.events.enabled", "true")))
+          return subscription;
+       if (login == null)
+          this._everyOrder.add(subscription);
+       else
+          this._byLogin.compute(login, (l, list) -> {
+             if (list == null)
+                list = new CopyOnWriteArrayList<Subscription>();
+             list.add(subscription);
+             return list;
+          });
+       start();
+       return subscription;
+    }//end subscribe
+
+    private void unsubscribe(Subscription subscription) {
+       if (subscription._login == null) {
+          this._everyOrder.remove(subscription);
+          return;
+       }
+       this._byLogin.computeIfPresent(subscription._login, (login, list) -> {
+          list.remove(subscription);
+          return list.isEmpty() ? null : list;
+       });
+    }
+
+    /**
+     * Queues an event for its owner's subscriptions and for every-order ones.
+     */
+    void dispatch(Event event) {
+       List<Subscription> owners = this._byLogin.get(event.login);
+       if (owners != null)
+          for (Subscription subscription : owners)
+             subscription.offer(event);
+       for (Subscription subscription : this._everyOrder)
+          subscription.offer(event);
+    }
+
+    private synchronized void start() {
+       if (this._listener != null || !this._running)
+          return;
+       this._listener = new Thread(this::listen, "order-events");
+       this._listener.setDaemon(true);
+       this._listener.start();
+    }
+
+    /*
+     * Listens until closed, reconnecting after a failure.
+     */
+    private void listen() {
+       while (this._running) {
+          try (Connection connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+               Statement stmt = connection.createStatement()) {
+             stmt.execute("LISTEN " + CHANNEL);
+             Object pg = PG_CONNECTION.isInstance(connection) ? connection : connection.unwrap(PG_CONNECTION);
+             while (this._running) {
+                Object[] notifications;
+                if (GET_NOTIFICATIONS_WAIT != null) {
+                   notifications = (Object[]) GET_NOTIFICATIONS_WAIT.invoke(pg, (int) POLL_MS);
+                } else {
+                   // older drivers only read notifications along with a query result
+                   stmt.execute("SELECT 1");
+                   notifications = (Object[]) GET_NOTIFICATIONS.invoke(pg);
+                   if (notifications == null || notifications.length == 0)
+                      Thread.sleep(POLL_MS);
+                }
+                if (notifications == null)
+                   continue;
+                for (Object notification : notifications) {
+                   Event event = Event.parse((String) GET_PARAMETER.invoke(notification));
+                   if (event != null)
+                      dispatch(event);
+                }
+             }
+          } catch (InterruptedException e) {
+             return;
+          } catch (SQLException | ReflectiveOperationException e) {
+             try {
+                Thread.sleep(1000);
+             } catch (InterruptedException ie) {
+                return;
+             }
+          }
+       }
+    }//end listen
+
+    /**
+     * Stops the listener and closes its connection.
+     */
+    public synchronized void close() {
+       this._running = false;
+       if (this._listener != null)
+          this._listener.interrupt();
+    }//end close
+ }//end OrderEvents
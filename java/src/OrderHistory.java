@@ -0,0 +1,136 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.SQLException;
+ import java.sql.Timestamp;
+ import java.util.ArrayList;
+ import java.util.List;
+
+ /**
+  * This class pages through FoodOrder, newest first, with keyset (seek)
+  * pagination on (orderTimestamp, orderID). Each page starts right after
+  * the last row of the previous one, so every page costs the same index
+  * range scan no matter how deep into the history it is.
+  *
+  * Filters are optional and combine with AND. Each returned row holds the
+  * Order ID, Store, Status, Order Timestamp and Total columns.
+  */
+ public class OrderHistory {
+
+    public static final String[] COLUMNS = { "Order ID", "Store", "Status", "Order Timestamp", "Total" };
+
+    private final int _pageSize;
+
+    // filters, null when not set
+    private String _login;
+    private Integer _storeID;
+    private String _status;
+    private Timestamp _from;
+    private Timestamp _until;
+
+    // key of the last row returned, null before the first page
+    private Timestamp _lastTimestamp;
+    private int _lastOrderID;
+    private boolean _exhausted = false;
+
+    /**
+     * Creates a new history cursor
+     *
+     * @param pageSize the maximum number of rows per page
+     */
+    public OrderHistory(int pageSize) {
+       if (pageSize < 1)
+          throw new IllegalArgumentException("pageSize must be at least 1");
+       this._pageSize = pageSize;
+    }//end OrderHistory
+
+    /** Only orders placed by this login */
+    public OrderHistory login(String login) { this._login = login; return this; }
+
+    /** Only orders placed at this store */
+    public OrderHistory store(int storeID) { this._storeID = storeID; return this; }
+
+    /** Only orders with this status */
+    public OrderHistory status(String status) { this._status = status; return this; }
+
+    /** Only orders placed at or after this time */
+    public OrderHistory from(Timestamp from) { this._from = from; return this; }
+
+    /** Only orders placed before this time */
+    public OrderHistory until(Timestamp until) { this._until = until; return this; }
+
+    /**
+     * @return true once a page came back shorter than the page size
+     */
+    public boolean isExhausted() {
+       return this._exhausted;
+    }
+
+    /**
+     * Fetches the next page of orders
+     *
+     * @param esql the database handle
+     * @return up to pageSize rows, empty once the history is exhausted
+     * @throws java.sql.SQLException when the query failed
+     */
+    public List<String[]> nextPage(PizzaStore esql) throws SQLException {
+       if (this._exhausted)
+          return new ArrayList<String[]>();
+
+       StringBuilder sql = new StringBuilder(
+          "SELECT orderID, storeID, orderStatus, orderTimestamp, totalPrice FROM FoodOrder WHERE TRUE");
+       List<Object> params = new ArrayList<Object>();
+       if (this._login != null) {
+          sql.append(" AND login=?");
+          params.add(this._login);
+       }
+       if (this._storeID != null) {
+          sql.append(" AND storeID=?");
+          params.add(this._storeID);
+       }
+       if (this._status != null) {
+          sql.append(" AND orderStatus=?");
+          params.add(this._status);
+       }
+       if (this._from != null) {
+          sql.append(" AND orderTimestamp>=?");
+          params.add(this._from);
+       }
+       if (this._until != null) {
+          sql.append(" AND orderTimestamp<?");
+          params.add(this._until);
+       }
+       if (this._lastTimestamp != null) {
+          // seek past the last row of the previous page
+          sql.append(" AND (orderTimestamp, orderID) < (?, ?)");
+          params.add(this._lastTimestamp);
+          params.add(this._lastOrderID);
+       }
+       sql.append(" ORDER BY orderTimestamp DESC, orderID DESC LIMIT ?");
+       params.add(this._pageSize);
+
+       List<List<String>> rows = esql.executeQueryAndReturnResult(sql.toString(), params.toArray());
+       List<String[]> page = new ArrayList<String[]>(rows.size());
+       for (List<String> row : rows)
+          page.add(new String[] { row.get(0), row.get(1), row.get(2) == null ? null : row.get(2).trim(), row.get(3), row.get(4) });
+
+       if (rows.size() < this._pageSize)
+          this._exhausted = true;
+       if (!rows.isEmpty()) {
+          List<String> last = rows.get(rows.size() - 1);
+          this._lastOrderID = Integer.parseInt(last.get(0).trim());
+          this._lastTimestamp = Timestamp.valueOf(last.get(3).trim());
+       }
+       return page;
+    }//end nextPage
+ }//end OrderHistory
@@ -0,0 +1,77 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.SQLException;
+ import java.util.List;
+ import java.util.concurrent.locks.ReentrantLock;
+
+ /**
+  * This class hands out order IDs reserved in blocks from the FoodOrder
+  * sequence, so most orders need no round trip for their ID.
+  *
+  * A block is reserved with one query calling nextval() once per ID. Every
+  * value is unique across all JVMs sharing the database, even though a
+  * block need not be contiguous when other writers draw from the sequence
+  * at the same time. IDs left unused when the JVM exits are skipped.
+  */
+ public class OrderIdAllocator {
+
+    private final PizzaStore _esql;
+    private final String _sequence;
+    private final int _blockSize;
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final int[] _block;
+    private int _next = 0;
+    private int _count = 0;
+
+    /**
+     * Creates a new allocator
+     *
+     * @param esql the database handle
+     * @param sequence the name of the sequence behind the ID column
+     * @param blockSize how many IDs to reserve per round trip
+     */
+    public OrderIdAllocator(PizzaStore esql, String sequence, int blockSize) {
+       if (blockSize < 1)
+          throw new IllegalArgumentException("blockSize must be at least 1");
+       this._esql = esql;
+       this._sequence = sequence;
+       this._blockSize = blockSize;
+       this._block = new int[blockSize];
+    }//end OrderIdAllocator
+
+    /**
+     * @return an order ID no other caller will receive
+     * @throws java.sql.SQLException when a new block cannot be reserved
+     */
+    public int next() throws SQLException {
+       this._lock.lock();
+       try {
+          if (this._next == this._count)
+             refill();
+          return this._block[this._next++];
+       } finally {
+          this._lock.unlock();
+       }
+    }//end next
+
+    private void refill() throws SQLException {
+       List<List<String>> ids = this._esql.executeAndReturnResult(
+          "SELECT nextval('" + this._sequence + "') FROM generate_series(1, ?)", this._blockSize);
+       for (int i = 0; i < ids.size(); i++)
+          this._block[i] = Integer.parseInt(ids.get(i).get(0).trim());
+       this._next = 0;
+       this._count = ids.size();
+    }//end refill
+ }//end OrderIdAllocator
@@ -0,0 +1,606 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.BufferedOutputStream;
+ import java.io.DataOutputStream;
+ import java.io.File;
+ import java.io.FileOutputStream;
+ import java.io.IOException;
+ import java.nio.ByteBuffer;
+ import java.nio.IntBuffer;
+ import java.nio.LongBuffer;
+ import java.nio.MappedByteBuffer;
+ import java.nio.channels.FileChannel;
+ import java.nio.charset.StandardCharsets;
+ import java.nio.file.Files;
+ import java.nio.file.StandardCopyOption;
+ import java.nio.file.StandardOpenOption;
+ import java.sql.SQLException;
+ import java.sql.Timestamp;
+ import java.time.Instant;
+ import java.time.LocalDate;
+ import java.time.ZoneOffset;
+ import java.util.ArrayList;
+ import java.util.Arrays;
+ import java.util.HashMap;
+ import java.util.List;
+ import java.util.Map;
+ import java.util.concurrent.ForkJoinPool;
+ import java.util.function.BiConsumer;
+ import java.util.function.ObjIntConsumer;
+ import java.util.function.Supplier;
+ import java.util.stream.IntStream;
+
+ /**
+  * This class is a read-only columnar copy of FoodOrder and ItemsInOrder
+  * for offline analysis, so ad-hoc questions about past orders do not
+  * load the production database.
+  *
+  * export() streams both tables once, in orderID order, into a single
+  * file. Every attribute is a column of primitive ints or longs; store IDs
+  * and item names are replaced by small dictionary codes, and the line
+  * items of order i are lines lineStart[i] to lineStart[i + 1]. open()
+  * memory-maps the columns, so the operating system pages them in on
+  * demand and the heap only holds the dictionaries.
+  *
+  * aggregate() runs an aggregation as a parallel stream over the orders:
+  * each fork-join worker folds its range of orders into its own partial
+  * result and the partials are merged at the end, so work is shared by
+  * every core without locking. Cancelled orders are left out of every
+  * aggregation.
+  *
+  * Usage: java OrderSnapshot export <dbname> <port> <user> <file>
+  *        java OrderSnapshot info|pairs|mix <file> [-store id] [-from yyyy-mm-dd] [-limit n]
+  */
+ public final class OrderSnapshot {
+
+    public static final String[] PAIR_COLUMNS = { "Item", "With Item", "Orders", "Support", "Confidence", "Lift" };
+    public static final String[] MIX_COLUMNS = { "Store", "Item", "Quantity", "Share" };
+    public static final String[] INFO_COLUMNS = { "Orders", "Line Items", "Stores", "Items", "Exported At" };
+
+    private static final long MAGIC = 0x505a534e41503031L; // "PZSNAP01"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    // order status code of orders without a valid status
+    private static final byte NO_STATUS = -1;
+
+    // the largest menu for which pairs() keeps a full pair matrix per worker
+    private static final int MAX_PAIR_ITEMS = 2048;
+
+    private static final String EXPORT_QUERY =
+       "SELECT o.orderID, o.storeID, o.orderTimestamp, o.totalPrice, o.orderStatus, l.itemName, l.quantity" +
+       " FROM FoodOrder o" +
+       " LEFT JOIN ItemsInOrder l ON l.orderID = o.orderID" +
+       " ORDER BY o.orderID";
+
+    private final int _orders;
+    private final int _lines;
+    private final long _exportedAt;
+    private final int[] _storeIDs;
+    private final String[] _itemNames;
+
+    // order columns
+    private final IntBuffer _orderID;
+    private final IntBuffer _store;
+    private final LongBuffer _timestamp;
+    private final LongBuffer _totalCents;
+    private final ByteBuffer _status;
+    private final IntBuffer _lineStart;
+
+    // line item columns
+    private final IntBuffer _item;
+    private final IntBuffer _quantity;
+
+    private OrderSnapshot(FileChannel channel) throws IOException {
+       ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+       while (header.hasRemaining() && channel.read(header, header.position()) > 0);
+       header.flip();
+       if (header.remaining() < HEADER_BYTES || header.getLong() != MAGIC)
+          throw new IOException("not an order snapshot");
+       int version = header.getInt();
+       if (version != VERSION)
+          throw new IOException("unsupported order snapshot version " + version);
+       this._orders = header.getInt();
+       this._lines = header.getInt();
+       int stores = header.getInt();
+       int items = header.getInt();
+       long dictionaryBytes = header.getLong();
+       this._exportedAt = header.getLong();
+
+       ByteBuffer dictionary = map(channel, HEADER_BYTES, dictionaryBytes);
+       this._storeIDs = new int[stores];
+       for (int i = 0; i < stores; i++)
+          this._storeIDs[i] = dictionary.getInt();
+       this._itemNames = new String[items];
+       for (int i = 0; i < items; i++) {
+          byte[] name = new byte[dictionary.getShort()];
+          dictionary.get(name);
+          this._itemNames[i] = new String(name, StandardCharsets.UTF_8);
+       }
+
+       // column sizes in the order they are written
+       long n = this._orders, m = this._lines;
+       long[] sizes = { 4 * n, 4 * n, 8 * n, 8 * n, n, 4 * (n + 1), 4 * m, 4 * m };
+       long[] offsets = new long[sizes.length + 1];
+       offsets[0] = align(HEADER_BYTES + dictionaryBytes);
+       for (int c = 0; c < sizes.length; c++)
+          offsets[c + 1] = align(offsets[c] + sizes[c]);
+       if (offsets[sizes.length] > channel.size())
+          throw new IOException("order snapshot is truncated");
+
+       this._orderID = map(channel, offsets[0], sizes[0]).asIntBuffer();
+       this._store = map(channel, offsets[1], sizes[1]).asIntBuffer();
+       this._timestamp = map(channel, offsets[2], sizes[2]).asLongBuffer();
+       this._totalCents = map(channel, offsets[3], sizes[3]).asLongBuffer();
+       this._status = map(channel, offsets[4], sizes[4]);
+       this._lineStart = map(channel, offsets[5], sizes[5]).asIntBuffer();
+       this._item = map(channel, offsets[6], sizes[6]).asIntBuffer();
+       this._quantity = map(channel, offsets[7], sizes[7]).asIntBuffer();
+    }//end OrderSnapshot
+
+    /**
+     * Memory-maps a snapshot written by export().
+     *
+     * @param file the snapshot file
+     * @return the snapshot, usable after the file is closed
+     * @throws java.io.IOException when the file is not a readable snapshot
+     */
+    public static OrderSnapshot open(File file) throws IOException {
+       try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+          return new OrderSnapshot(channel);
+       }
+    }//end open
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+       if (size > Integer.MAX_VALUE)
+          throw new IOException("order snapshot column of " + size + " bytes is too large to map");
+       return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    // columns start on 8 byte boundaries
+    private static long align(long offset) {
+       return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Writes one column to a temporary file while the export streams.
+     */
+    private static final class ColumnWriter implements AutoCloseable {
+       final File file;
+       final DataOutputStream out;
+
+       ColumnWriter(File dir, String name) throws IOException {
+          this.file = File.createTempFile("snapshot-" + name + "-", ".col", dir);
+          this.file.deleteOnExit();
+          this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file), 1 << 20));
+       }
+
+       @Override
+       public void close() throws IOException {
+          this.out.close();
+          this.file.delete();
+       }
+    }//end ColumnWriter
+
+    /**
+     * Exports FoodOrder and ItemsInOrder into a snapshot file, replacing
+     * it once complete. Both tables are read by one query, in chunks, so
+     * the snapshot is consistent and the export needs little memory.
+     *
+     * @param esql the database handle
+     * @param file the snapshot file to write
+     * @return the number of orders exported
+     * @throws java.sql.SQLException when reading the orders failed
+     * @throws java.io.IOException when writing the file failed
+     */
+    public static int export(PizzaStore esql, File file) throws SQLException, IOException {
+       File dir = file.getAbsoluteFile().getParentFile();
+       Map<Integer, Integer> storeCodes = new HashMap<Integer, Integer>();
+       Map<String, Integer> itemCodes = new HashMap<String, Integer>();
+       int[] counts = new int[2]; // orders, lines
+       int[] last = { -1 };
+
+       try (ColumnWriter orderID = new ColumnWriter(dir, "orderID");
+            ColumnWriter store = new ColumnWriter(dir, "store");
+            ColumnWriter timestamp = new ColumnWriter(dir, "timestamp");
+            ColumnWriter totalCents = new ColumnWriter(dir, "total");
+            ColumnWriter status = new ColumnWriter(dir, "status");
+            ColumnWriter lineStart = new ColumnWriter(dir, "lineStart");
+            ColumnWriter item = new ColumnWriter(dir, "item");
+            ColumnWriter quantity = new ColumnWriter(dir, "quantity")) {
+          esql.executeQueryAndStream(EXPORT_QUERY, 10000, rs -> {
+             try {
+                int id = rs.getInt(1);
+                if (id != last[0]) {
+                   last[0] = id;
+                   Integer code = storeCodes.get(rs.getInt(2));
+                   if (code == null)
+                      storeCodes.put(rs.getInt(2), code = storeCodes.size());
+                   Timestamp placed = rs.getTimestamp(3);
+                   OrderStatus s = OrderStatus.parse(rs.getString(5));
+                   orderID.out.writeInt(id);
+                   store.out.writeInt(code);
+                   // wall-clock time as if it were UTC, so days and hours read back unchanged
+                   timestamp.out.writeLong(placed.toLocalDateTime().toEpochSecond(ZoneOffset.UTC));
+                   totalCents.out.writeLong(rs.getBigDecimal(4).movePointRight(2).longValue());
+                   status.out.writeByte(s == null ? NO_STATUS : s.ordinal());
+                   lineStart.out.writeInt(counts[1]);
+                   counts[0]++;
+                }
+                String name = rs.getString(6);
+                if (name != null) {
+                   Integer code = itemCodes.get(name);
+                   if (code == null)
+                      itemCodes.put(name, code = itemCodes.size());
+                   item.out.writeInt(code);
+                   quantity.out.writeInt(rs.getInt(7));
+                   if (++counts[1] < 0)
+                      throw new SQLException("too many line items for one snapshot");
+                }
+             } catch (IOException e) {
+                throw new SQLException("writing the order snapshot failed: " + e.getMessage(), e);
+             }
+          });
+          lineStart.out.writeInt(counts[1]);
+
+          int[] storeIDs = new int[storeCodes.size()];
+          for (Map.Entry<Integer, Integer> entry : storeCodes.entrySet())
+             storeIDs[entry.getValue()] = entry.getKey();
+          String[] itemNames = new String[itemCodes.size()];
+          for (Map.Entry<String, Integer> entry : itemCodes.entrySet())
+             itemNames[entry.getValue()] = entry.getKey();
+
+          File partial = new File(dir, file.getName() + ".partial");
+          try (FileChannel out = FileChannel.open(partial.toPath(), StandardOpenOption.CREATE,
+                                                  StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+             ByteBuffer dictionary = dictionary(storeIDs, itemNames);
+             ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+             header.putLong(MAGIC).putInt(VERSION).putInt(counts[0]).putInt(counts[1])
+                   .putInt(storeIDs.length).putInt(itemNames.length)
+                   .putLong(dictionary.remaining()).putLong(System.currentTimeMillis());
+             header.position(0);
+             write(out, header);
+             write(out, dictionary);
+             for (ColumnWriter column : new ColumnWriter[] { orderID, store, timestamp, totalCents,
+                                                             status, lineStart, item, quantity }) {
+                column.out.flush();
+                write(out, ByteBuffer.allocate((int) (align(out.position()) - out.position())));
+                try (FileChannel in = FileChannel.open(column.file.toPath(), StandardOpenOption.READ)) {
+                   long size = in.size();
+                   for (long done = 0; done < size; )
+                      done += in.transferTo(done, size - done, out);
+                }
+             }
+             write(out, ByteBuffer.allocate((int) (align(out.position()) - out.position())));
+             out.force(true);
+          }
+          Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+       }
+       return counts[0];
+    }//end export
+
+    private static ByteBuffer dictionary(int[] storeIDs, String[] itemNames) {
+       List<byte[]> names = new ArrayList<byte[]>(itemNames.length);
+       int size = 4 * storeIDs.length;
+       for (String name : itemNames) {
+          byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+          names.add(bytes);
+          size += 2 + bytes.length;
+       }
+       ByteBuffer dictionary = ByteBuffer.allocate(size);
+       for (int id : storeIDs)
+          dictionary.putInt(id);
+       for (byte[] bytes : names)
+          dictionary.putShort((short) bytes.length).put(bytes);
+       dictionary.flip();
+       return dictionary;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+       while (buffer.hasRemaining())
+          out.write(buffer);
+    }
+
+    /**
+     * @return the number of orders
+     */
+    public int orderCount() {
+       return this._orders;
+    }
+
+    /**
+     * @return the number of line items
+     */
+    public int lineCount() {
+       return this._lines;
+    }
+
+    /**
+     * @return the number of distinct stores, which store codes range below
+     */
+    public int storeCount() {
+       return this._storeIDs.length;
+    }
+
+    /**
+     * @return the number of distinct items, which item codes range below
+     */
+    public int itemCount() {
+       return this._itemNames.length;
+    }
+
+    /**
+     * @return the store code of a store ID, or -1 if it has no orders
+     */
+    public int storeCode(int storeID) {
+       for (int i = 0; i < this._storeIDs.length; i++)
+          if (this._storeIDs[i] == storeID)
+             return i;
+       return -1;
+    }
+
+    public int storeID(int storeCode) {
+       return this._storeIDs[storeCode];
+    }
+
+    public String itemName(int itemCode) {
+       return this._itemNames[itemCode];
+    }
+
+    public int orderID(int order) {
+       return this._orderID.get(order);
+    }
+
+    public int store(int order) {
+       return this._store.get(order);
+    }
+
+    /**
+     * @return when the order was placed, in seconds since the epoch of the
+     *         wall-clock time stored in the database
+     */
+    public long timestamp(int order) {
+       return this._timestamp.get(order);
+    }
+
+    public long totalCents(int order) {
+       return this._totalCents.get(order);
+    }
+
+    /**
+     * @return the order's status, or null if it had none
+     */
+    public OrderStatus status(int order) {
+       byte code = this._status.get(order);
+       return code == NO_STATUS ? null : OrderStatus.values()[code];
+    }
+
+    /**
+     * @return the first line item of the order
+     */
+    public int lineStart(int order) {
+       return this._lineStart.get(order);
+    }
+
+    /**
+     * @return one past the last line item of the order
+     */
+    public int lineEnd(int order) {
+       return this._lineStart.get(order + 1);
+    }
+
+    public int item(int line) {
+       return this._item.get(line);
+    }
+
+    public int quantity(int line) {
+       return this._quantity.get(line);
+    }
+
+    /**
+     * Runs an aggregation over the orders of one store, or of every store
+     * when storeID is null, placed on or after a day, in parallel on the
+     * common fork-join pool.
+     *
+     * @param storeID the store to include, or null for all
+     * @param from the first day to include, or null for all
+     * @param create makes an empty partial result for one worker
+     * @param visit folds one order into a partial result
+     * @param merge folds the second partial result into the first
+     * @return the merged result
+     */
+    public <A> A aggregate(Integer storeID, LocalDate from, Supplier<A> create, ObjIntConsumer<A> visit, BiConsumer<A, A> merge) {
+       int store = storeID == null ? -1 : storeCode(storeID);
+       if (storeID != null && store < 0)
+          return create.get();
+       long fromSecond = from == null ? Long.MIN_VALUE : from.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+       byte cancelled = (byte) OrderStatus.CANCELLED.ordinal();
+       return IntStream.range(0, this._orders).parallel().collect(create, (partial, order) -> {
+          if ((store < 0 || this._store.get(order) == store)
+              && this._timestamp.get(order) >= fromSecond
+              && this._status.get(order) != cancelled)
+             visit.accept(partial, order);
+       }, merge);
+    }//end aggregate
+
+    /**
+     * Basket co-occurrence: the pairs of items most often ordered together,
+     * with the share of all orders containing the pair (support), the share
+     * of orders with the first item that also hold the second (confidence),
+     * and how much more often they meet than by chance (lift).
+     *
+     * @return the pairs as rows of PAIR_COLUMNS, most frequent first
+     */
+    public List<String[]> pairs(Integer storeID, LocalDate from, int limit) {
+       int items = this._itemNames.length;
+       if (items > MAX_PAIR_ITEMS)
+          throw new IllegalStateException("too many items for pair counts: " + items);
+       // [0] orders, [1 .. items] orders per item, then the upper triangle of the pair matrix
+       int pairBase = 1 + items;
+       long[] counts = aggregate(storeID, from, () -> new long[pairBase + items * (items - 1) / 2], (c, order) -> {
+          int start = this._lineStart.get(order), end = this._lineStart.get(order + 1);
+          c[0]++;
+          for (int i = start; i < end; i++) {
+             int a = this._item.get(i);
+             c[1 + a]++;
+             for (int j = i + 1; j < end; j++)
+                c[pairBase + pairIndex(a, this._item.get(j), items)]++;
+          }
+       }, OrderSnapshot::add);
+
+       // count in the high half, pair index in the low half, so a primitive sort ranks them
+       long[] ranked = new long[counts.length - pairBase];
+       int found = 0;
+       for (int p = 0; p < ranked.length; p++)
+          if (counts[pairBase + p] > 0)
+             ranked[found++] = (counts[pairBase + p] << 32) | p;
+       Arrays.sort(ranked, 0, found);
+
+       List<String[]> rows = new ArrayList<String[]>();
+       for (int r = found - 1; r >= 0 && rows.size() < limit; r--) {
+          int p = (int) ranked[r];
+          long together = ranked[r] >>> 32;
+          int a = 0;
+          while (pairIndex(a, items - 1, items) < p)
+             a++;
+          int b = a + 1 + p - pairIndex(a, a + 1, items);
+          long ordersA = counts[1 + a], ordersB = counts[1 + b];
+          if (ordersB > ordersA) {
+             int swap = a; a = b; b = swap;
+             long o = ordersA; ordersA = ordersB; ordersB = o;
+          }
+          rows.add(new String[] { this._itemNames[a], this._itemNames[b], String.valueOf(together),
+                                  percent(together, counts[0]), percent(together, ordersA),
+                                  String.format("%.2f", (double) together * counts[0] / ((double) ordersA * ordersB)) });
+       }
+       return rows;
+    }//end pairs
+
+    // position of the unordered pair {a, b}, a != b, in the upper triangle
+    private static int pairIndex(int a, int b, int items) {
+       if (a > b) {
+          int swap = a; a = b; b = swap;
+       }
+       return a * items - a * (a + 1) / 2 + (b - a - 1);
+    }
+
+    /**
+     * Per-store item mix: the items each store sells most, by quantity,
+     * with their share of the store's quantity sold.
+     *
+     * @return up to limit rows of MIX_COLUMNS per store, by store ID
+     */
+    public List<String[]> mix(Integer storeID, LocalDate from, int limit) {
+       int items = this._itemNames.length;
+       int stores = this._storeIDs.length;
+       long[] quantities = aggregate(storeID, from, () -> new long[stores * items], (q, order) -> {
+          int row = this._store.get(order) * items;
+          int end = this._lineStart.get(order + 1);
+          for (int i = this._lineStart.get(order); i < end; i++)
+             q[row + this._item.get(i)] += this._quantity.get(i);
+       }, OrderSnapshot::add);
+
+       Integer[] byID = new Integer[stores];
+       for (int s = 0; s < stores; s++)
+          byID[s] = s;
+       Arrays.sort(byID, (x, y) -> Integer.compare(this._storeIDs[x], this._storeIDs[y]));
+
+       List<String[]> rows = new ArrayList<String[]>();
+       for (int s : byID) {
+          long total = 0;
+          long[] ranked = new long[items];
+          int found = 0;
+          for (int i = 0; i < items; i++) {
+             long quantity = quantities[s * items + i];
+             total += quantity;
+             if (quantity > 0)
+                ranked[found++] = (quantity << 32) | i;
+          }
+          Arrays.sort(ranked, 0, found);
+          for (int r = found - 1; r >= 0 && r >= found - limit; r--) {
+             long quantity = ranked[r] >>> 32;
+             rows.add(new String[] { String.valueOf(this._storeIDs[s]), this._itemNames[(int) ranked[r]],
+                                     String.valueOf(quantity), percent(quantity, total) });
+          }
+       }
+       return rows;
+    }//end mix
+
+    /**
+     * @return a single row of INFO_COLUMNS describing the snapshot
+     */
+    public List<String[]> info() {
+       List<String[]> rows = new ArrayList<String[]>();
+       rows.add(new String[] { String.valueOf(this._orders), String.valueOf(this._lines),
+                               String.valueOf(this._storeIDs.length), String.valueOf(this._itemNames.length),
+                               Instant.ofEpochMilli(this._exportedAt).toString() });
+       return rows;
+    }
+
+    private static void add(long[] into, long[] from) {
+       for (int i = 0; i < into.length; i++)
+          into[i] += from[i];
+    }
+
+    private static String percent(long part, long whole) {
+       return whole == 0 ? "" : String.format("%.1f%%", 100.0 * part / whole);
+    }
+
+    public static void main(String[] args) throws Exception {
+       if (args.length == 5 && args[0].equals("export")) {
+          Class.forName("org.postgresql.Driver");
+          PizzaStore esql = new PizzaStore(args[1], args[2], args[3], "");
+          try {
+             long start = System.nanoTime();
+             int orders = export(esql, new File(args[4]));
+             System.out.println(String.format("Exported %d orders to %s in %.1f s", orders, args[4],
+                                              (System.nanoTime() - start) / 1e9));
+          } finally {
+             esql.cleanup();
+          }
+          return;
+       }
+       if (args.length < 2 || !Arrays.asList("info", "pairs", "mix").contains(args[0])) {
+          System.err.println("Usage: java [-classpath <classpath>] OrderSnapshot export <dbname> <port> <user> <file>\n" +
+                             "       java [-classpath <classpath>] OrderSnapshot info|pairs|mix <file>" +
+                             " [-store id] [-from yyyy-mm-dd] [-limit n]");
+          return;
+       }
+       Integer storeID = null;
+       LocalDate from = null;
+       int limit = 20;
+       for (int i = 2; i < args.length; i++) {
+          switch (args[i]) {
+             case "-store": storeID = Integer.valueOf(args[++i]); break;
+             case "-from": from = LocalDate.parse(args[++i]); break;
+             case "-limit": limit = Integer.parseInt(args[++i]); break;
+             default: throw new IllegalArgumentException("unknown option " + args[i]);
+          }
+       }
+
+       OrderSnapshot snapshot = open(new File(args[1]));
+       long start = System.nanoTime();
+       List<String[]> rows;
+       String[] columns;
+       switch (args[0]) {
+          case "pairs": rows = snapshot.pairs(storeID, from, limit); columns = PAIR_COLUMNS; break;
+          case "mix": rows = snapshot.mix(storeID, from, limit); columns = MIX_COLUMNS; break;
+          default: rows = snapshot.info(); columns = INFO_COLUMNS; break;
+       }
+       double ms = (System.nanoTime() - start) / 1e6;
+       TablePrinter.print(columns, rows, System.out, TablePrinter.defaultFormat());
+       System.err.println(String.format("%d orders scanned in %.1f ms on %d threads", snapshot.orderCount(), ms,
+                                        ForkJoinPool.getCommonPoolParallelism()));
+    }//end main
+ }//end OrderSnapshot
@@ -0,0 +1,90 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.util.ArrayList;
+ import java.util.EnumSet;
+ import java.util.List;
+
+ /**
+  * This enum lists the values FoodOrder.orderStatus may take and the
+  * changes allowed between them. An order starts incomplete, can move
+  * forward through preparation and delivery, and ends complete or
+  * cancelled. The CHECK constraint on FoodOrder allows the same values.
+  */
+ public enum OrderStatus {
+    INCOMPLETE("incomplete"),
+    PREPARING("preparing"),
+    DELIVERING("delivering"),
+    COMPLETE("complete"),
+    CANCELLED("cancelled");
+
+    // the value stored in FoodOrder.orderStatus
+    public final String label;
+
+    private EnumSet<OrderStatus> _next;
+
+    static {
+       INCOMPLETE._next = EnumSet.of(PREPARING, DELIVERING, COMPLETE, CANCELLED);
+       PREPARING._next = EnumSet.of(DELIVERING, COMPLETE, CANCELLED);
+       DELIVERING._next = EnumSet.of(COMPLETE, CANCELLED);
+       COMPLETE._next = EnumSet.noneOf(OrderStatus.class);
+       CANCELLED._next = EnumSet.noneOf(OrderStatus.class);
+    }
+
+    OrderStatus(String label) {
+       this.label = label;
+    }
+
+    /**
+     * @return the status stored as value, or null if it is not one
+     */
+    public static OrderStatus parse(String value) {
+       if (value == null)
+          return null;
+       String trimmed = value.trim();
+       for (OrderStatus status : values())
+          if (status.label.equalsIgnoreCase(trimmed))
+             return status;
+       return null;
+    }
+
+    /**
+     * @return true if an order in this status may change to next
+     */
+    public boolean canBecome(OrderStatus next) {
+       return this._next.contains(next);
+    }
+
+    /**
+     * @return true once no further change is allowed
+     */
+    public boolean isFinal() {
+       return this._next.isEmpty();
+    }
+
+    /**
+     * @return the labels of the statuses that may change to this one
+     */
+    public List<String> previousLabels() {
+       List<String> labels = new ArrayList<String>();
+       for (OrderStatus status : values())
+          if (status.canBecome(this))
+             labels.add(status.label);
+       return labels;
+    }
+
+    @Override
+    public String toString() {
+       return this.label;
+    }
+ }//end OrderStatus
@@ -0,0 +1,299 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.nio.charset.StandardCharsets;
+ import java.security.GeneralSecurityException;
+ import java.security.MessageDigest;
+ import java.security.SecureRandom;
+ import java.sql.SQLException;
+ import java.util.ArrayList;
+ import java.util.Base64;
+ import java.util.List;
+ import java.util.concurrent.ArrayBlockingQueue;
+ import java.util.concurrent.CompletableFuture;
+ import java.util.concurrent.ExecutionException;
+ import java.util.concurrent.RejectedExecutionException;
+ import java.util.concurrent.ThreadPoolExecutor;
+ import java.util.concurrent.TimeUnit;
+ import javax.crypto.SecretKeyFactory;
+ import javax.crypto.spec.PBEKeySpec;
+
+ /**
+  * This class hashes and checks the passwords stored in Users.password with
+  * PBKDF2-HMAC-SHA256 from the JDK. A stored hash reads
+  *
+  *    pbkdf2-sha256$iterations$salt$hash
+  *
+  * with salt and hash in Base64, so the work factor can be raised without
+  * invalidating existing hashes. Rows without the prefix are passwords
+  * stored in plaintext before hashing was introduced; they still verify,
+  * and needsRehash() tells the caller to replace them. A hash that does
+  * not parse matches no password and is reported on stderr.
+  *
+  * Hashing is deliberately slow, so it runs on a fixed pool with one thread
+  * per core instead of on the session threads: however many sessions log
+  * in at once, at most that many hashes are computed in parallel and the
+  * rest wait in a bounded queue. Once the queue is full further requests
+  * are rejected with a RejectedExecutionException rather than piling up.
+  *
+  * Usage: java PasswordHasher <dbname> <port> <user>
+  * hashes every plaintext password left in Users.
+  */
+ public class PasswordHasher {
+
+    static final String SCHEME = "pbkdf2-sha256";
+
+    // PBKDF2 rounds for new hashes, -Dpizzastore.password.iterations
+    static final int ITERATIONS = Integer.getInteger("pizzastore.password.iterations", 100000);
+
+    // hashing threads, -Dpizzastore.password.threads
+    static final int THREADS = Integer.getInteger("pizzastore.password.threads",
+                                                  Runtime.getRuntime().availableProcessors());
+
+    // requests waiting for a hashing thread before further ones are rejected
+    static final int QUEUE_LIMIT = Integer.getInteger("pizzastore.password.queue", 256);
+
+    static final int SALT_BYTES = 16;
+    static final int HASH_BYTES = 32;
+
+    private final int _iterations;
+    private final ThreadPoolExecutor _workers;
+    private final SecureRandom _random = new SecureRandom();
+
+    // mixed into fingerprints, so they mean nothing outside this process
+    private final byte[] _fingerprintKey = new byte[32];
+
+    /**
+     * Creates a hasher with its own pool of hashing threads
+     *
+     * @param iterations PBKDF2 rounds for new hashes
+     * @param threads hashing threads
+     * @param queueLimit requests waiting for a thread before further ones are rejected
+     */
+    public PasswordHasher(int iterations, int threads, int queueLimit) {
+       this._iterations = iterations;
+       this._workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(queueLimit), task -> {
+             Thread thread = new Thread(task, "password-hasher");
+             thread.setDaemon(true);
+             return thread;
+          });
+       this._random.nextBytes(this._fingerprintKey);
+    }//end PasswordHasher
+
+    /**
+     * @return a hasher configured from the pizzastore.password.* system properties
+     */
+    public static PasswordHasher fromSystemProperties() {
+       return new PasswordHasher(ITERATIONS, THREADS, QUEUE_LIMIT);
+    }
+
+    /**
+     * Hashes a password on the hashing pool.
+     *
+     * @return the stored form of the password
+     * @throws java.util.concurrent.RejectedExecutionException when too many
+     *         hashes are waiting already
+     */
+    public CompletableFuture<String> hashAsync(String password) {
+       byte[] salt = new byte[SALT_BYTES];
+       this._random.nextBytes(salt);
+       int iterations = this._iterations;
+       return CompletableFuture.supplyAsync(() -> format(iterations, salt, pbkdf2(password, salt, iterations)),
+                                            this._workers);
+    }//end hashAsync
+
+    /**
+     * Hashes a password on the hashing pool and waits for the result.
+     */
+    public String hash(String password) {
+       return await(hashAsync(password));
+    }
+
+    /**
+     * Checks a password against its stored form. Hashes are checked on the
+     * hashing pool, plaintext rows are compared right away.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException when too many
+     *         hashes are waiting already
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, String stored) {
+       if (!isHash(stored))
+          return CompletableFuture.completedFuture(
+             MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8)));
+       Hash hash = Hash.parse(stored);
+       if (hash == null) {
+          System.err.println("Rejecting a login against a malformed password hash in Users");
+          return CompletableFuture.completedFuture(false);
+       }
+       return CompletableFuture.supplyAsync(() -> MessageDigest.isEqual(hash.hash, pbkdf2(password, hash.salt, hash.iterations)),
+                                            this._workers);
+    }//end verifyAsync
+
+    /**
+     * Checks a password against its stored form and waits for the result.
+     */
+    public boolean verify(String password, String stored) {
+       return await(verifyAsync(password, stored));
+    }
+
+    /**
+     * @return true if the stored form is plaintext, malformed, or was
+     *         hashed with fewer or more rounds than new hashes get
+     */
+    public boolean needsRehash(String stored) {
+       if (!isHash(stored))
+          return true;
+       Hash hash = Hash.parse(stored);
+       return hash == null || hash.iterations != this._iterations;
+    }
+
+    /**
+     * @return true if the stored form is a hash rather than a plaintext password
+     */
+    public static boolean isHash(String stored) {
+       return stored.startsWith(SCHEME + "$");
+    }
+
+    /**
+     * A cheap digest of a login and password that is only comparable
+     * within this process, for remembering that the pair was just
+     * verified without keeping the password itself.
+     */
+    public byte[] fingerprint(String login, String password) {
+       try {
+          MessageDigest digest = MessageDigest.getInstance("SHA-256");
+          digest.update(this._fingerprintKey);
+          digest.update(login.getBytes(StandardCharsets.UTF_8));
+          digest.update((byte) 0);
+          digest.update(password.getBytes(StandardCharsets.UTF_8));
+          return digest.digest();
+       } catch (GeneralSecurityException e) {
+          throw new IllegalStateException(e);
+       }
+    }//end fingerprint
+
+    /**
+     * @return hashes waiting for a thread
+     */
+    public int queued() {
+       return this._workers.getQueue().size();
+    }
+
+    public void close() {
+       this._workers.shutdown();
+    }
+
+    static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+       PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+       try {
+          return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+       } catch (GeneralSecurityException e) {
+          throw new IllegalStateException(e);
+       } finally {
+          spec.clearPassword();
+       }
+    }//end pbkdf2
+
+    /*
+     * The parts of a stored hash, see the class comment
+     */
+    private static final class Hash {
+       final int iterations;
+       final byte[] salt;
+       final byte[] hash;
+
+       private Hash(int iterations, byte[] salt, byte[] hash) {
+          this.iterations = iterations;
+          this.salt = salt;
+          this.hash = hash;
+       }
+
+       // @return the parts, or null if the stored form is malformed
+       static Hash parse(String stored) {
+          String[] parts = stored.split("\\$");
+          if (parts.length != 4)
+             return null;
+          try {
+             int iterations = Integer.parseInt(parts[1]);
+             byte[] salt = Base64.getDecoder().decode(parts[2]);
+             byte[] hash = Base64.getDecoder().decode(parts[3]);
+             // PBEKeySpec refuses these
+             if (iterations <= 0 || salt.length == 0 || hash.length == 0)
+                return null;
+             return new Hash(iterations, salt, hash);
+          } catch (IllegalArgumentException e) {
+             // NumberFormatException or bad Base64
+             return null;
+          }
+       }//end parse
+    }//end Hash
+
+    static String format(int iterations, byte[] salt, byte[] hash) {
+       Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+       return SCHEME + "$" + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+    }
+
+    /*
+     * Waits for the hashing pool. Callers treat an interrupted wait like a
+     * full queue: the request did not get a hashing thread.
+     */
+    private static <T> T await(CompletableFuture<T> result) {
+       try {
+          return result.get();
+       } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RejectedExecutionException("interrupted while waiting for the password hasher", e);
+       } catch (ExecutionException e) {
+          throw new IllegalStateException(e.getCause());
+       }
+    }//end await
+
+    /**
+     * Hashes the plaintext passwords left in Users, one queue full at a time.
+     * Rows changed in the meantime are skipped, so this is safe to run
+     * while users log in.
+     */
+    public long migrate(PizzaStore esql) throws SQLException {
+       List<List<String>> rows = esql.executeQueryAndReturnResult(
+          "SELECT login, password FROM Users WHERE password NOT LIKE ?", SCHEME + "$%");
+       long migrated = 0;
+       for (int start = 0; start < rows.size(); start += QUEUE_LIMIT) {
+          List<List<String>> chunk = rows.subList(start, Math.min(rows.size(), start + QUEUE_LIMIT));
+          List<CompletableFuture<String>> hashes = new ArrayList<CompletableFuture<String>>(chunk.size());
+          for (List<String> row : chunk)
+             hashes.add(hashAsync(row.get(1)));
+          for (int i = 0; i < chunk.size(); i++)
+             migrated += esql.executeUpdate("UPDATE Users SET password=? WHERE login=? AND password=?",
+                                            await(hashes.get(i)), chunk.get(i).get(0), chunk.get(i).get(1));
+          System.out.println(migrated + " of " + rows.size() + " passwords hashed");
+       }
+       return migrated;
+    }//end migrate
+
+    public static void main(String[] args) throws Exception {
+       if (args.length < 3) {
+          System.err.println("Usage: java [-classpath <classpath>] PasswordHasher <dbname> <port> <user>");
+          return;
+       }
+       Class.forName("org.postgresql.Driver");
+       PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+       PasswordHasher hasher = fromSystemProperties();
+       try {
+          hasher.migrate(esql);
+       } finally {
+          hasher.close();
+          esql.cleanup();
+       }
+    }//end main
+ }//end PasswordHasher
@@ -0,0 +1,85 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.IOException;
+ import java.io.Reader;
+ import java.lang.reflect.InvocationTargetException;
+ import java.lang.reflect.Method;
+ import java.sql.Connection;
+ import java.sql.SQLException;
+
+ /**
+  * This class streams data to the server with COPY ... FROM STDIN, the
+  * client side of the COPY protocol.
+  *
+  * The bundled pg73 driver predates the protocol, so the driver's
+  * CopyManager is looked up reflectively; with a newer PostgreSQL JDBC
+  * driver on the classpath COPY works, and isAvailable() reports false
+  * otherwise so callers can fall back to batched INSERTs or CSV files.
+  */
+ public class PgCopy {
+
+    private static final Class<?> COPY_MANAGER;
+    private static final Class<?> BASE_CONNECTION;
+    private static final Method COPY_IN;
+
+    static {
+       Class<?> copyManager = null, baseConnection = null;
+       Method copyIn = null;
+       try {
+          copyManager = Class.forName("org.postgresql.copy.CopyManager");
+          baseConnection = Class.forName("org.postgresql.core.BaseConnection");
+          copyIn = copyManager.getMethod("copyIn", String.class, Reader.class);
+       } catch (ReflectiveOperationException e) {
+          copyManager = null;
+       }
+       COPY_MANAGER = copyManager;
+       BASE_CONNECTION = baseConnection;
+       COPY_IN = copyIn;
+    }
+
+    /**
+     * @return true if the JDBC driver on the classpath supports COPY
+     */
+    public static boolean isAvailable() {
+       return COPY_MANAGER != null;
+    }
+
+    /**
+     * Runs a COPY ... FROM STDIN statement, streaming the rows from data.
+     *
+     * @param connection the connection to copy on
+     * @param sql the COPY statement
+     * @param data the rows in the format named by the statement
+     * @return the number of rows copied
+     * @throws java.sql.SQLException when the copy failed or is not supported
+     */
+    public static long copyIn(Connection connection, String sql, Reader data) throws SQLException {
+       if (!isAvailable())
+          throw new SQLException("COPY needs a PostgreSQL JDBC driver with org.postgresql.copy.CopyManager");
+       try {
+          Object base = BASE_CONNECTION.isInstance(connection) ? connection : connection.unwrap(BASE_CONNECTION);
+          Object manager = COPY_MANAGER.getConstructor(BASE_CONNECTION).newInstance(base);
+          return ((Number) COPY_IN.invoke(manager, sql, data)).longValue();
+       } catch (InvocationTargetException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof SQLException)
+             throw (SQLException) cause;
+          if (cause instanceof IOException)
+             throw new SQLException("Error reading COPY data: " + cause.getMessage(), cause);
+          throw new SQLException("COPY failed: " + cause, cause);
+       } catch (ReflectiveOperationException e) {
+          throw new SQLException("COPY failed: " + e, e);
+       }
+    }//end copyIn
+ }//end PgCopy
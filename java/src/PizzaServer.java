@@ -0,0 +1,184 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.BufferedReader;
+ import java.io.BufferedOutputStream;
+ import java.io.IOException;
+ import java.io.InputStreamReader;
+ import java.io.PrintStream;
+ import java.net.InetAddress;
+ import java.net.ServerSocket;
+ import java.net.Socket;
+ import java.net.SocketTimeoutException;
+ import java.nio.charset.StandardCharsets;
+ import java.util.concurrent.ExecutorService;
+ import java.util.concurrent.Executors;
+ import java.util.concurrent.Semaphore;
+ import java.util.concurrent.atomic.AtomicInteger;
+
+ /**
+  * This class serves the PizzaStore menu over a line-based TCP protocol.
+  * Every client connection is its own session, running the same handlers
+  * as the console on its own thread with the socket bound as its input
+  * and output. Sessions share the PizzaStore connection pool.
+  *
+  * Sessions run on virtual threads when the JVM supports them (Java 21+)
+  * and on a cached platform thread pool otherwise.
+  *
+  * The protocol has no encryption or authentication of its own, and login
+  * passwords travel over it in plain text, so the server only listens on
+  * the loopback address unless told otherwise; remote clients should come
+  * in through a tunnel. A client that sends nothing for the idle timeout
+  * is disconnected, so half-open connections do not hold a session.
+  */
+ public class PizzaServer {
+
+    private final PizzaStore _esql;
+    private final String _host;
+    private final int _port;
+
+    // how long a session waits for input, -Dpizzastore.server.idleTimeoutMs
+    static final int IDLE_TIMEOUT_MS = Integer.getInteger("pizzastore.server.idleTimeoutMs", 900000);
+
+    // upper bound on concurrently served clients, -Dpizzastore.server.maxSessions
+    private final Semaphore _sessionSlots;
+
+    private final AtomicInteger _activeSessions = new AtomicInteger();
+
+    /**
+     * Creates a new server
+     *
+     * @param esql the shared database handle
+     * @param host the address to listen on
+     * @param port the TCP port to listen on
+     */
+    public PizzaServer(PizzaStore esql, String host, int port) {
+       this._esql = esql;
+       this._host = host;
+       this._port = port;
+       this._sessionSlots = new Semaphore(Integer.getInteger("pizzastore.server.maxSessions", 10000));
+    }//end PizzaServer
+
+    /**
+     * Accepts clients until the listening socket fails. Each client is
+     * served on its own thread.
+     *
+     * @throws java.io.IOException when the port cannot be opened
+     */
+    public void serve() throws IOException {
+       ExecutorService sessions = newSessionExecutor();
+       try (ServerSocket server = new ServerSocket(this._port, 0, InetAddress.getByName(this._host))) {
+          System.out.println("Listening for sessions on " + this._host + " port " + this._port);
+          while (true) {
+             Socket client = server.accept();
+             if (!this._sessionSlots.tryAcquire()) {
+                reject(client);
+                continue;
+             }
+             sessions.execute(() -> {
+                try {
+                   runSession(client);
+                } finally {
+                   this._sessionSlots.release();
+                }
+             });
+          }
+       } finally {
+          sessions.shutdownNow();
+       }
+    }//end serve
+
+    public int activeSessions() {
+       return this._activeSessions.get();
+    }
+
+    /**
+     * Runs the PizzaStore menu for one client and closes its socket.
+     */
+    private void runSession(Socket client) {
+       this._activeSessions.incrementAndGet();
+       try (Socket socket = client) {
+          socket.setTcpNoDelay(true);
+          socket.setSoTimeout(IDLE_TIMEOUT_MS);
+          BufferedReader input = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+          // prompts are written with print(), so the reader flushes before each read
+          PrintStream output = new PrintStream(
+                new BufferedOutputStream(socket.getOutputStream()), true, "UTF-8");
+          PizzaStore.bindSession(new FlushingReader(input, output), output);
+          PizzaStore.Greeting();
+          PizzaStore.runSession(this._esql);
+          output.println("Bye !");
+          output.flush();
+       } catch (IOException e) {
+          // the client went away.
+       } finally {
+          PizzaStore.unbindSession();
+          this._activeSessions.decrementAndGet();
+       }
+    }//end runSession
+
+    private static void reject(Socket client) {
+       try (Socket socket = client) {
+          PrintStream output = new PrintStream(socket.getOutputStream(), true, "UTF-8");
+          output.println("Server is busy, please try again later.");
+       } catch (IOException e) {
+          // ignored.
+       }
+    }
+
+    /**
+     * Uses Executors.newVirtualThreadPerTaskExecutor when available. Looked
+     * up reflectively so the project still compiles on older JDKs.
+     */
+    private static ExecutorService newSessionExecutor() {
+       try {
+          return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+       } catch (ReflectiveOperationException e) {
+          AtomicInteger ids = new AtomicInteger();
+          return Executors.newCachedThreadPool(r -> {
+             Thread t = new Thread(r, "session-" + ids.incrementAndGet());
+             t.setDaemon(true);
+             return t;
+          });
+       }
+    }//end newSessionExecutor
+
+    /**
+     * Flushes pending output, such as a prompt, before blocking on input.
+     * A read that timed out or failed ends the session, since the input
+     * loops would otherwise ask again forever.
+     */
+    private static class FlushingReader extends BufferedReader {
+       private final PrintStream _output;
+
+       FlushingReader(BufferedReader input, PrintStream output) {
+          super(input, 1);
+          this._output = output;
+       }
+
+       @Override
+       public String readLine() throws IOException {
+          this._output.flush();
+          try {
+             return super.readLine();
+          } catch (SocketTimeoutException e) {
+             this._output.println("\nSession timed out.");
+             this._output.flush();
+             throw new PizzaStore.SessionClosedError();
+          } catch (IOException e) {
+             throw new PizzaStore.SessionClosedError();
+          }
+       }
+    }//end FlushingReader
+ }//end PizzaServer
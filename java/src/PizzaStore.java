@@ -11,20 +11,30 @@
  */
 
 
- import java.sql.DriverManager;
  import java.sql.Connection;
- import java.sql.Statement;
+ import java.sql.PreparedStatement;
  import java.sql.ResultSet;
  import java.sql.ResultSetMetaData;
  import java.sql.SQLException;
+ import java.sql.Timestamp;
+ import java.math.BigDecimal;
+ import java.math.RoundingMode;
  import java.io.File;
  import java.io.FileReader;
  import java.io.BufferedReader;
  import java.io.InputStreamReader;
+ import java.io.IOException;
+ import java.io.PrintStream;
+ import java.io.Reader;
+ import java.time.LocalDate;
  import java.util.List;
  import java.util.Map;
  import java.util.ArrayList;
+ import java.util.Arrays;
+ import java.util.Collections;
  import java.util.HashMap;
+ import java.util.LinkedHashMap;
+ import java.util.concurrent.RejectedExecutionException;
  import java.lang.Math;
  
  /**
@@ -34,14 +44,110 @@
   */
  public class PizzaStore {
  
-    // reference to physical database connection.
-    private Connection _connection = null;
+    // pool of physical database connections shared by all callers.
+    private ConnectionPool _pool = null;
+
+    // order status changes pushed to subscribed sessions.
+    private OrderEvents _events = null;
+
+    // timing of every database call and menu handler, see QueryMetrics.
+    private final QueryMetrics _metrics = new QueryMetrics();
+
+    // local port serving the metrics, -Dpizzastore.metrics.port; 0 turns it off
+    static final int METRICS_PORT = Integer.getInteger("pizzastore.metrics.port", 0);
+
+    // calls over -Dpizzastore.slowQuery.thresholdMs with their plans, null when off
+    private SlowQueryLog _slowQueries = null;
+
+    // which failed calls are tried again and after how long, -Dpizzastore.retry.*
+    private final RetryPolicy _retry = RetryPolicy.fromSystemProperties();
+
+    // fails calls fast while the database is down or saturated, -Dpizzastore.breaker.*
+    private final CircuitBreaker _breaker = CircuitBreaker.fromSystemProperties();
+
+    // longest a statement may run, -Dpizzastore.query.timeoutSeconds; 0 waits forever
+    static final int QUERY_TIMEOUT_SECONDS = Integer.getInteger("pizzastore.query.timeoutSeconds", 30);
+
+    // replicas for read-only handlers, -Dpizzastore.replicas; null when there are none
+    private ReplicaRouter _replicas = null;
+
+    /*
+     * Replica routing state of the session on the current thread, see
+     * readFromReplicas().
+     */
+    private static final class ReplicaReads {
+       boolean active = false;
+
+       // System.nanoTime() after the session's last commit
+       long writtenAt = Long.MIN_VALUE;
+    }//end ReplicaReads
+
+    private final ThreadLocal<ReplicaReads> _sessionReads = ThreadLocal.withInitial(ReplicaReads::new);
+ 
+    // sequence behind FoodOrder.orderID.
+    static final String ORDER_ID_SEQUENCE = "foodorder_orderid_seq";
+ 
+    // order IDs reserved per round trip, -Dpizzastore.orderId.blockSize;
+    // 1 lets each INSERT take its ID from the column default instead.
+    static final int ORDER_ID_BLOCK_SIZE = Integer.getInteger("pizzastore.orderId.blockSize", 1);
+ 
+    // block allocator for order IDs, null when ORDER_ID_BLOCK_SIZE is 1.
+    private final OrderIdAllocator _orderIds =
+       ORDER_ID_BLOCK_SIZE > 1 ? new OrderIdAllocator(this, ORDER_ID_SEQUENCE, ORDER_ID_BLOCK_SIZE) : null;
+ 
+    // orders shown per page of the order history, -Dpizzastore.history.pageSize
+    static final int HISTORY_PAGE_SIZE = Integer.getInteger("pizzastore.history.pageSize", 20);
+ 
+    // completed orders with their items, -Dpizzastore.orderCache.*
+    private final OrderDetail.Cache _completedOrders =
+       new OrderDetail.Cache(Integer.getInteger("pizzastore.orderCache.size", 1000),
+                             Long.getLong("pizzastore.orderCache.ttlMs", 60000));
+
+    // recent logins shared by all sessions, -Dpizzastore.principal.ttlMs
+    static final long PRINCIPAL_TTL_MS = Long.getLong("pizzastore.principal.ttlMs", 60000);
+    private final PrincipalCache _principals =
+       new PrincipalCache(PRINCIPAL_TTL_MS, Integer.getInteger("pizzastore.principal.cacheSize", 10000));
+
+    // hashes and checks passwords on a pool sized to the cores, -Dpizzastore.password.*
+    private final PasswordHasher _passwords = PasswordHasher.fromSystemProperties();
+ 
+    // connection of the transaction open on the current thread, if any.
+    private final ThreadLocal<ConnectionPool.PooledConnection> _transaction = new ThreadLocal<ConnectionPool.PooledConnection>();
+ 
+    // how often the cached menu checks for a newer MenuVersion, in ms.
+    static final long MENU_REFRESH_MS = Long.getLong("pizzastore.menu.refreshMs", 5000);
+ 
+    // cached snapshot of the Items table, see getMenu().
+    private volatile MenuCatalog _menu = null;
+    private volatile long _menuCheckedAt = 0;
+    private final Object _menuLock = new Object();
+ 
+    // how often the store index checks StoreChange for changed stores, in ms.
+    static final long STORES_REFRESH_MS = Long.getLong("pizzastore.stores.refreshMs", 5000);
+
+    // stores shown per page of a store listing, -Dpizzastore.stores.pageSize
+    static final int STORES_PAGE_SIZE = Integer.getInteger("pizzastore.stores.pageSize", 20);
+
+    // in-memory index of the Store table, see getStores().
+    private final StoreDirectory _stores = new StoreDirectory();
+    private volatile long _storesCheckedAt = 0;
+
+    // rows fetched per round trip when printing a result.
+    static final int PRINT_FETCH_SIZE = 256;
+ 
+    // layout of printed results, -Dpizzastore.output.format=table|csv|tsv
+    static final TablePrinter.Format OUTPUT_FORMAT = TablePrinter.defaultFormat();
  
     // handling the keyboard inputs through a BufferedReader
     // This variable can be global for convenience.
     static BufferedReader in = new BufferedReader(
                                  new InputStreamReader(System.in));
  
+    // input and output of the session running on the current thread. The
+    // console session uses stdin/stdout, network sessions bind their socket.
+    private static final ThreadLocal<BufferedReader> sessionIn = new ThreadLocal<BufferedReader>();
+    private static final ThreadLocal<PrintStream> sessionOut = new ThreadLocal<PrintStream>();
+ 
     /**
      * Creates a new instance of PizzaStore
      *
@@ -49,7 +155,8 @@
      * @param database the name of the database
      * @param username the user name used to login to the database
      * @param password the user login password
-     * @throws java.sql.SQLException when failed to make a connection.
+     * @throws java.sql.SQLException when failed to make a connection, after
+     *         retrying as the RetryPolicy allows.
      */
     public PizzaStore(String dbname, String dbport, String user, String passwd) throws SQLException {
  
@@ -59,13 +166,28 @@
           String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
           System.out.println ("Connection URL: " + url + "\n");
  
-          // obtain a physical connection
-          this._connection = DriverManager.getConnection(url, user, passwd);
+          // open the pool of physical connections, riding out a short outage
+          for (int attempt = 1; this._pool == null; attempt++) {
+             try {
+                this._pool = new ConnectionPool(url, user, passwd, ConnectionPool.Config.fromSystemProperties());
+             } catch (SQLException e) {
+                if (!this._retry.shouldRetry(e, attempt, true))
+                   throw e;
+                System.out.println("Retrying: " + e.getMessage());
+                this._retry.backoff(attempt);
+             }
+          }
+          this._replicas = ReplicaRouter.fromSystemProperties(this._pool, user, passwd);
+          this._events = new OrderEvents(url, user, passwd);
+          this._slowQueries = SlowQueryLog.fromSystemProperties(this._pool);
+          if (METRICS_PORT > 0)
+             this._metrics.serve(System.getProperty("pizzastore.metrics.host", "127.0.0.1"), METRICS_PORT);
           System.out.println("Done");
        }catch (Exception e){
           System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
           System.out.println("Make sure you started postgres on this machine");
-          System.exit(-1);
+          cleanup();
+          throw e instanceof SQLException ? (SQLException) e : new SQLException(e.getMessage(), e);
        }//end catch
     }//end PizzaStore
  
@@ -73,186 +195,688 @@
      * Method to execute an update SQL statement.  Update SQL instructions
      * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
      *
-     * @param sql the input SQL string
+     * @param sql the input SQL string, with '?' placeholders for params
+     * @param params values bound to the placeholders in order
+     * @return the number of rows affected
      * @throws java.sql.SQLException when update failed
      */
-    public void executeUpdate (String sql) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
- 
-       // issues the update instruction
-       stmt.executeUpdate (sql);
- 
-       // close the instruction
-       stmt.close ();
+    public int executeUpdate (String sql, Object... params) throws SQLException {
+       // issues the update instruction on a pooled connection
+       return execute(sql, false, params, stmt -> stmt.executeUpdate ());
     }//end executeUpdate
  
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT).  This
      * method issues the query to the DBMS and outputs the results to
-     * standard out.
+     * the current session's output. Rows are streamed through a forward-only
+     * cursor, laid out by TablePrinter in the configured output format.
+     * The query runs in a transaction of its own, since the driver only
+     * fetches through a cursor with autocommit off. Rows already printed
+     * cannot be taken back, so a query that failed is not sent again.
      *
-     * @param query the input query string
+     * @param query the input query string, with '?' placeholders for params
+     * @param params values bound to the placeholders in order
      * @return the number of rows returned
      * @throws java.sql.SQLException when failed to execute the query
      */
-     public int executeQueryAndPrintResult(String query) throws SQLException {
-       // Creates a statement object
-       Statement stmt = this._connection.createStatement();
-   
-       // Issues the query instruction
-       ResultSet rs = stmt.executeQuery(query);
-   
-       // Obtains the metadata object for the returned result set. The metadata
-       // contains row and column info.
-       ResultSetMetaData rsmd = rs.getMetaData();
-       int numCol = rsmd.getColumnCount();
-       int rowCount = 0;
-   
-       // Create an array to store the maximum width of each column
-       int[] columnWidths = new int[numCol];
- 
-       // Set the width of each column to at least the length of the column name
-       for (int i = 1; i <= numCol; i++)
-          columnWidths[i - 1] = rsmd.getColumnName(i).length();
-   
-       // Determine the maximum width of each column
-       while (rs.next()) {
-           for (int i = 1; i <= numCol; i++) {
-               String columnValue = rs.getString(i);
-               if (columnValue != null) {
-                   columnWidths[i - 1] = Math.max(columnWidths[i - 1], columnValue.length());
-               } else {
-                   columnWidths[i - 1] = Math.max(columnWidths[i - 1], 4); // Handle null values with a width of 4
-               }
-           }
-       }
-   
-       // Reset the result set to the beginning (before we start printing)
-       rs.beforeFirst();
-   
-       // Output the header row
-       boolean outputHeader = true;
-       while (rs.next()) {
-           if (outputHeader) {
-                for (int i = 1; i <= numCol; i++) {
-                   // Print the column name with the calculated width
-                   System.out.print(String.format("%-" + columnWidths[i - 1] + "s | ", rsmd.getColumnName(i)));
-                }
-                int totalWidth = 0;
-                for (int width : columnWidths) {
-                   totalWidth += (width + 2);
-                }
-                System.out.println();
-                outputHeader = false;
-           }
-           
-           // Output the data rows with column values aligned
-           for (int i = 1; i <= numCol; i++) {
-               // Print the column value with the calculated width
-               System.out.print(String.format("%-" + columnWidths[i - 1] + "s | ", rs.getString(i)));
-           }
-           System.out.println();
-           rowCount++;
-       }
-       
-       // Close the statement
-       stmt.close();
-       return rowCount;
+     public int executeQueryAndPrintResult(String query, Object... params) throws SQLException {
+       // Issues the query instruction on a pooled connection
+       return execute(query, true, false, params, withCursor(PRINT_FETCH_SIZE,
+          stmt -> TablePrinter.print(stmt.executeQuery(), out(), OUTPUT_FORMAT)));
     }
-   
  
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT).  This
      * method issues the query to the DBMS and returns the results as
      * a list of records. Each record in turn is a list of attribute values
      *
-     * @param query the input query string
+     * @param query the input query string, with '?' placeholders for params
+     * @param params values bound to the placeholders in order
      * @return the query result as a list of records
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
- 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
- 
+    public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+       // issues the query instruction on a pooled connection
+       return execute(query, true, params, stmt -> returnResult(stmt.executeQuery ()));
+    }//end executeQueryAndReturnResult
+
+    /**
+     * Method to execute an SQL statement that returns rows but is not a
+     * plain read: INSERT ... RETURNING, a SELECT of functions that change
+     * the database such as nextval() or refresh_sales_summary(), or a read
+     * of connection state. Unlike the executeQuery methods, the statement
+     * always runs on the primary, is never sent a second time after a
+     * broken connection, and counts as a write of the session (see
+     * readFromReplicas()).
+     *
+     * @param sql the input SQL string, with '?' placeholders for params
+     * @param params values bound to the placeholders in order
+     * @return the result as a list of records
+     * @throws java.sql.SQLException when failed to execute the statement
+     */
+    public List<List<String>> executeAndReturnResult (String sql, Object... params) throws SQLException {
+       return execute(sql, false, params, stmt -> returnResult(stmt.executeQuery ()));
+    }//end executeAndReturnResult
+
+    private static List<List<String>> returnResult (ResultSet rs) throws SQLException {
        /*
         ** obtains the metadata object for the returned result set.  The metadata
         ** contains row and column info.
         */
        ResultSetMetaData rsmd = rs.getMetaData ();
        int numCol = rsmd.getColumnCount ();
-       int rowCount = 0;
  
        // iterates through the result set and saves the data returned by the query.
-       boolean outputHeader = false;
        List<List<String>> result  = new ArrayList<List<String>>();
        while (rs.next()){
-         List<String> record = new ArrayList<String>();
-       for (int i=1; i<=numCol; ++i)
-          record.add(rs.getString (i));
+         List<String> record = new ArrayList<String>(numCol);
+         for (int i=1; i<=numCol; ++i)
+            record.add(rs.getString (i));
          result.add(record);
        }//end while
-       stmt.close ();
+       rs.close ();
        return result;
-    }//end executeQueryAndReturnResult
+    }//end returnResult
  
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT).  This
      * method issues the query to the DBMS and returns the number of results
      *
-     * @param query the input query string
+     * @param query the input query string, with '?' placeholders for params
+     * @param params values bound to the placeholders in order
      * @return the number of rows returned
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public int executeQuery (String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement ();
- 
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery (query);
- 
+    public int executeQuery (String query, Object... params) throws SQLException {
+        // issues the query instruction on a pooled connection
+        return execute(query, true, params, stmt -> countRows(stmt.executeQuery ()));
+    }
+
+    private static int countRows (ResultSet rs) throws SQLException {
         int rowCount = 0;
  
         // iterates through the result set and count nuber of results.
         while (rs.next()){
            rowCount++;
         }//end while
-        stmt.close ();
+        rs.close ();
         return rowCount;
     }
  
     /**
-     * Method to fetch the last value from sequence. This
-     * method issues the query to the DBMS and returns the current
-     * value of sequence used for autogenerated keys
+     * Method to execute one SQL statement for many sets of parameters using
+     * JDBC batching, so all rows are sent together.
      *
-     * @param sequence name of the DB sequence
-     * @return current value of a sequence
-     * @throws java.sql.SQLException when failed to execute the query
+     * @param sql the input SQL string, with '?' placeholders
+     * @param rows one array of parameter values per execution
+     * @return the update count of each execution
+     * @throws java.sql.SQLException when the batch failed
+     */
+    public int[] executeBatch (String sql, List<Object[]> rows) throws SQLException {
+       return execute(sql, false, new Object[0], stmt -> {
+          for (Object[] row : rows) {
+             for (int i = 0; i < row.length; i++)
+                stmt.setObject(i + 1, row[i]);
+             stmt.addBatch();
+          }
+          return stmt.executeBatch();
+       });
+    }//end executeBatch
+ 
+    /**
+     * Method to stream rows into a table with COPY ... FROM STDIN. Needs a
+     * JDBC driver that supports COPY, see PgCopy.
+     *
+     * @param sql the COPY statement
+     * @param data the rows in the format named by the statement
+     * @return the number of rows copied
+     * @throws java.sql.SQLException when the copy failed
+     */
+    public long copyIn (String sql, Reader data) throws SQLException {
+       ConnectionPool.PooledConnection tx = this._transaction.get();
+       if (tx != null)
+          return PgCopy.copyIn(tx.connection(), sql, data);
+
+       ConnectionPool.PooledConnection c = this._pool.borrow();
+       boolean broken = false;
+       try {
+          return PgCopy.copyIn(c.connection(), sql, data);
+       } catch (SQLException e) {
+          broken = this._pool.isBroken(c, e);
+          throw e;
+       } finally {
+          this._pool.release(c, broken);
+       }
+    }//end copyIn
+ 
+    /**
+     * Work run inside a transaction, see executeInTransaction().
+     */
+    public interface TransactionWork<T> {
+       T run() throws SQLException;
+    }
+ 
+    /**
+     * Runs the work in a single transaction. Every executor call the work
+     * makes on this thread uses the same connection; the transaction is
+     * committed if the work returns and rolled back if it throws. A nested
+     * call joins the transaction already in progress. Statements inside
+     * are not retried one by one, since a failure aborts the transaction.
+     *
+     * @param work the statements to run atomically
+     * @return the value returned by the work
+     * @throws java.sql.SQLException when a statement or the commit failed
+     */
+    public <T> T executeInTransaction(TransactionWork<T> work) throws SQLException {
+       return transaction(work, false);
+    }//end executeInTransaction
+
+    /**
+     * Like executeInTransaction(), but runs the work again from the start,
+     * as the RetryPolicy allows, when the transaction failed in a way that
+     * rolled it back: a serialization failure, a deadlock, or a broken
+     * connection before the commit. The work must be safe to repeat, so it
+     * must not stream rows to a caller or change anything but the database.
+     *
+     * @param work the statements to run atomically
+     * @return the value returned by the work
+     * @throws java.sql.SQLException when the last attempt failed
+     */
+    public <T> T executeInTransactionWithRetry(TransactionWork<T> work) throws SQLException {
+       return transaction(work, true);
+    }//end executeInTransactionWithRetry
+
+    private <T> T transaction(TransactionWork<T> work, boolean repeatable) throws SQLException {
+       if (this._transaction.get() != null)
+          return work.run();
+
+       for (int attempt = 1; ; attempt++) {
+          this._breaker.acquire();
+          ConnectionPool.PooledConnection c;
+          try {
+             c = this._pool.borrow();
+          } catch (SQLException e) {
+             // nothing was sent, so this is safe to retry either way
+             this._breaker.failure(e);
+             if (!this._retry.shouldRetry(e, attempt, true))
+                throw e;
+             this._retry.backoff(attempt);
+             continue;
+          }
+          Connection connection = c.connection();
+          boolean broken = false;
+          boolean committing = false;
+          try {
+             connection.setAutoCommit(false);
+             this._transaction.set(c);
+             T result = work.run();
+             committing = true;
+             connection.commit();
+             this._breaker.success();
+             wrote();
+             return result;
+          } catch (Throwable e) {
+             // an Error too, or the autocommit reset below commits the half-done work
+             try {
+                connection.rollback();
+             } catch (SQLException rollbackFailure) {
+                broken = true;
+             }
+             if (!(e instanceof SQLException))
+                throw e;
+             SQLException failure = (SQLException) e;
+             if (!broken && this._pool.isBroken(c, failure))
+                broken = true;
+             // failures of the statements were recorded by execute()
+             if (committing)
+                this._breaker.failure(failure);
+             // a commit cut off by a broken connection may have happened
+             if (!repeatable || !this._retry.shouldRetry(failure, attempt, !committing))
+                throw failure;
+          } finally {
+             this._transaction.remove();
+             try {
+                connection.setAutoCommit(true);
+             } catch (SQLException e) {
+                broken = true;
+             }
+             this._pool.release(c, broken);
+          }
+          this._retry.backoff(attempt);
+       }
+    }//end transaction
+ 
+    /**
+     * Work done with a bound statement while its connection is borrowed.
+     */
+    interface StatementWork<T> {
+       T run(PreparedStatement stmt) throws SQLException;
+    }
+
+    /**
+     * Borrows a connection from the pool, fetches the statement from that
+     * connection's cache, binds the parameters and runs the work on it.
+     * A connection that failed is dropped instead of returned to the pool.
+     * Inside executeInTransaction() the transaction's connection is used.
+     * Every call is timed and counted under its SQL text in _metrics, and
+     * slow calls are written to the slow query log.
+     *
+     * Outside a transaction, calls are refused while the circuit breaker is
+     * open, and failed calls are retried as the RetryPolicy allows; after a
+     * broken connection only reads are sent again, since a write may have
+     * been applied before the connection broke. Reads made inside
+     * readFromReplicas() go to a replica the ReplicaRouter picks; a replica
+     * that cannot be reached sends the read back to the primary.
+     *
+     * @param read true if the caller declares the statement a plain read,
+     *        one that changes nothing and depends on no connection state
+     */
+    private <T> T execute(String sql, boolean read, Object[] params, StatementWork<T> work) throws SQLException {
+       return execute(sql, read, true, params, work);
+    }//end execute
+
+    /*
+     * @param replayable false if the work hands rows on as it reads them,
+     *        to the session's output for one; once such a call reached a
+     *        connection it is never run again, whatever failed
+     */
+    private <T> T execute(String sql, boolean read, boolean replayable, Object[] params, StatementWork<T> work) throws SQLException {
+       QueryMetrics.QueryEvent event = QueryMetrics.begin();
+       long start = System.nanoTime();
+       T result = null;
+       boolean failed = true;
+       try {
+          result = borrowAndRun(sql, read, replayable, params, work);
+          failed = false;
+          return result;
+       } finally {
+          long nanos = System.nanoTime() - start;
+          this._metrics.record(sql, nanos, result, failed, event);
+          if (this._slowQueries != null && this._slowQueries.isSlow(nanos))
+             this._slowQueries.offer(sql, params, nanos, QueryMetrics.rows(result), failed, this._metrics.currentHandler());
+       }
+    }//end execute
+
+    private <T> T borrowAndRun(String sql, boolean read, boolean replayable, Object[] params, StatementWork<T> work) throws SQLException {
+       ConnectionPool.PooledConnection tx = this._transaction.get();
+       if (tx != null) {
+          try {
+             T result = run(tx, sql, params, work);
+             this._breaker.success();
+             return result;
+          } catch (SQLException e) {
+             this._breaker.failure(e);
+             throw e;
+          }
+       }
+
+       ReplicaReads reads = this._replicas == null ? null : this._sessionReads.get();
+       for (int attempt = 1; ; attempt++) {
+          ReplicaRouter.Replica replica = reads != null && reads.active && read ? this._replicas.route(reads.writtenAt) : null;
+          ConnectionPool pool = replica == null ? this._pool : replica.pool();
+          if (replica == null)
+             this._breaker.acquire();
+          ConnectionPool.PooledConnection c = null;
+          boolean broken = false;
+          try {
+             c = pool.borrow();
+             T result = run(c, sql, params, work);
+             if (replica == null) {
+                this._breaker.success();
+                if (!read)
+                   wrote();
+             }
+             return result;
+          } catch (SQLException e) {
+             broken = c != null && pool.isBroken(c, e);
+             if (replica != null) {
+                // out of rotation until it answers again, read from elsewhere right away
+                this._replicas.failed(replica, e);
+                if (CircuitBreaker.isOverload(e) && (c == null || replayable))
+                   continue;
+             } else {
+                this._breaker.failure(e);
+             }
+             // nothing was sent if the borrow failed
+             if (c != null && !replayable)
+                throw e;
+             if (!this._retry.shouldRetry(e, attempt, c == null || read))
+                throw e;
+          } finally {
+             if (c != null)
+                pool.release(c, broken);
+          }
+          this._retry.backoff(attempt);
+       }
+    }//end borrowAndRun
+
+    /**
+     * Work whose reads may go to a replica, see readFromReplicas().
+     */
+    public interface ReplicaWork<T> {
+       T run() throws SQLException;
+    }
+
+    /**
+     * Runs the work with the reads it makes on this thread sent to
+     * replicas. Reads still go to the primary inside a transaction, when
+     * no replica is within the maximum lag, and when no replica has caught
+     * up with the session's own last write yet. Writes always go to the
+     * primary. Without configured replicas this just runs the work.
+     *
+     * @param work the reads to route
+     * @return the value returned by the work
+     * @throws java.sql.SQLException when a read failed
+     */
+    public <T> T readFromReplicas(ReplicaWork<T> work) throws SQLException {
+       if (this._replicas == null)
+          return work.run();
+       ReplicaReads reads = this._sessionReads.get();
+       boolean outer = reads.active;
+       reads.active = true;
+       try {
+          return work.run();
+       } finally {
+          reads.active = outer;
+       }
+    }//end readFromReplicas
+
+    /*
+     * Runs the work with its reads on the primary, also when called inside
+     * readFromReplicas(). The menu and store caches are shared by every
+     * session, so they refresh this way; a lagging replica would otherwise
+     * hand all sessions an older menu.
+     */
+    private <T> T onPrimary(ReplicaWork<T> work) throws SQLException {
+       if (this._replicas == null)
+          return work.run();
+       ReplicaReads reads = this._sessionReads.get();
+       boolean outer = reads.active;
+       reads.active = false;
+       try {
+          return work.run();
+       } finally {
+          reads.active = outer;
+       }
+    }//end onPrimary
+
+    // the session just committed on the primary, see readFromReplicas()
+    private void wrote() {
+       if (this._replicas != null)
+          this._sessionReads.get().writtenAt = System.nanoTime();
+    }
+ 
+    private static <T> T run(ConnectionPool.PooledConnection c, String sql, Object[] params, StatementWork<T> work) throws SQLException {
+       PreparedStatement stmt = c.statements().prepare(sql);
+       try {
+          stmt.setQueryTimeout(QUERY_TIMEOUT_SECONDS);
+          for (int i = 0; i < params.length; i++)
+             stmt.setObject(i + 1, params[i]);
+          return work.run(stmt);
+       } catch (SQLException e) {
+          c.statements().invalidate(sql);
+          throw e;
+       }
+    }//end run
+ 
+    /**
+     * Returns the current menu snapshot. The MenuVersion counter is checked
+     * at most once per refresh interval and the snapshot is rebuilt only
+     * when it changed, so browsing and pricing normally skip the database.
+     * Both are read from the primary, see onPrimary().
+     *
+     * @return the menu catalog
+     * @throws java.sql.SQLException when the menu cannot be loaded
+     */
+    public MenuCatalog getMenu() throws SQLException {
+       MenuCatalog menu = this._menu;
+       if (menu != null && System.currentTimeMillis() - this._menuCheckedAt < MENU_REFRESH_MS)
+          return menu;
+       synchronized (this._menuLock) {
+          menu = this._menu;
+          long now = System.currentTimeMillis();
+          if (menu != null && now - this._menuCheckedAt < MENU_REFRESH_MS)
+             return menu;
+          MenuCatalog current = menu;
+          menu = onPrimary(() -> {
+             // read the version before the items, so a concurrent change is
+             // picked up by the next check rather than missed
+             long version = Long.parseLong(executeQueryAndReturnResult("SELECT version FROM MenuVersion").get(0).get(0).trim());
+             return current == null || current.version() != version ? MenuCatalog.load(this, version) : current;
+          });
+          this._menu = menu;
+          this._menuCheckedAt = now;
+          return menu;
+       }
+    }//end getMenu
+ 
+    /**
+     * Returns the store index, first applying changes logged since the last
+     * check if the refresh interval has passed. Changes are read from the
+     * primary, see onPrimary().
+     *
+     * @return the store directory
+     * @throws java.sql.SQLException when the stores cannot be loaded
+     */
+    public StoreDirectory getStores() throws SQLException {
+       if (System.currentTimeMillis() - this._storesCheckedAt < STORES_REFRESH_MS)
+          return this._stores;
+       synchronized (this._stores) {
+          long now = System.currentTimeMillis();
+          if (now - this._storesCheckedAt >= STORES_REFRESH_MS) {
+             onPrimary(() -> {
+                this._stores.refresh(this);
+                return null;
+             });
+             this._storesCheckedAt = now;
+          }
+       }
+       return this._stores;
+    }//end getStores
+
+    /**
+     * Checks that an order exists, with an indexed point lookup. Orders can
+     * be deleted, by cascades from Users and Store among others, so an
+     * earlier answer is not remembered.
+     *
+     * @param orderID the order to look for
+     * @return true if the order exists
+     * @throws java.sql.SQLException when the lookup failed
+     */
+    public boolean orderExists(int orderID) throws SQLException {
+       return executeQuery("SELECT orderID FROM FoodOrder WHERE orderID=?", orderID) != 0;
+    }//end orderExists
+ 
+    /**
+     * Reads an order with its line items, from the cache of completed
+     * orders when possible and with one query otherwise. Cached orders are
+     * only used under the menu version their prices were read with, which
+     * the query reads in the same snapshot, so prices read from a lagging
+     * replica are not kept under a newer version.
+     *
+     * @param orderID the order to look for
+     * @param user the user asking, who must own the order or see all orders
+     * @return the order, or null if it does not exist or is not visible
+     * @throws java.sql.SQLException when the lookup failed
+     */
+    public OrderDetail getOrderDetail(int orderID, Principal user) throws SQLException {
+       OrderDetail order = this._completedOrders.get(orderID, getMenu().version());
+       if (order == null) {
+          order = OrderDetail.fetch(this, orderID, user);
+          if (order == null)
+             return null;
+          this._completedOrders.put(order);
+       }
+       if (!user.can(Principal.Permission.VIEW_ALL_ORDERS) && !order.login.equals(user.login))
+          return null;
+       return order;
+    }//end getOrderDetail
+ 
+    /**
+     * Work done with each row of a streamed query, see executeQueryAndStream().
+     */
+    public interface RowHandler {
+       void row(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Method to execute a query whose result is too large to hold in memory.
+     * The query runs in a transaction so the driver fetches the rows in
+     * chunks of fetchSize, and each row is handed to the handler as it
+     * arrives.
+     *
+     * @param query the input query string, with '?' placeholders for params
+     * @param fetchSize the number of rows fetched per round trip
+     * @param handler called once for each row, in result order
+     * @param params values bound to the placeholders in order
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query, or
+     *         thrown by the handler
+     */
+    public long executeQueryAndStream(String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+       return executeInTransaction(() -> execute(query, true, false, params, withCursor(fetchSize, stmt -> {
+          // a stream runs as long as its handler needs, not one statement's timeout
+          stmt.setQueryTimeout(0);
+          long rows = 0;
+          try (ResultSet rs = stmt.executeQuery()) {
+             while (rs.next()) {
+                handler.row(rs);
+                rows++;
+             }
+          }
+          return rows;
+       })));
+    }//end executeQueryAndStream
+
+    /*
+     * Wraps work that reads its result through a cursor of fetchSize rows.
+     * Outside a transaction the statement gets one of its own on the
+     * connection it was given, so reads routed to a replica stream too.
+     * The fetch size is reset before the statement goes back to the cache.
+     * A driver that refuses the fetch size reads the whole result anyway,
+     * so the work then runs as it is, without the extra transaction.
+     */
+    private static <T> StatementWork<T> withCursor(int fetchSize, StatementWork<T> work) {
+       return stmt -> {
+          if (!setFetchSize(stmt, fetchSize))
+             return work.run(stmt);
+          Connection connection = stmt.getConnection();
+          boolean own = connection.getAutoCommit();
+          if (own)
+             connection.setAutoCommit(false);
+          try {
+             T result = work.run(stmt);
+             if (own)
+                connection.commit();
+             return result;
+          } catch (Throwable e) {
+             if (own) {
+                try {
+                   connection.rollback();
+                } catch (SQLException rollbackFailure) {
+                   e.addSuppressed(rollbackFailure);
+                }
+             }
+             throw e;
+          } finally {
+             setFetchSize(stmt, 0);
+             if (own)
+                connection.setAutoCommit(true);
+          }
+       };
+    }//end withCursor
+
+    /*
+     * The bundled pg73 driver has no cursor fetching and refuses any fetch
+     * size; it then reads the whole result at once, as it always did.
+     * @return true if the driver took the fetch size
+     */
+    private static boolean setFetchSize(PreparedStatement stmt, int rows) {
+       try {
+          stmt.setFetchSize(rows);
+          return true;
+       } catch (SQLException notImplemented) {
+          return false;
+       }
+    }
+
+    /*
+     * Replaces a plaintext or outdated password hash in the background, so
+     * the login that found it does not wait for a second hash. The update
+     * only applies if the row still holds the old value; if it fails or the
+     * hashing pool is busy, the next login tries again.
      */
-    public int getCurrSeqVal(String sequence) throws SQLException {
-    Statement stmt = this._connection.createStatement ();
+    private void rehashPassword(String login, String password, String stored) {
+       try {
+          this._passwords.hashAsync(password).thenAccept(hash -> {
+             try {
+                executeUpdate("UPDATE Users SET password=? WHERE login=? AND password=?", hash, login, stored);
+             } catch (SQLException e) {
+                // left as it is until the next login.
+             }
+          });
+       } catch (RejectedExecutionException e) {
+          // left as it is until the next login.
+       }
+    }//end rehashPassword
  
-    ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-    if (rs.next())
-       return rs.getInt(1);
-    return -1;
+    /**
+     * @return the timings of database calls and menu handlers
+     */
+    public QueryMetrics metrics() {
+       return this._metrics;
+    }
+
+    /**
+     * @return the cache of recent logins
+     */
+    public PrincipalCache principals() {
+       return this._principals;
+    }
+
+    /**
+     * @return the circuit breaker in front of the database, for its state
+     */
+    public CircuitBreaker getBreaker() {
+       return this._breaker;
+    }
+
+    /**
+     * @return the retry policy, for the number of retries made
+     */
+    public RetryPolicy getRetryPolicy() {
+       return this._retry;
+    }
+
+    /**
+     * @return the replica router, for its state, or null without replicas
+     */
+    public ReplicaRouter getReplicas() {
+       return this._replicas;
+    }
+
+    /**
+     * @return the connection pool, for its metrics
+     */
+    public ConnectionPool getPool() {
+       return this._pool;
     }
  
     /**
-     * Method to close the physical connection if it is open.
+     * Method to close the physical connections if they are open.
      */
     public void cleanup(){
-       try{
-          if (this._connection != null){
-             this._connection.close ();
-          }//end if
-       }catch (SQLException e){
-          // ignored.
-       }//end try
+       this._metrics.close();
+       this._passwords.close();
+       if (this._slowQueries != null)
+          this._slowQueries.close();
+       if (this._events != null)
+          this._events.close();
+       if (this._replicas != null)
+          this._replicas.close();
+       if (this._pool != null){
+          this._pool.close ();
+       }//end if
     }//end cleanup
  
     /**
@@ -261,16 +885,25 @@
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      int listenPort = 0;
+      if (args.length == 5 && args[3].equals("--serve")) {
+         try {
+            listenPort = Integer.parseInt(args[4]);
+         } catch (NumberFormatException e) {
+            listenPort = -1;
+         }
+      }
+      if ((args.length != 3 && args.length != 5) || listenPort < 0 || (args.length == 5 && listenPort == 0)) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             PizzaStore.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--serve <listen port>]");
          return;
       }//end if
 
-      Greeting();
+      if (listenPort == 0)
+         Greeting();
       PizzaStore esql = null;
       try{
          // use postgres JDBC driver.
@@ -282,75 +915,12 @@
          String user = args[2];
          esql = new PizzaStore (dbname, dbport, user, "");
 
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
-            System.out.println("\nMAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT\n");
-            String authorizedUser = null;
-            String role = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: 
-                  authorizedUser = LogIn(esql);
-                  break;
-               case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
-            }//end switch
-            if (authorizedUser != null) {
-               role = getRole(esql, authorizedUser);
-               if (!role.trim().equals("customer")) {
-                  System.out.println("Logged in as a " + role);
-               } 
-               boolean usermenu = true;
-               while(usermenu) {
-                System.out.println("\nMAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. View Profile");
-                System.out.println("2. Update Profile");
-                System.out.println("3. View Menu");
-                System.out.println("4. Place Order"); //make sure user specifies which store
-                System.out.println("5. View Full Order ID History");
-                System.out.println("6. View Past 5 Order IDs");
-                System.out.println("7. View Order Information"); //user should specify orderID and then be able to see detailed information about the order
-                System.out.println("8. View Stores"); 
-                
-                //**the following functionalities should only be able to be used by drivers & managers**
-                if (role.trim().equals("driver") || role.trim().equals("manager")) System.out.println("9. Update Order Status");
-
-                //**the following functionalities should ony be able to be used by managers**
-                if (role.trim().equals("manager")) {
-                  System.out.println("10. Update Menu");
-                  System.out.println("11. Update User");
-                }
-
-                System.out.println(".........................");
-                System.out.println("20. Log out\n");
-                switch (readChoice()){
-                   case 1: viewProfile(esql, authorizedUser); break;
-                   case 2: updateProfile(esql, authorizedUser); break;
-                   case 3: viewMenu(esql); break;
-                   case 4: placeOrder(esql, authorizedUser); break;
-                   case 5: viewAllOrders(esql, authorizedUser, role); break;
-                   case 6: viewRecentOrders(esql, authorizedUser, role); break;
-                   case 7: viewOrderInfo(esql, authorizedUser, role); break;
-                   case 8: viewStores(esql); break;
-                   case 9: if (role.trim().equals("customer")) System.out.println("Unrecognized choice!");
-                     else updateOrderStatus(esql); break;
-                   case 10: if (role.trim().equals("customer") || role.trim().equals("driver")) System.out.println("Unrecognized choice!");
-                     else updateMenu(esql); break;
-                   case 11: if (role.trim().equals("customer") || role.trim().equals("driver")) System.out.println("Unrecognized choice!");
-                     else updateUser(esql); break;
-
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
-                }
-              }
-            }
-         }//end while
+         if (listenPort > 0) {
+            // serve every TCP client as its own session until the JVM stops
+            new PizzaServer(esql, System.getProperty("pizzastore.server.host", "127.0.0.1"), listenPort).serve();
+         } else {
+            runSession(esql);
+         }
       }catch(Exception e) {
          System.err.println (e.getMessage ());
       }finally{
@@ -367,20 +937,188 @@
       }//end try
    }//end main
 
+   /**
+    * Runs the interactive menu for one user until they exit. Input and
+    * output go through the streams bound to the current thread, so the
+    * same loop serves the console and every network client.
+    *
+    * @param esql the shared database handle
+    */
+   public static void runSession(PizzaStore esql) {
+      try {
+         menuLoop(esql);
+      } catch (SessionClosedError e) {
+         // the client closed its input, nothing left to do.
+      }
+   }//end runSession
+
+   private static void menuLoop(PizzaStore esql) {
+      boolean keepon = true;
+      while(keepon) {
+         // These are sample SQL statements
+         out().println("\nMAIN MENU");
+         out().println("---------");
+         out().println("1. Create user");
+         out().println("2. Log in");
+         out().println("9. < EXIT\n");
+         Principal user = null;
+         int choice = readChoice();
+         QueryMetrics.Span span = handlerSpan(esql, START_HANDLERS, choice);
+         try {
+            switch (choice){
+               case 1: CreateUser(esql); break;
+               case 2: 
+                  user = LogIn(esql);
+                  break;
+               case 9: keepon = false; break;
+               default : out().println("Unrecognized choice!"); break;
+            }//end switch
+         } finally {
+            if (span != null)
+               span.close();
+         }
+         if (user != null) {
+            String authorizedUser = user.login;
+            if (user.role != Principal.Role.CUSTOMER) {
+               out().println("Logged in as a " + user.role);
+            } 
+            // status changes of this user's orders, or of all orders for staff
+            OrderEvents.Subscription events = esql._events.subscribe(
+               user.can(Principal.Permission.VIEW_ALL_ORDERS) ? null : user.login);
+            try {
+               boolean usermenu = true;
+               while(usermenu) {
+                printOrderEvents(events);
+                out().println("\nMAIN MENU");
+                out().println("---------");
+                out().println("1. View Profile");
+                out().println("2. Update Profile");
+                out().println("3. View Menu");
+                out().println("4. Place Order"); //make sure user specifies which store
+                out().println("5. View Full Order History");
+                out().println("6. View Past 5 Order IDs");
+                out().println("7. View Order Information"); //user should specify orderID and then be able to see detailed information about the order
+                out().println("8. View Stores"); 
+                out().println("13. Reorder Favorites or Last Order"); //9-12 are taken by the role specific entries below
+             
+                //**the following functionalities should only be able to be used by drivers & managers**
+                if (user.can(Principal.Permission.UPDATE_ORDER_STATUS)) out().println("9. Update Order Status");
+
+                //**the following functionalities should ony be able to be used by managers**
+                if (user.can(Principal.Permission.UPDATE_MENU)) out().println("10. Update Menu");
+                if (user.can(Principal.Permission.UPDATE_USER)) out().println("11. Update User");
+                if (user.can(Principal.Permission.VIEW_REPORTS)) out().println("12. Sales Reports");
+
+                out().println(".........................");
+                out().println("20. Log out\n");
+                int userChoice = readChoice();
+                QueryMetrics.Span userSpan = handlerSpan(esql, USER_HANDLERS, userChoice);
+                try {
+                   switch (userChoice){
+                      case 1: viewProfile(esql, authorizedUser); break;
+                      case 2: updateProfile(esql, authorizedUser); break;
+                      case 3: viewMenu(esql); break;
+                      case 4: placeOrder(esql, authorizedUser); break;
+                      case 5: viewAllOrders(esql, user); break;
+                      case 6: viewRecentOrders(esql, user); break;
+                      case 7: viewOrderInfo(esql, user); break;
+                      case 8: viewStores(esql); break;
+                      case 13: reorder(esql, authorizedUser); break;
+                      case 9: if (!user.can(Principal.Permission.UPDATE_ORDER_STATUS)) out().println("Unrecognized choice!");
+                        else updateOrderStatus(esql); break;
+                      case 10: if (!user.can(Principal.Permission.UPDATE_MENU)) out().println("Unrecognized choice!");
+                        else updateMenu(esql); break;
+                      case 11: if (!user.can(Principal.Permission.UPDATE_USER)) out().println("Unrecognized choice!");
+                        else updateUser(esql); break;
+                      case 12: if (!user.can(Principal.Permission.VIEW_REPORTS)) out().println("Unrecognized choice!");
+                        else viewSalesReports(esql); break;
+
+                      case 20: usermenu = false; break;
+                      default : out().println("Unrecognized choice!"); break;
+                   }
+                } finally {
+                   if (userSpan != null)
+                      userSpan.close();
+                }
+              }
+            } finally {
+               events.close();
+            }
+         }
+      }//end while
+   }//end menuLoop
+
+   // handler names by menu choice, for the metrics spans
+   private static final String[] START_HANDLERS = { null, "CreateUser", "LogIn" };
+   private static final String[] USER_HANDLERS = { null, "viewProfile", "updateProfile", "viewMenu", "placeOrder",
+      "viewAllOrders", "viewRecentOrders", "viewOrderInfo", "viewStores", "updateOrderStatus", "updateMenu",
+      "updateUser", "viewSalesReports", "reorder" };
+
+   /*
+    * Starts the metrics span of the handler chosen from a menu
+    * @return the span, or null for choices that are not handlers
+    */
+   private static QueryMetrics.Span handlerSpan(PizzaStore esql, String[] handlers, int choice) {
+      return choice > 0 && choice < handlers.length ? esql._metrics.span(handlers[choice]) : null;
+   }
+
+   /*
+    * Prints the order status changes received since the menu was last shown
+    */
+   private static void printOrderEvents(OrderEvents.Subscription events) {
+      for (OrderEvents.Event event : events.drain())
+         out().println("* Order " + event.orderID + " is now " + event.status);
+   }
+
  
-    private static String getRole(PizzaStore psql, String authorizedUser) {
-       try {
-          String role = psql.executeQueryAndReturnResult("SELECT role FROM Users WHERE login='" + authorizedUser + "'").get(0).get(0);
-          return role;
-       }
-       catch (SQLException e){
-          System.out.println("Error fetching role: " + e.getMessage());
+    /**
+     * Binds the given streams to the current thread, so every handler run
+     * on it reads and writes that session instead of the console.
+     */
+    public static void bindSession(BufferedReader input, PrintStream output) {
+       sessionIn.set(input);
+       sessionOut.set(output);
+    }//end bindSession
+ 
+    public static void unbindSession() {
+       sessionIn.remove();
+       sessionOut.remove();
+    }//end unbindSession
+ 
+    /*
+     * Output stream of the current session
+     */
+    static PrintStream out() {
+       PrintStream output = sessionOut.get();
+       return output != null ? output : System.out;
+    }//end out
+ 
+    /*
+     * Reads a line from the current session. Thrown as an Error rather
+     * than an Exception so that the input loops, which retry on any
+     * Exception, stop once the client has gone away.
+     */
+    static String readLine() throws IOException {
+       BufferedReader input = sessionIn.get();
+       String line = (input != null ? input : in).readLine();
+       if (line == null)
+          throw new SessionClosedError();
+       return line;
+    }//end readLine
+ 
+    /*
+     * Raised when the session input reaches end of stream
+     */
+    static class SessionClosedError extends Error {
+       private static final long serialVersionUID = 1L;
+
+       SessionClosedError() {
+          super("session input closed", null, false, false);
        }
-       return "";
-    }
+    }//end SessionClosedError
  
     public static void Greeting(){
-       System.out.println(
+       out().println(
           "\n\n*******************************************************\n" +
           "              User Interface      	               \n" +
           "*******************************************************\n");
@@ -389,12 +1127,12 @@
     public static String getStringInput(String prompt) {
        String input = "";
        do {
-          System.out.print(prompt);
+          out().print(prompt);
           try {
-             input = in.readLine().trim();
+             input = readLine().trim();
              break;
           } catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        } while (true);
@@ -407,19 +1145,19 @@
     public static String getStringInput(String item, int maxLength) {
        String input = "";
        do {
-          System.out.print("Please enter " + item + " (1-" + maxLength + " characters): ");
+          out().print("Please enter " + item + " (1-" + maxLength + " characters): ");
           try {
-             input = in.readLine().trim();
+             input = readLine().trim();
              if(input.isEmpty()) {
-                System.out.println(item + " cannot be empty!");
+                out().println(item + " cannot be empty!");
                 continue;
              } else if (input.length() > 30) {
-                System.out.println(item + " cannot be greater than 30 characters!");
+                out().println(item + " cannot be greater than 30 characters!");
                 continue;
              }
              break;
           } catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        } while (true);
@@ -434,12 +1172,12 @@
        int input;
        // returns only if a correct value is given.
        do {
-          System.out.print("Please make your choice: ");
+          out().print("Please make your choice: ");
           try { // read the integer, parse it and break.
-             input = Integer.parseInt(in.readLine());
+             input = Integer.parseInt(readLine());
              break;
           }catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }//end try
        }while (true);
@@ -453,47 +1191,33 @@
        String loginInput = "";
        String passwordInput = "";
        String phoneNumInput = "";
-       List<List<String>> existingLogins = new ArrayList<>();
-       boolean loginExists;
- 
-       // get existing logins
-       try {
-          existingLogins = esql.executeQueryAndReturnResult("SELECT login FROM Users");
-       } catch (SQLException e) {
-          System.out.println("Error getting existing logins: " + e.getMessage());
-          return;
-       }
- 
+
        // get and validate loginInput
        do {
-          System.out.print("Please enter login (1-50 characters): ");
+          out().print("Please enter login (1-50 characters): ");
           try {
-             loginInput = in.readLine().trim();
+             loginInput = readLine().trim();
  
              if(loginInput.isEmpty()) {
-                System.out.println("Login cannot be empty!");
+                out().println("Login cannot be empty!");
                 continue;
              } else if (loginInput.length() > 50) {
-                System.out.println("Login cannot be greater than 50 characters!");
+                out().println("Login cannot be greater than 50 characters!");
                 continue;
              }
  
              // check if login already exists
-             loginExists = false;
-             for (List<String> row : existingLogins) {
-                if (row.get(0).trim().equals(loginInput)) {
-                   loginExists = true;
-                   break;
-                }
-             }
-             if (loginExists) {
-                System.out.println("This login already exists! Please try a different login.");
+             if (esql.executeQuery("SELECT login FROM Users WHERE login=?", loginInput) > 0) {
+                out().println("This login already exists! Please try a different login.");
                 continue;
              }
              
              break;
+          } catch (SQLException e) {
+             out().println("Error getting existing logins: " + e.getMessage());
+             return;
           } catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        }while (true);
@@ -503,107 +1227,133 @@
  
        // get and validate phoneNum
        do {
-          System.out.print("Please enter phone number: ");
+          out().print("Please enter phone number: ");
           try {
-             phoneNumInput = in.readLine().trim();
+             phoneNumInput = readLine().trim();
              if(phoneNumInput.isEmpty()) {
-                System.out.println("Phone number cannot be empty!");
+                out().println("Phone number cannot be empty!");
                 continue;
              } else if (phoneNumInput.length() > 20) {
-                System.out.println("Phone number cannot be greater than 20 characters!");
+                out().println("Phone number cannot be greater than 20 characters!");
                 continue;
              }
              break;
           } catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        }while (true);
  
-       // add new user to db
+       // add new user to db, unless someone took the login in the meantime
        try {
-          esql.executeUpdate("INSERT INTO Users (login, password, role, favoriteItems, phoneNum) VALUES ('" + loginInput + "', '" + passwordInput + "', 'customer', NULL, '" + phoneNumInput + "');");
-          System.out.println("User created successfully!");
+          String hash = esql._passwords.hash(passwordInput);
+          if (esql.executeUpdate("INSERT INTO Users (login, password, role, favoriteItems, phoneNum) VALUES (?, ?, 'customer', NULL, ?) ON CONFLICT (login) DO NOTHING", loginInput, hash, phoneNumInput) == 0) {
+             out().println("This login was just taken! Please try again with a different login.");
+             return;
+          }
+          out().println("User created successfully!");
        } catch (SQLException e) {
-             System.out.println("Error inserting user: " + e.getMessage());
+             out().println("Error inserting user: " + e.getMessage());
+       } catch (RejectedExecutionException e) {
+          out().println("Too many users are signing in right now, please try again later.");
        }
       
     }//end CreateUser
  
  
     /*
-     * Check log in credentials for an existing user
-     * @return User login or null if the user does not exist
+     * Check log in credentials for an existing user. The login, password
+     * hash and role are read in one query, or taken from the shared cache of
+     * recent logins. The password is hashed on the PasswordHasher pool,
+     * unless the same password logged in recently; plaintext passwords
+     * left from before hashing are replaced with a hash after they match.
+     * @return the logged in user or null if the user does not exist
      **/
-    public static String LogIn(PizzaStore esql){
+    public static Principal LogIn(PizzaStore esql){
        String loginInput = "";
        String passwordInput = "";
-       String userPassword = "";
-       List<List<String>> loginInfo = new ArrayList<>();
+       PrincipalCache.Entry account = null;
  
        // get and validate loginInput
        do {
-          System.out.print("Please enter login (1-50 characters): ");
+          out().print("Please enter login (1-50 characters): ");
           try {
-             loginInput = in.readLine().trim();
+             loginInput = readLine().trim();
  
              if(loginInput.isEmpty()) {
-                System.out.println("Login cannot be empty!");
+                out().println("Login cannot be empty!");
                 continue;
              } else if (loginInput.length() > 50) {
-                System.out.println("Login cannot be greater than 50 characters!");
+                out().println("Login cannot be greater than 50 characters!");
                 continue;
              }
  
              // get user login information and authenticate login
-             try {
-                loginInfo = esql.executeQueryAndReturnResult("SELECT login, password FROM Users WHERE login='" + loginInput + "';");
-             } catch (SQLException e) {
-                System.out.println("Error getting user login information: " + e.getMessage());
-                return null;
-             }
-             if(loginInfo.isEmpty()) {
-                System.out.println(loginInput + " does not exist!");
-                return null;
+             account = esql._principals.get(loginInput);
+             if (account == null) {
+                long generation = esql._principals.generation();
+                List<List<String>> loginInfo;
+                try {
+                   loginInfo = esql.executeQueryAndReturnResult("SELECT login, password, role FROM Users WHERE login=?", loginInput);
+                } catch (SQLException e) {
+                   out().println("Error getting user login information: " + e.getMessage());
+                   return null;
+                }
+                if(loginInfo.isEmpty()) {
+                   out().println(loginInput + " does not exist!");
+                   return null;
+                }
+                account = new PrincipalCache.Entry(
+                   new Principal(loginInput, Principal.Role.parse(loginInfo.get(0).get(2))), loginInfo.get(0).get(1), generation);
              }
  
              break;
           } catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        }while (true);
  
        // get and validate passwordInput
        do {
-          System.out.print("Please enter password (1-30 characters): ");
+          out().print("Please enter password (1-30 characters): ");
           try {
-             passwordInput = in.readLine().trim();
-             userPassword = loginInfo.get(0).get(1);
+             passwordInput = readLine().trim();
  
              if(passwordInput.isEmpty()) {
-                System.out.println("Password cannot be empty!");
+                out().println("Password cannot be empty!");
                 continue;
              } else if (passwordInput.length() > 30) {
-                System.out.println("Password cannot be greater than 30 characters!");
+                out().println("Password cannot be greater than 30 characters!");
                 continue;
              }
  
-             if (!passwordInput.trim().equals(userPassword)) {
-                System.out.println("Wrong password! Please try again.");
-                continue;
+             byte[] fingerprint = esql._passwords.fingerprint(loginInput, passwordInput);
+             if (!account.wasVerified(fingerprint)) {
+                if (!esql._passwords.verify(passwordInput, account.password)) {
+                   out().println("Wrong password! Please try again.");
+                   continue;
+                }
+                if (esql._passwords.needsRehash(account.password))
+                   esql.rehashPassword(loginInput, passwordInput, account.password);
+                account = account.verified(fingerprint);
              }
  
              break;
+          } catch (RejectedExecutionException e) {
+             out().println("Too many users are logging in right now, please try again later.");
+             return null;
           } catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        }while (true);
  
-       System.out.println("Welcome " + loginInput + "!");
+       // only remember credentials that were just confirmed
+       esql._principals.put(account);
+       out().println("Welcome " + loginInput + "!");
  
-       return loginInput;
+       return account.principal;
     }//end LogIn
  
     
@@ -612,9 +1362,11 @@
      */
     public static void viewProfile(PizzaStore esql, String authorizedUser) {
        try {
-          esql.executeQueryAndPrintResult("SELECT login, password, favoriteItems, phoneNum FROM Users WHERE login='" + authorizedUser + "'");
+          esql.executeQueryAndPrintResult(
+             "SELECT u.login, string_agg(f.quantity || ' x ' || f.itemName, ', ' ORDER BY f.itemName) AS favoriteItems, u.phoneNum" +
+             " FROM Users u LEFT JOIN FavoriteItems f ON f.login = u.login WHERE u.login=? GROUP BY u.login", authorizedUser);
        } catch (SQLException e) {
-          System.out.println("Error getting login information: " + e.getMessage());
+          out().println("Error getting login information: " + e.getMessage());
           return;
        }
        
@@ -627,16 +1379,16 @@
      public static String getYNInput(String prompt) {
        String response = "";
        do {
-          System.out.print(prompt + " (y/n)? ");
+          out().print(prompt + " (y/n)? ");
           try {
-             response = in.readLine();
+             response = readLine();
              if(!response.trim().equals("y") && !response.trim().equals("n")) {
-                System.out.println("Please enter 'y' or 'n'.");
+                out().println("Please enter 'y' or 'n'.");
                 continue;
              }
              break;
           } catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        } while(true);
@@ -650,108 +1402,182 @@
        String response = "";
        String passwordInput = "";
        String phoneNumInput = "";
-       String favoriteItemsInput = "";
  
        response = getYNInput("Would you like to update your password");
        if (response.trim().equals("y")) {
           passwordInput = getStringInput("password", 30);
           try {
-             esql.executeUpdate("UPDATE Users SET password='" + passwordInput + "' WHERE login ='" + authorizedUser + "';");
+             esql.executeUpdate("UPDATE Users SET password=? WHERE login=?", esql._passwords.hash(passwordInput), authorizedUser);
+             esql._principals.invalidate(authorizedUser);
+             out().println("Successfully updated password!");
           } catch (SQLException e) {
-             System.out.println("Error updating password: " + e.getMessage());
+             out().println("Error updating password: " + e.getMessage());
+          } catch (RejectedExecutionException e) {
+             out().println("Too many users are changing passwords right now, please try again later.");
           }
-          System.out.println("Successfully updated password!");
        }
  
        response = getYNInput("Would you like to update your phone number");
        if (response.trim().equals("y")) {
           phoneNumInput = getStringInput("phone number", 20);
           try {
-             esql.executeUpdate("UPDATE Users SET phoneNum='" + phoneNumInput + "' WHERE login ='" + authorizedUser + "';");
+             esql.executeUpdate("UPDATE Users SET phoneNum=? WHERE login=?", phoneNumInput, authorizedUser);
           } catch (SQLException e) {
-             System.out.println("Error updating phone number: " + e.getMessage());
+             out().println("Error updating phone number: " + e.getMessage());
           }
-          System.out.println("Successfully updated phone number!");
+          out().println("Successfully updated phone number!");
        }
  
        response = getYNInput("Would you like to update your favorite items");
        if (response.trim().equals("y")) {
-          favoriteItemsInput = getStringInput("Please enter your favorite items: ");
-          try {
-             esql.executeUpdate("UPDATE Users SET favoriteItems='" + favoriteItemsInput + "' WHERE login ='" + authorizedUser + "';");
-          } catch (SQLException e) {
-             System.out.println("Error updating favorite items: " + e.getMessage());
+          Map<String, Integer> favorites = getFavoriteItemsInput(esql);
+          if (favorites != null) {
+             try {
+                setFavoriteItems(esql, authorizedUser, favorites);
+                out().println("Successfully updated favorite items!");
+             } catch (SQLException e) {
+                out().println("Error updating favorite items: " + e.getMessage());
+             }
           }
-          System.out.println("Successfully updated favorite items!");
        }
  
     }// end updateProfile
  
+    /*
+     * Asks for favorite items from the menu, each with the quantity usually
+     * ordered, until a blank item name.
+     * @return the favorites in the order given, or null if the menu could not be read
+     */
+    private static Map<String, Integer> getFavoriteItemsInput(PizzaStore esql) {
+       MenuCatalog menu;
+       try {
+          menu = esql.getMenu();
+       } catch (SQLException e) {
+          out().println("Error fetching menu item names: " + e.getMessage());
+          return null;
+       }
+       out().println("Your favorite items are replaced by the ones you enter now.");
+       Map<String, Integer> favorites = new LinkedHashMap<>();
+       do {
+          String itemInput = getStringInput("Please enter a favorite item (blank to finish): ");
+          if (itemInput.isEmpty())
+             return favorites;
+          if (menu.get(itemInput) == null) {
+             out().println("Item " + itemInput + " does not exist!");
+             continue;
+          }
+          favorites.put(itemInput, getIntInput("Please enter the quantity of " + itemInput + " you usually order: "));
+       } while (true);
+    }//end getFavoriteItemsInput
+ 
+    /*
+     * Replaces a user's favorite items in one transaction.
+     */
+    static void setFavoriteItems(PizzaStore esql, String login, Map<String, Integer> favorites) throws SQLException {
+       esql.executeInTransactionWithRetry(() -> {
+          esql.executeUpdate("DELETE FROM FavoriteItems WHERE login=?", login);
+          List<Object[]> rows = new ArrayList<>(favorites.size());
+          for (Map.Entry<String, Integer> entry : favorites.entrySet())
+             rows.add(new Object[] { login, entry.getKey(), entry.getValue() });
+          if (!rows.isEmpty())
+             esql.executeBatch("INSERT INTO FavoriteItems (login, itemName, quantity) VALUES (?, ?, ?)", rows);
+          return null;
+       });
+    }//end setFavoriteItems
+ 
+    // column headings of the menu listing
+    private static final String[] MENU_COLUMNS = { "Type", "Item", "Price", "Description", "Ingredients" };
+ 
     /*
      * Show menu
      */
     public static void viewMenu(PizzaStore esql) {
        try {
           while (true) {
-             System.out.println("\nPlease select the type of menu you would like to see:");
-             System.out.println("1. All items");
-             System.out.println("2. Entrees");
-             System.out.println("3. Sides");
-             System.out.println("4. Drinks");
-             System.out.println("5. Items under a certain price");
-             System.out.println("9. Quit");
-             String filter = "";
+             out().println("\nPlease select the type of menu you would like to see:");
+             out().println("1. All items");
+             out().println("2. Entrees");
+             out().println("3. Sides");
+             out().println("4. Drinks");
+             out().println("5. Items under a certain price");
+             out().println("9. Quit");
+             String type = null;
+             long maxCents = -1;
              switch (readChoice()){
                 case 1: break;
-                case 2: filter = " WHERE typeOfItem = 'entree'"; break;
-                case 3: filter = " WHERE typeOfItem = 'sides'"; break;
-                case 4: filter = " WHERE typeOfItem = 'drinks'"; break;
+                case 2: type = "entree"; break;
+                case 3: type = "sides"; break;
+                case 4: type = "drinks"; break;
                 case 5: 
                   double maxPrice = getMoneyInput("Please enter the maximum price: ");
-                  filter = " WHERE price <= " + maxPrice;
+                  maxCents = BigDecimal.valueOf(maxPrice).movePointRight(2).setScale(0, RoundingMode.FLOOR).longValue();
                   break;
                 case 9: return;
-                default: System.out.println("Unrecognized choice!"); continue;
+                default: out().println("Unrecognized choice!"); continue;
              }
  
-             String order = "";
-             System.out.println("\nIn what order would you like the menu?");
-             System.out.println("1. Default order");
-             System.out.println("2. Price (low to high)");
-             System.out.println("3. Price (high to low)");
-             switch (readChoice()) {
-                case 1: break;
-                case 2: order = " ORDER BY price ASC"; break;
-                case 3: order = " ORDER BY price DESC"; break;
-                default: System.out.println("Unrecognized choice!"); continue;
+             int order;
+             out().println("\nIn what order would you like the menu?");
+             out().println("1. Default order");
+             out().println("2. Price (low to high)");
+             out().println("3. Price (high to low)");
+             switch (order = readChoice()) {
+                case 1: case 2: case 3: break;
+                default: out().println("Unrecognized choice!"); continue;
              }
-             System.out.println(
+ 
+             // pick the precomputed view, then cut it at the price limit
+             MenuCatalog.View view = type == null ? esql.getMenu().all() : esql.getMenu().ofType(type);
+             List<MenuCatalog.Item> items;
+             if (order == 1) {
+                items = view.defaultOrder();
+                if (maxCents >= 0) {
+                   List<MenuCatalog.Item> affordable = new ArrayList<>();
+                   for (MenuCatalog.Item item : items)
+                      if (item.priceCents <= maxCents)
+                         affordable.add(item);
+                   items = affordable;
+                }
+             } else {
+                items = view.byPrice();
+                if (maxCents >= 0)
+                   items = items.subList(0, view.countAtMost(maxCents));
+                if (order == 3) {
+                   items = new ArrayList<>(items);
+                   Collections.reverse(items);
+                }
+             }
+ 
+             List<String[]> rows = new ArrayList<>(items.size());
+             for (MenuCatalog.Item item : items)
+                rows.add(new String[] { item.type, item.name, MenuCatalog.formatCents(item.priceCents), item.description, item.ingredients });
+             out().println(
            "\n*******************************************************\n" +
            "              Our Offerings         	               \n" +
            "*******************************************************");
-             int rowCount = esql.executeQueryAndPrintResult("SELECT typeOfItem as \"Type\", itemName AS \"Item\", price AS \"Price\", description AS \"Description\", ingredients AS \"Ingredients\" FROM Items" + filter + order + ";");
+             int rowCount = TablePrinter.print(MENU_COLUMNS, rows, out(), OUTPUT_FORMAT);
              if (rowCount == 0) {
-                System.out.println("No items found for the selected criteria!");
+                out().println("No items found for the selected criteria!");
              }
            }
        } catch (SQLException e) {
-          System.out.println("Error fetching menu items: " + e.getMessage());
+          out().println("Error fetching menu items: " + e.getMessage());
        }
     }
  
     public static int getIntInput(String prompt) {
        int input;
        do {
-          System.out.print(prompt);
+          out().print(prompt);
           try {
-             input = Integer.parseInt(in.readLine());
+             input = Integer.parseInt(readLine());
              if (input <= 0) {
-                System.out.println("Your input is invalid!");
+                out().println("Your input is invalid!");
                 continue;
              }
              break;
           }catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        }while (true);
@@ -761,66 +1587,81 @@
     public static double getMoneyInput(String prompt) {
        double input;
        do {
-          System.out.print(prompt);
+          out().print(prompt);
           try {
-             input = Double.parseDouble(in.readLine());
+             input = Double.parseDouble(readLine());
              if (input < 0) {
-                System.out.println("Amount cannot be negative!");
+                out().println("Amount cannot be negative!");
                 continue;
              }
              break;
           } catch (Exception e) {
-             System.out.println("Your input is invalid!");
+             out().println("Your input is invalid!");
              continue;
           }
        } while (true);
        return input;
     }
  
-    public static void placeOrder(PizzaStore esql, String authorizedUser) {
+    /*
+     * Asks for the store to order from until an existing one is given, with
+     * the option to search the stores first.
+     * @return the store ID, or null if the stores could not be read
+     */
+    private static Integer getStoreIDInput(PizzaStore esql) {
        int storeIDInput;
-       String itemInput = "";
-       int quantityInput;
-       List<List<String>> itemNames = new ArrayList<>();
-       String response = "";
-       Map<String, Integer> orderMap = new HashMap<>();
- 
-       // get store ID from user and check if store exists
        do {
-          storeIDInput = getIntInput("\nPlease enter the store ID that you want to order from: ");
+          String storeInput = getStringInput("\nPlease enter the store ID that you want to order from (s to search for a store): ");
+          if (storeInput.equals("s")) {
+             viewStores(esql);
+             continue;
+          }
           try {
-             if (esql.executeQuery("SELECT * FROM Store WHERE storeID=" + storeIDInput + ";") == 0) {
-                System.out.println("StoreID " + storeIDInput + " does not exist!");
+             storeIDInput = Integer.parseInt(storeInput);
+          } catch (NumberFormatException e) {
+             out().println("Your input is invalid!");
+             continue;
+          }
+          try {
+             if (esql.getStores().get(storeIDInput) == null) {
+                out().println("StoreID " + storeIDInput + " does not exist!");
                 continue;
              }
-             break;
+             return storeIDInput;
           } catch (SQLException e) {
-             System.out.println("Error fetching store IDs: " + e.getMessage());
-             return;
+             out().println("Error fetching store IDs: " + e.getMessage());
+             return null;
           }
        } while(true);
+    }//end getStoreIDInput
+ 
+    public static void placeOrder(PizzaStore esql, String authorizedUser) {
+       String itemInput = "";
+       int quantityInput;
+       MenuCatalog menu;
+       String response = "";
+       Map<String, Integer> orderMap = new HashMap<>();
+ 
+       // get store ID from user and check if store exists
+       Integer storeIDInput = getStoreIDInput(esql);
+       if (storeIDInput == null)
+          return;
  
-       // get all item names
+       // get the menu, so items are checked and priced without a query each
        try {
-          itemNames = esql.executeQueryAndReturnResult("SELECT itemName FROM Items;");
+          menu = esql.getMenu();
        } catch (SQLException e) {
-          System.out.println("Error fetching menu item names: " + e.getMessage());
+          out().println("Error fetching menu item names: " + e.getMessage());
+          return;
        }
  
        //  get user's order
        do {
           do {
              itemInput = getStringInput("\nPlease enter the name of the item you want to order : ");
-             boolean itemExists = false;
-             for (List<String> row : itemNames) {
-                if (row.get(0).trim().equals(itemInput)) {
-                   itemExists = true;
-                   break;
-                }
-             }
-             if (itemExists)
+             if (menu.get(itemInput) != null)
                 break;
-             System.out.println("Item " + itemInput + " does not exist!");
+             out().println("Item " + itemInput + " does not exist!");
           } while (true);
  
           quantityInput = getIntInput("Please enter the quantity of " + itemInput + " you want to order: ");
@@ -830,182 +1671,494 @@
        } while (response.trim().equals("y"));
  
        // calculate total order price
+       Map<String, Long> prices = new HashMap<>();
+       for (String itemName : orderMap.keySet())
+          prices.put(itemName, menu.get(itemName).priceCents);
+       long totalPriceInCents = printBasket("You ordered:", orderMap, prices);
+ 
+       // write the order and its items atomically
+       try {
+          int orderID = submitOrder(esql, authorizedUser, storeIDInput, orderMap, totalPriceInCents);
+          out().println("Your order ID is " + orderID);
+       } catch (SQLException e) {
+          out().println("Error placing order: " + e.getMessage());
+       }
+    }//end placeOrder
+ 
+    /*
+     * Lists the items of a basket with their unit prices and the total.
+     * @return the total price in cents
+     */
+    private static long printBasket(String heading, Map<String, Integer> basket, Map<String, Long> priceInCents) {
        long totalPriceInCents = 0;
-       System.out.println("\nYou ordered:");
-       for (Map.Entry<String, Integer> entry : orderMap.entrySet()) {
+       out().println("\n" + heading);
+       for (Map.Entry<String, Integer> entry : basket.entrySet()) {
           String itemName = entry.getKey();
           int quantity = entry.getValue();
-          try {
-             String itemPrice = esql.executeQueryAndReturnResult("SELECT price FROM Items WHERE itemName='" + itemName + "'").get(0).get(0);
-             System.out.println("Item: " + itemName + ", Quantity: " + quantity + ", Price: " + itemPrice);
-             totalPriceInCents += Math.round(Double.parseDouble(itemPrice) * 100) * quantity;
-          } catch (SQLException e) {
-             System.out.println("Error fetching " + itemName + "'s price: " + e.getMessage());
-             return;
+          long price = priceInCents.get(itemName);
+          out().println("Item: " + itemName + ", Quantity: " + quantity + ", Price: " + MenuCatalog.formatCents(price));
+          totalPriceInCents += price * quantity;
+       }
+       out().println("The total price is: $" + MenuCatalog.formatCents(totalPriceInCents));
+       return totalPriceInCents;
+    }//end printBasket
+ 
+    /*
+     * Writes an order and its line items in one transaction. Prices are read
+     * again inside the transaction, locked against concurrent menu updates,
+     * and the stored total is computed from them. A deadlock or a connection
+     * lost before the commit runs the whole transaction again. A total that
+     * differs from the one displayed is reported once the order committed.
+     * @return the new order ID
+     */
+    static int submitOrder(PizzaStore esql, String login, int storeID, Map<String, Integer> basket, long displayedTotalInCents) throws SQLException {
+       long[] placed = esql.executeInTransactionWithRetry(() -> {
+          // re-validate prices of every ordered item in one statement
+          List<List<String>> prices = esql.executeQueryAndReturnResult(
+             itemPricesQuery(basket.size()), paddedItemNames(basket));
+          Map<String, Long> priceInCents = new HashMap<>();
+          for (List<String> row : prices)
+             priceInCents.put(row.get(0).trim(), MenuCatalog.parseCents(row.get(1)));
+
+          long totalPriceInCents = 0;
+          for (Map.Entry<String, Integer> entry : basket.entrySet()) {
+             Long price = priceInCents.get(entry.getKey());
+             if (price == null)
+                throw new SQLException(entry.getKey() + " is no longer on the menu");
+             totalPriceInCents += price * entry.getValue();
+          }
+
+          // take the ID from a reserved block if enabled, otherwise from the column default
+          int orderID;
+          BigDecimal totalPrice = BigDecimal.valueOf(totalPriceInCents, 2);
+          if (esql._orderIds != null) {
+             orderID = esql._orderIds.next();
+             esql.executeUpdate("INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) VALUES (?, ?, ?, ?, NOW(), 'incomplete')",
+                orderID, login, storeID, totalPrice);
+          } else {
+             orderID = Integer.parseInt(esql.executeAndReturnResult(
+                "INSERT INTO FoodOrder (login, storeID, totalPrice, orderTimestamp, orderStatus) VALUES (?, ?, ?, NOW(), 'incomplete') RETURNING orderID",
+                login, storeID, totalPrice).get(0).get(0).trim());
           }
+
+          // send all line items in one batch
+          List<Object[]> lines = new ArrayList<>(basket.size());
+          for (Map.Entry<String, Integer> entry : basket.entrySet())
+             lines.add(new Object[] { orderID, entry.getKey(), entry.getValue() });
+          esql.executeBatch("INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES (?, ?, ?)", lines);
+          return new long[] { orderID, totalPriceInCents };
+       });
+       if (placed[1] != displayedTotalInCents)
+          out().println("Prices changed while ordering, the total charged is $" + MenuCatalog.formatCents(placed[1]));
+       return (int) placed[0];
+    }//end submitOrder
+
+    /*
+     * The price lookup of submitOrder() for up to `size` items. The IN list
+     * is padded to the next power of two, so baskets of every size share a
+     * handful of SQL texts in the statement cache and the query metrics
+     * instead of one each. (The bundled pg73 driver binds parameters on the
+     * client and has no array support for "= ANY(?)", so the padding only
+     * keeps those maps small; it saves no server-side parsing.)
+     */
+    private static String itemPricesQuery(int size) {
+       StringBuilder placeholders = new StringBuilder();
+       for (int i = 0; i < paddedSize(size); i++)
+          placeholders.append(i == 0 ? "?" : ", ?");
+       return "SELECT itemName, price FROM Items WHERE itemName IN (" + placeholders + ") FOR SHARE";
+    }//end itemPricesQuery
+
+    // the basket's item names, the first one repeated to fill itemPricesQuery()'s list
+    private static Object[] paddedItemNames(Map<String, Integer> basket) {
+       int size = basket.size();
+       int padded = paddedSize(size);
+       Object[] names = Arrays.copyOf(basket.keySet().toArray(), padded);
+       Arrays.fill(names, size, padded, names[0]);
+       return names;
+    }
+
+    // 1, 2, 4, 8, ...: the smallest power of two holding size items
+    private static int paddedSize(int size) {
+       return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+ 
+    // a basket with current prices in one query: the user's favorites, or their last order with its store
+    private static final String FAVORITES_BASKET =
+       "SELECT f.itemName, f.quantity, i.price, NULL FROM FavoriteItems f" +
+       " JOIN Items i ON i.itemName = f.itemName WHERE f.login=? ORDER BY f.itemName";
+    private static final String LAST_ORDER_BASKET =
+       "SELECT l.itemName, l.quantity, i.price, o.storeID" +
+       " FROM (SELECT orderID, storeID FROM FoodOrder WHERE login=? ORDER BY orderTimestamp DESC, orderID DESC LIMIT 1) o" +
+       " JOIN ItemsInOrder l ON l.orderID = o.orderID" +
+       " JOIN Items i ON i.itemName = l.itemName ORDER BY l.itemName";
+ 
+    /*
+     * Places an order in one step from the user's favorite items or from
+     * their last order, instead of entering it item by item. Items no longer
+     * on the menu are left out. The order is written by submitOrder, like
+     * any other.
+     */
+    public static void reorder(PizzaStore esql, String authorizedUser) {
+       out().println("\n1. Reorder my favorite items");
+       out().println("2. Reorder my last order");
+       out().println("9. Go back");
+       boolean favorites;
+       switch (readChoice()) {
+          case 1: favorites = true; break;
+          case 2: favorites = false; break;
+          case 9: return;
+          default: out().println("Unrecognized choice!"); return;
        }
-       System.out.println("The total price is: $" + (totalPriceInCents / 100) + "." + (totalPriceInCents % 100));
  
-       // add order to FoodOrder table
-       int orderID;
+       List<List<String>> rows;
        try {
-          orderID = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT orderID FROM FoodOrder ORDER BY orderID DESC LIMIT 1").get(0).get(0)) + 1;
-       } catch (Exception e) {
-          System.out.println("Error getting previous orderID from FoodOrder table: " + e.getMessage());
+          rows = esql.executeQueryAndReturnResult(favorites ? FAVORITES_BASKET : LAST_ORDER_BASKET, authorizedUser);
+       } catch (SQLException e) {
+          out().println("Error fetching your items: " + e.getMessage());
           return;
        }
-       try {
-          esql.executeUpdate("INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) VALUES ('" + orderID + "', '" + authorizedUser + "', '" + storeIDInput + "', '" + totalPriceInCents/100.0 + "', 'NOW()', 'incomplete');");
-       } catch (Exception e) {
-          System.out.println("Error pushing order to FoodOrder table: " + e.getMessage());
+       if (rows.isEmpty()) {
+          out().println(favorites ? "You have no favorite items on the menu, add them with Update Profile."
+                                  : "You have no past order with items on the menu.");
           return;
        }
  
-       // add order to ItemsInOrder table
-       for (Map.Entry<String, Integer> entry : orderMap.entrySet()) {
-          String itemName = entry.getKey();
-          int quantity = entry.getValue();
+       Map<String, Integer> basket = new LinkedHashMap<>();
+       Map<String, Long> prices = new HashMap<>();
+       for (List<String> row : rows) {
+          String itemName = row.get(0).trim();
+          basket.put(itemName, Integer.parseInt(row.get(1).trim()));
+          prices.put(itemName, MenuCatalog.parseCents(row.get(2)));
+       }
+       long totalPriceInCents = printBasket("Your order:", basket, prices);
+ 
+       // the last order's store is offered first, if it still exists
+       Integer storeID = null;
+       if (rows.get(0).get(3) != null) {
+          int lastStoreID = Integer.parseInt(rows.get(0).get(3).trim());
           try {
-             esql.executeUpdate("INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES ('" + orderID + "', '" + itemName + "', '" + quantity + "');");
+             if (esql.getStores().get(lastStoreID) != null
+                 && getYNInput("Order from store " + lastStoreID + " again").trim().equals("y"))
+                storeID = lastStoreID;
           } catch (SQLException e) {
-             System.out.println("Error pushing " + itemName + " into ItemsInOrder table: " + e.getMessage());
+             out().println("Error fetching store IDs: " + e.getMessage());
              return;
           }
        }
-    }//end placeOrder
+       if (storeID == null && (storeID = getStoreIDInput(esql)) == null)
+          return;
+       if (!getYNInput("Place this order").trim().equals("y"))
+          return;
  
-    public static void viewAllOrders(PizzaStore esql, String authorizedUser, String role) {
-      boolean canSeeAllOrders = role.trim().equals("manager") || role.trim().equals("driver");
-      String restriction = canSeeAllOrders ? "" : " WHERE login='" + authorizedUser + "'";
+       try {
+          int orderID = submitOrder(esql, authorizedUser, storeID, basket, totalPriceInCents);
+          out().println("Your order ID is " + orderID);
+       } catch (SQLException e) {
+          out().println("Error placing order: " + e.getMessage());
+       }
+    }//end reorder
+ 
+    public static void viewAllOrders(PizzaStore esql, Principal user) {
+      OrderHistory history = new OrderHistory(HISTORY_PAGE_SIZE);
+      if (!user.can(Principal.Permission.VIEW_ALL_ORDERS))
+         history.login(user.login);
 
-      try {
-         esql.executeQueryAndPrintResult("SELECT orderId FROM FoodOrder" + restriction + ";");
-      } catch (SQLException e) {
-         System.out.println("Error fetching order information: " + e.getMessage());
-         return;
+      if (getYNInput("Would you like to filter the orders").trim().equals("y")) {
+         String storeInput = getOptionalInput("Store ID (blank for any store): ", input -> Integer.parseInt(input));
+         if (storeInput != null)
+            history.store(Integer.parseInt(storeInput));
+         String statusInput = getOptionalInput("Status, one of " + ALL_STATUSES + " (blank for any status): ",
+            input -> { if (OrderStatus.parse(input) == null) throw new IllegalArgumentException(input); });
+         if (statusInput != null)
+            history.status(OrderStatus.parse(statusInput).label);
+         String fromInput = getOptionalInput("From date, YYYY-MM-DD (blank for no limit): ", input -> LocalDate.parse(input));
+         if (fromInput != null)
+            history.from(Timestamp.valueOf(LocalDate.parse(fromInput).atStartOfDay()));
+         String toInput = getOptionalInput("To date, YYYY-MM-DD (blank for no limit): ", input -> LocalDate.parse(input));
+         if (toInput != null)
+            history.until(Timestamp.valueOf(LocalDate.parse(toInput).plusDays(1).atStartOfDay()));
       }
-   }
-
-   public static void viewRecentOrders(PizzaStore esql, String authorizedUser, String role) {
-      boolean canSeeAllOrders = role.trim().equals("manager") || role.trim().equals("driver");
-      String restriction = canSeeAllOrders ? "" : " WHERE login='" + authorizedUser + "'";
 
+      // print one page at a time, only fetching the next page when asked
       try {
-         esql.executeQueryAndPrintResult("SELECT orderId FROM FoodOrder" + restriction + " ORDER BY orderTimestamp DESC LIMIT 5;");
+         int shown = 0;
+         while (true) {
+            List<String[]> page = esql.readFromReplicas(() -> history.nextPage(esql));
+            if (page.isEmpty()) {
+               if (shown == 0)
+                  out().println("No orders found!");
+               return;
+            }
+            TablePrinter.print(OrderHistory.COLUMNS, page, out(), OUTPUT_FORMAT);
+            shown += page.size();
+            if (history.isExhausted() || !getYNInput("Show the next " + HISTORY_PAGE_SIZE + " orders").trim().equals("y"))
+               return;
+         }
       } catch (SQLException e) {
-         System.out.println("Error fetching order information: " + e.getMessage());
+         out().println("Error fetching order information: " + e.getMessage());
          return;
       }
    }
 
-   public static void viewOrderInfo(PizzaStore esql, String authorizedUser, String role) {
-      boolean canSeeAllOrders = role.trim().equals("manager") || role.trim().equals("driver");
-      List<List<String>> orderIDs = new ArrayList<>();
-      String orderId;
-      boolean orderExists = false;
+   /*
+    * Interface for checking optional input
+    */
+   interface InputCheck {
+      void check(String input) throws Exception;
+   }
+
+   /*
+    * Prompts until the input is blank or passes the check
+    * @return the input, or null if it was left blank
+    */
+   public static String getOptionalInput(String prompt, InputCheck check) {
+      do {
+         String input = getStringInput(prompt);
+         if (input.isEmpty())
+            return null;
+         try {
+            check.check(input);
+            return input;
+         } catch (Exception e) {
+            out().println("Your input is invalid!");
+         }
+      } while (true);
+   }//end getOptionalInput
 
-      // get all orderIDs
+   public static void viewRecentOrders(PizzaStore esql, Principal user) {
       try {
-         orderIDs = esql.executeQueryAndReturnResult("SELECT orderID FROM FoodOrder");
+         if (user.can(Principal.Permission.VIEW_ALL_ORDERS))
+            esql.readFromReplicas(() -> esql.executeQueryAndPrintResult(
+               "SELECT orderId FROM FoodOrder ORDER BY orderTimestamp DESC LIMIT 5"));
+         else
+            esql.readFromReplicas(() -> esql.executeQueryAndPrintResult(
+               "SELECT orderId FROM FoodOrder WHERE login=? ORDER BY orderTimestamp DESC LIMIT 5", user.login));
       } catch (SQLException e) {
-         System.out.println("Error fetching orderIDs: " + e.getMessage());
+         out().println("Error fetching order information: " + e.getMessage());
          return;
       }
+   }
 
-      // get order ID input and check it it exists
-      do {
-         orderId = String.valueOf(getIntInput("Please enter the Order ID: "));
-         for (List<String> row : orderIDs) {
-            if (row.get(0).trim().equals(orderId)) {
-               orderExists = true;
-               break;
-            }
-         }
-         if (!orderExists) {
-            System.out.println("Order ID " + orderId + " does not exist!");
-            continue;
-         } else {
-            break;
-         }
-      } while (true);
-
+   public static void viewOrderInfo(PizzaStore esql, Principal user) {
+      OrderDetail order;
 
-      if (!canSeeAllOrders) {
+      // get order ID input and read the order with its items in one query
+      do {
+         int orderID = getIntInput("Please enter the Order ID: ");
          try {
-            int count = esql.executeQuery("SELECT * FROM FoodOrder WHERE orderId=" + orderId + " AND login='" + authorizedUser + "';");
-            System.out.println(count);
-            if (count == 0) {
-               System.out.println("You do not have access to this order.");
+            order = esql.readFromReplicas(() -> esql.getOrderDetail(orderID, user));
+            // only a miss needs telling apart "not yours" from "not there"
+            if (order == null && !user.can(Principal.Permission.VIEW_ALL_ORDERS) &&
+                esql.readFromReplicas(() -> esql.orderExists(orderID))) {
+               out().println("You do not have access to this order.");
                return;
             }
          } catch (SQLException e) {
-            System.out.println("Error checking order ownership: " + e.getMessage());
+            out().println("Error fetching order information: " + e.getMessage());
             return;
          }
-      }
+         if (order == null) {
+            out().println("Order ID " + orderID + " does not exist!");
+            continue;
+         }
+         break;
+      } while (true);
 
-      try {
-         esql.executeQueryAndPrintResult("SELECT orderId AS \"Order ID\", orderStatus AS \"Status\", orderTimestamp AS \"Order Timestamp\" FROM FoodOrder WHERE orderId=" + orderId + ";");
-         esql.executeQueryAndPrintResult("SELECT itemName AS \"Order Items\", quantity AS \"Quantity\" FROM ItemsInOrder WHERE orderId=" + orderId + ";");
-      } catch (SQLException e) {
-         System.out.println("Error fetching order information: " + e.getMessage());
-         return;
-      }
+      TablePrinter.print(OrderDetail.HEADER_COLUMNS, order.header(), out(), OUTPUT_FORMAT);
+      TablePrinter.print(OrderDetail.LINE_COLUMNS, order.lines, out(), OUTPUT_FORMAT);
    }
 
 
+    // column headings of a proximity search
+    private static final String[] NEARBY_COLUMNS = { "Store ID", "Address", "City", "State", "Open", "Review Score", "Distance (km)" };
+
+    /*
+     * Find stores by city and state, by distance, or list them all, from
+     * the in-memory store index
+     */
     public static void viewStores(PizzaStore esql) {
-       // display all stores
+       StoreDirectory stores;
        try {
-          esql.executeQueryAndPrintResult("SELECT * FROM Store");
+          stores = esql.getStores();
        } catch (SQLException e) {
-          System.out.println("Error fetching store information: " + e.getMessage());
+          out().println("Error fetching store information: " + e.getMessage());
           return;
        }
-    }
+
+       out().println("\nHow would you like to find a store?");
+       out().println("1. Search by city and state");
+       out().println("2. Stores near a location");
+       out().println("3. All stores");
+       out().println("9. Back");
+       List<String[]> rows = new ArrayList<>();
+       String[] columns = StoreDirectory.COLUMNS;
+       switch (readChoice()) {
+          case 1:
+             String city = getStringInput("City (blank for any city): ");
+             String state = getStringInput("State (blank for any state): ");
+             boolean openOnly = getYNInput("Only open stores").trim().equals("y");
+             for (StoreDirectory.Store store : stores.search(city, state, openOnly))
+                rows.add(store.toRow());
+             break;
+          case 2:
+             if (stores.locatedCount() == 0) {
+                out().println("No store locations are available.");
+                return;
+             }
+             double latitude = getCoordinateInput("Latitude: ", 90);
+             double longitude = getCoordinateInput("Longitude: ", 180);
+             int radius = getIntInput("Within how many km: ");
+             boolean openNearby = getYNInput("Only open stores").trim().equals("y");
+             for (StoreDirectory.Nearby nearby : stores.near(latitude, longitude, radius, openNearby)) {
+                String[] row = Arrays.copyOf(nearby.store.toRow(), NEARBY_COLUMNS.length);
+                row[NEARBY_COLUMNS.length - 1] = String.format("%.1f", nearby.distanceKm);
+                rows.add(row);
+             }
+             columns = NEARBY_COLUMNS;
+             break;
+          case 3:
+             for (StoreDirectory.Store store : stores.all())
+                rows.add(store.toRow());
+             break;
+          case 9: return;
+          default: out().println("Unrecognized choice!"); return;
+       }
+
+       if (rows.isEmpty()) {
+          out().println("No stores found!");
+          return;
+       }
+       // print one page at a time, the full list runs to thousands of lines
+       for (int from = 0; from < rows.size(); from += STORES_PAGE_SIZE) {
+          int to = Math.min(rows.size(), from + STORES_PAGE_SIZE);
+          TablePrinter.print(columns, rows.subList(from, to), out(), OUTPUT_FORMAT);
+          if (to == rows.size() || !getYNInput("Showing " + to + " of " + rows.size() + " stores. Show the next " + STORES_PAGE_SIZE).trim().equals("y"))
+             return;
+       }
+    }//end viewStores
+
+    public static double getCoordinateInput(String prompt, double limit) {
+       double input;
+       do {
+          out().print(prompt);
+          try {
+             input = Double.parseDouble(readLine());
+             if (input < -limit || input > limit) {
+                out().println("Your input is invalid!");
+                continue;
+             }
+             break;
+          } catch (Exception e) {
+             out().println("Your input is invalid!");
+             continue;
+          }
+       } while (true);
+       return input;
+    }//end getCoordinateInput
 
     public static void updateOrderStatus(PizzaStore esql) {
       String orderIDInput;
       String statusInput = "";
-      boolean orderExists = false;
-      List<List<String>> orderIDs = new ArrayList<>();
-
-      // get all orderIDs
-      try {
-         orderIDs = esql.executeQueryAndReturnResult("SELECT orderID FROM FoodOrder");
-      } catch (SQLException e) {
-         System.out.println("Error fetching orderIDs: " + e.getMessage());
-         return;
-      }
 
       // get order ID input and check it it exists
       do {
          orderIDInput = String.valueOf(getIntInput("Please enter the Order ID for the order you want to update: "));
-         for (List<String> row : orderIDs) {
-            if (row.get(0).trim().equals(orderIDInput)) {
-               orderExists = true;
-               break;
+         try {
+            if (!esql.orderExists(Integer.parseInt(orderIDInput))) {
+               out().println("Order ID " + orderIDInput + " does not exist!");
+               continue;
             }
-         }
-         if (!orderExists) {
-            System.out.println("Order ID " + orderIDInput + " does not exist!");
-            continue;
-         } else {
             break;
+         } catch (SQLException e) {
+            out().println("Error fetching orderIDs: " + e.getMessage());
+            return;
          }
+      } while (true);
 
+      // get order status, which must be one of the known values
+      OrderStatus status;
+      do {
+         statusInput = getStringInput("Please enter the status you want to change the order to (" + STATUS_CHOICES + "): ");
+         status = OrderStatus.parse(statusInput);
+         if (status != null && !status.previousLabels().isEmpty())
+            break;
+         out().println("Your input is invalid!");
       } while (true);
 
-      // get order status and change order status
-      statusInput = getStringInput("Please enter the status you want to change the order to: ");
+      // change order status, checking the current status in the same
+      // statement so that two drivers cannot both move it on
       try {
-         esql.executeUpdate("UPDATE FoodOrder SET orderStatus ='" + statusInput + "' WHERE orderID=" + orderIDInput + ";");
+         List<String> from = status.previousLabels();
+         List<Object> params = new ArrayList<>();
+         params.add(status.label);
+         params.add(Integer.parseInt(orderIDInput));
+         StringBuilder sql = new StringBuilder("UPDATE FoodOrder SET orderStatus=? WHERE orderID=? AND orderStatus IN (");
+         for (int i = 0; i < from.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+            params.add(from.get(i));
+         }
+         sql.append(")");
+         if (esql.executeUpdate(sql.toString(), params.toArray()) == 0) {
+            List<List<String>> current = esql.executeQueryAndReturnResult("SELECT orderStatus FROM FoodOrder WHERE orderID=?", Integer.parseInt(orderIDInput));
+            if (current.isEmpty())
+               out().println("Order ID " + orderIDInput + " does not exist!");
+            else
+               out().println("Order ID " + orderIDInput + " is " + current.get(0).get(0).trim() + " and cannot become " + status + "!");
+         }
       } catch (SQLException e) {
-         System.out.println("Error updating order status: " + e.getMessage());
+         out().println("Error updating order status: " + e.getMessage());
          return;
       }
     }
 
+    // statuses an order can be changed to, for the prompt
+    private static final String STATUS_CHOICES = String.join(", ", Arrays.stream(OrderStatus.values())
+       .filter(s -> !s.previousLabels().isEmpty()).map(s -> s.label).toArray(String[]::new));
+
+    // every status, offered by the order history filter
+    private static final String ALL_STATUSES = String.join(", ", Arrays.stream(OrderStatus.values())
+       .map(s -> s.label).toArray(String[]::new));
+
+    /*
+     * Sales reports for managers, read from the incrementally maintained
+     * summary tables
+     */
+    public static void viewSalesReports(PizzaStore esql) {
+       SalesReports reports = new SalesReports(esql);
+       out().println("\nWhich report would you like to see?");
+       out().println("1. Revenue per day");
+       out().println("2. Top items by quantity");
+       out().println("3. Average order value");
+       out().println("4. Hourly demand");
+       out().println("9. Back");
+       int choice = readChoice();
+       if (choice == 9)
+          return;
+       if (choice < 1 || choice > 4) {
+          out().println("Unrecognized choice!");
+          return;
+       }
+
+       Integer storeID = null;
+       String storeInput = getOptionalInput("Store ID (blank for all stores): ", input -> Integer.parseInt(input));
+       if (storeInput != null)
+          storeID = Integer.parseInt(storeInput);
+       LocalDate from = null;
+       if (choice != 4)
+          from = LocalDate.now().minusDays(getIntInput("For how many days back: ") - 1);
+
+       try {
+          switch (choice) {
+             case 1: TablePrinter.print(SalesReports.REVENUE_COLUMNS, reports.revenueByDay(storeID, from), out(), OUTPUT_FORMAT); break;
+             case 2: TablePrinter.print(SalesReports.TOP_ITEMS_COLUMNS, reports.topItems(storeID, from, 10), out(), OUTPUT_FORMAT); break;
+             case 3: TablePrinter.print(SalesReports.AVERAGE_COLUMNS, reports.averageOrderValue(storeID, from), out(), OUTPUT_FORMAT); break;
+             case 4: TablePrinter.print(SalesReports.HOURLY_COLUMNS, reports.hourlyDemand(storeID), out(), OUTPUT_FORMAT); break;
+          }
+       } catch (SQLException e) {
+          out().println("Error fetching sales report: " + e.getMessage());
+       }
+    }//end viewSalesReports
+
     public static void updateMenu(PizzaStore esql) {}
     public static void updateUser(PizzaStore esql) {}
  
@@ -0,0 +1,87 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ /**
+  * This class is the identity of a logged in user for the length of a
+  * session: the login, the role parsed once from the padded Users.role
+  * column, and the permissions that role grants as a bitset.
+  */
+ public final class Principal {
+
+    /**
+     * Something only some roles may do
+     */
+    public enum Permission {
+       VIEW_ALL_ORDERS, UPDATE_ORDER_STATUS, UPDATE_MENU, UPDATE_USER, VIEW_REPORTS;
+
+       final int bit = 1 << ordinal();
+    }
+
+    /**
+     * The roles stored in Users.role, with the permissions each grants
+     */
+    public enum Role {
+       CUSTOMER(),
+       DRIVER(Permission.VIEW_ALL_ORDERS, Permission.UPDATE_ORDER_STATUS),
+       MANAGER(Permission.VIEW_ALL_ORDERS, Permission.UPDATE_ORDER_STATUS,
+               Permission.UPDATE_MENU, Permission.UPDATE_USER, Permission.VIEW_REPORTS);
+
+       final int permissions;
+
+       Role(Permission... granted) {
+          int bits = 0;
+          for (Permission p : granted)
+             bits |= p.bit;
+          this.permissions = bits;
+       }
+
+       /**
+        * @return the role named by a Users.role value; unknown roles get
+        *         the fewest permissions
+        */
+       public static Role parse(String value) {
+          try {
+             return Role.valueOf(value.trim().toUpperCase());
+          } catch (IllegalArgumentException | NullPointerException e) {
+             return CUSTOMER;
+          }
+       }
+
+       @Override
+       public String toString() {
+          return name().toLowerCase();
+       }
+    }//end Role
+
+    public final String login;
+    public final Role role;
+    private final int _permissions;
+
+    public Principal(String login, Role role) {
+       this.login = login;
+       this.role = role;
+       this._permissions = role.permissions;
+    }//end Principal
+
+    /**
+     * @return true if this user's role grants the permission
+     */
+    public boolean can(Permission permission) {
+       return (this._permissions & permission.bit) != 0;
+    }
+
+    @Override
+    public String toString() {
+       return this.login + " (" + this.role + ")";
+    }
+ }//end Principal
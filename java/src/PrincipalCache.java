@@ -0,0 +1,171 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.security.MessageDigest;
+ import java.util.Iterator;
+ import java.util.Map;
+ import java.util.concurrent.ConcurrentHashMap;
+ import java.util.concurrent.atomic.AtomicLong;
+
+ /**
+  * This class remembers the Users row behind recent logins, shared by all
+  * sessions, so that logging in again within the time-to-live does not
+  * query the database. Entries are dropped when they expire, when the
+  * user changes their credentials, and oldest-first once the cache is full.
+  *
+  * An entry also remembers a fingerprint of the password that last logged
+  * in, see PasswordHasher.fingerprint(), so that the same password within
+  * the time-to-live is accepted without hashing it again.
+  *
+  * Entries are only dropped by invalidate() calls in this JVM. A password
+  * or role changed by another process or by SQL directly goes unnoticed
+  * until the entry expires, so the old password keeps working until then.
+  *
+  * A login reads its row before asking for the password and puts it here
+  * afterwards. Every entry carries the generation() current when its row
+  * was read, and put() refuses entries older than the last invalidate(),
+  * so a row read before a password change is not cached again.
+  */
+ public class PrincipalCache {
+
+    /**
+     * What a login needs from Users: the principal and the stored password
+     * hash, plus the fingerprint of the password last verified against it.
+     */
+    public static final class Entry {
+       public final Principal principal;
+       final String password;
+       final long loadedAt;
+       final long generation;
+       private final byte[] _verified;
+
+       /**
+        * @param generation the cache's generation() taken before the row
+        *        was read
+        */
+       public Entry(Principal principal, String password, long generation) {
+          this(principal, password, System.currentTimeMillis(), generation, null);
+       }
+
+       private Entry(Principal principal, String password, long loadedAt, long generation, byte[] verified) {
+          this.principal = principal;
+          this.password = password;
+          this.loadedAt = loadedAt;
+          this.generation = generation;
+          this._verified = verified;
+       }
+
+       /**
+        * @return true if this fingerprint was verified against the stored
+        *         password before
+        */
+       public boolean wasVerified(byte[] fingerprint) {
+          return this._verified != null && MessageDigest.isEqual(this._verified, fingerprint);
+       }
+
+       /**
+        * @return this entry remembering a fingerprint that was just
+        *         verified; it expires with the row it was checked against
+        */
+       public Entry verified(byte[] fingerprint) {
+          return new Entry(this.principal, this.password, this.loadedAt, this.generation, fingerprint);
+       }
+    }//end Entry
+
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private final long _ttlMs;
+    private final int _maxEntries;
+
+    // bumped by every invalidate(), see put()
+    private final AtomicLong _generation = new AtomicLong();
+
+    /**
+     * Creates a new cache
+     *
+     * @param ttlMs how long an entry is trusted, 0 disables the cache
+     * @param maxEntries the most logins remembered at once
+     */
+    public PrincipalCache(long ttlMs, int maxEntries) {
+       this._ttlMs = ttlMs;
+       this._maxEntries = maxEntries;
+    }//end PrincipalCache
+
+    /**
+     * @return the unexpired entry for a login, or null
+     */
+    public Entry get(String login) {
+       Entry entry = this._entries.get(login);
+       if (entry == null)
+          return null;
+       if (System.currentTimeMillis() - entry.loadedAt >= this._ttlMs) {
+          this._entries.remove(login, entry);
+          return null;
+       }
+       return entry;
+    }//end get
+
+    /**
+     * @return the generation to give an Entry whose row is about to be read
+     */
+    public long generation() {
+       return this._generation.get();
+    }
+
+    /**
+     * Remembers the entry, unless a login was invalidated since its row was
+     * read. The generation is checked again after the entry went in, in
+     * case an invalidate() ran in between.
+     */
+    public void put(Entry entry) {
+       if (this._ttlMs <= 0 || entry.generation != this._generation.get())
+          return;
+       if (this._entries.size() >= this._maxEntries)
+          evict();
+       this._entries.put(entry.principal.login, entry);
+       if (entry.generation != this._generation.get())
+          this._entries.remove(entry.principal.login, entry);
+    }//end put
+
+    /**
+     * Forgets a login whose password or role changed. Call it after the
+     * change committed.
+     */
+    public void invalidate(String login) {
+       this._generation.incrementAndGet();
+       this._entries.remove(login);
+    }
+
+    public int size() {
+       return this._entries.size();
+    }
+
+    /*
+     * Drops expired entries, then the oldest ones until there is room.
+     */
+    private void evict() {
+       long now = System.currentTimeMillis();
+       long oldest = Long.MAX_VALUE;
+       for (Iterator<Map.Entry<String, Entry>> it = this._entries.entrySet().iterator(); it.hasNext(); ) {
+          long loadedAt = it.next().getValue().loadedAt;
+          if (now - loadedAt >= this._ttlMs)
+             it.remove();
+          else
+             oldest = Math.min(oldest, loadedAt);
+       }
+       // still full: drop the older half of the remaining window
+       if (this._entries.size() >= this._maxEntries) {
+          long cutoff = oldest + (now - oldest) / 2;
+          this._entries.values().removeIf(e -> e.loadedAt <= cutoff);
+       }
+    }//end evict
+ }//end PrincipalCache
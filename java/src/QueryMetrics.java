@@ -0,0 +1,433 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.IOException;
+ import java.io.OutputStream;
+ import java.math.BigDecimal;
+ import java.net.InetSocketAddress;
+ import java.nio.charset.StandardCharsets;
+ import java.util.List;
+ import java.util.Map;
+ import java.util.TreeMap;
+ import java.util.concurrent.ConcurrentHashMap;
+ import java.util.concurrent.atomic.AtomicLongArray;
+ import java.util.concurrent.atomic.LongAdder;
+
+ import com.sun.net.httpserver.HttpServer;
+
+ import jdk.jfr.Category;
+ import jdk.jfr.Description;
+ import jdk.jfr.Event;
+ import jdk.jfr.Label;
+ import jdk.jfr.Name;
+ import jdk.jfr.StackTrace;
+
+ /**
+  * This class times every database call PizzaStore makes. Calls are keyed
+  * by their SQL text, which is the query template since parameters are
+  * always bound, and each template keeps a latency histogram, a row count
+  * and an error count. Menu handlers run inside a Span, which records the
+  * handler's own duration and how much of it was spent in the database.
+  *
+  * Recording takes a few atomic increments and no locks, well under a
+  * microsecond per call. Metrics are served in the Prometheus text format
+  * on a local HTTP port when -Dpizzastore.metrics.port is set, and every
+  * call and span is also a JFR event (pizzastore.Query, pizzastore.Handler)
+  * that shows up in any flight recording.
+  */
+ public class QueryMetrics {
+
+    // most distinct templates tracked; further ones are counted together as "other"
+    static final int MAX_TEMPLATES = Integer.getInteger("pizzastore.metrics.maxTemplates", 1000);
+
+    // bucket bounds of the exported histograms, in nanoseconds
+    private static final long[] EXPORT_BOUNDS = {
+       50_000L, 100_000L, 250_000L, 500_000L, 1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L,
+       25_000_000L, 50_000_000L, 100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L,
+       2_500_000_000L, 5_000_000_000L, 10_000_000_000L };
+
+    private static final double[] EXPORT_QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /**
+     * Latency histogram with log-linear buckets, like HdrHistogram: every
+     * power of two is split into 16 buckets, so recorded values are kept
+     * within 1/16 of their size at any magnitude. Safe for concurrent use
+     * without locking.
+     */
+    static final class Histogram {
+       private static final int SUB_BITS = 4;
+       private static final int SUB = 1 << SUB_BITS;
+       private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+       private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+       private final LongAdder _sum = new LongAdder();
+
+       static int index(long value) {
+          if (value < SUB)
+             return (int) Math.max(value, 0);
+          int exponent = 63 - Long.numberOfLeadingZeros(value);
+          return (exponent - SUB_BITS + 1) * SUB + (int) ((value >>> (exponent - SUB_BITS)) & (SUB - 1));
+       }
+
+       // the largest value counted in bucket i
+       static long upperBound(int i) {
+          if (i < SUB)
+             return i;
+          int shift = i / SUB - 1;
+          return ((long) (SUB + i % SUB + 1) << shift) - 1;
+       }
+
+       void record(long nanos) {
+          this._counts.incrementAndGet(index(nanos));
+          this._sum.add(nanos);
+       }
+
+       long[] snapshot() {
+          long[] counts = new long[BUCKETS];
+          for (int i = 0; i < BUCKETS; i++)
+             counts[i] = this._counts.get(i);
+          return counts;
+       }
+
+       long sum() {
+          return this._sum.sum();
+       }
+
+       static long count(long[] counts) {
+          long total = 0;
+          for (long c : counts)
+             total += c;
+          return total;
+       }
+
+       /**
+        * @return the upper bound of the bucket holding the p-th value
+        */
+       static long percentile(long[] counts, double p) {
+          long total = count(counts);
+          if (total == 0)
+             return 0;
+          long rank = Math.max(1, (long) Math.ceil(p * total));
+          long seen = 0;
+          for (int i = 0; i < counts.length; i++) {
+             seen += counts[i];
+             if (seen >= rank)
+                return upperBound(i);
+          }
+          return upperBound(counts.length - 1);
+       }
+    }//end Histogram
+
+    /**
+     * What is known about one query template
+     */
+    static final class QueryStat {
+       final String label;
+       final Histogram latency = new Histogram();
+       final LongAdder rows = new LongAdder();
+       final LongAdder errors = new LongAdder();
+
+       QueryStat(String label) {
+          this.label = label;
+       }
+    }
+
+    /**
+     * What is known about one menu handler
+     */
+    static final class HandlerStat {
+       final Histogram latency = new Histogram();
+       final LongAdder dbNanos = new LongAdder();
+       final LongAdder queries = new LongAdder();
+    }
+
+    /**
+     * A database call, as a JFR event
+     */
+    @Name("pizzastore.Query")
+    @Label("Database Call")
+    @Category("PizzaStore")
+    @Description("One call through the PizzaStore executor, including the wait for a pooled connection")
+    @StackTrace(false)
+    static final class QueryEvent extends Event {
+       @Label("SQL")
+       String sql;
+
+       @Label("Handler")
+       String handler;
+
+       @Label("Rows")
+       long rows;
+
+       @Label("Failed")
+       boolean failed;
+    }
+
+    /**
+     * A menu handler run, as a JFR event
+     */
+    @Name("pizzastore.Handler")
+    @Label("Menu Handler")
+    @Category("PizzaStore")
+    @StackTrace(false)
+    static final class HandlerEvent extends Event {
+       @Label("Handler")
+       String handler;
+
+       @Label("Database Calls")
+       long queries;
+    }
+
+    /**
+     * The run of one menu handler on the current thread, closed when the
+     * handler returns. Database calls made meanwhile are charged to it.
+     */
+    public final class Span implements AutoCloseable {
+       private final String _handler;
+       private final Span _parent;
+       private final long _start;
+       private final HandlerEvent _event;
+       private long _dbNanos = 0;
+       private long _queries = 0;
+
+       Span(String handler, Span parent) {
+          this._handler = handler;
+          this._parent = parent;
+          this._event = new HandlerEvent();
+          this._event.begin();
+          this._start = System.nanoTime();
+       }
+
+       @Override
+       public void close() {
+          long elapsed = System.nanoTime() - this._start;
+          QueryMetrics.this._current.set(this._parent);
+          HandlerStat stat = QueryMetrics.this._handlers.computeIfAbsent(this._handler, h -> new HandlerStat());
+          stat.latency.record(elapsed);
+          stat.dbNanos.add(this._dbNanos);
+          stat.queries.add(this._queries);
+          if (this._event.shouldCommit()) {
+             this._event.handler = this._handler;
+             this._event.queries = this._queries;
+             this._event.commit();
+          }
+       }
+    }//end Span
+
+    private final ConcurrentHashMap<String, QueryStat> _queries = new ConcurrentHashMap<String, QueryStat>();
+    private final QueryStat _other = new QueryStat("other");
+    private final ConcurrentHashMap<String, HandlerStat> _handlers = new ConcurrentHashMap<String, HandlerStat>();
+    private final ThreadLocal<Span> _current = new ThreadLocal<Span>();
+
+    private HttpServer _server = null;
+
+    /**
+     * Starts a span for a menu handler on the current thread.
+     *
+     * @param handler the handler's name, e.g. placeOrder
+     * @return the span, to close when the handler returns
+     */
+    public Span span(String handler) {
+       Span span = new Span(handler, this._current.get());
+       this._current.set(span);
+       return span;
+    }//end span
+
+    /**
+     * Starts the JFR event of a database call; pass it to record().
+     */
+    static QueryEvent begin() {
+       QueryEvent event = new QueryEvent();
+       event.begin();
+       return event;
+    }
+
+    /**
+     * Records one database call.
+     *
+     * @param sql the statement's SQL text
+     * @param nanos how long the call took
+     * @param result what the call returned, used to count rows
+     * @param failed true if the call threw
+     * @param event the call's event from begin()
+     */
+    void record(String sql, long nanos, Object result, boolean failed, QueryEvent event) {
+       QueryStat stat = this._queries.get(sql);
+       if (stat == null)
+          stat = this._queries.size() < MAX_TEMPLATES
+             ? this._queries.computeIfAbsent(sql, s -> new QueryStat(s.replaceAll("\\s+", " ").trim()))
+             : this._other;
+       long rows = rows(result);
+       stat.latency.record(nanos);
+       stat.rows.add(rows);
+       if (failed)
+          stat.errors.increment();
+
+       Span span = this._current.get();
+       if (span != null) {
+          span._dbNanos += nanos;
+          span._queries++;
+       }
+       if (event.shouldCommit()) {
+          event.sql = stat.label;
+          event.handler = span == null ? null : span._handler;
+          event.rows = rows;
+          event.failed = failed;
+          event.commit();
+       }
+    }//end record
+
+    /**
+     * @return the handler of the span open on the current thread, or null
+     */
+    public String currentHandler() {
+       Span span = this._current.get();
+       return span == null ? null : span._handler;
+    }
+
+    /*
+     * Rows returned or changed, from what the executor methods return.
+     */
+    static long rows(Object result) {
+       if (result instanceof Number)
+          return ((Number) result).longValue();
+       if (result instanceof List)
+          return ((List<?>) result).size();
+       if (result instanceof int[]) {
+          long rows = 0;
+          for (int count : (int[]) result)
+             rows += Math.max(count, 0);
+          return rows;
+       }
+       return 0;
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public String prometheus() {
+       StringBuilder out = new StringBuilder(16384);
+       Map<String, QueryStat> queries = new TreeMap<String, QueryStat>();
+       for (QueryStat stat : this._queries.values())
+          queries.put(stat.label, stat);
+       if (Histogram.count(this._other.latency.snapshot()) > 0)
+          queries.put(this._other.label, this._other);
+
+       type(out, "pizzastore_query_seconds", "histogram",
+            "Time per database call by query template, including the wait for a pooled connection.");
+       for (QueryStat stat : queries.values())
+          histogram(out, "pizzastore_query_seconds", "query", stat.label, stat.latency);
+       type(out, "pizzastore_query_quantile_seconds", "gauge",
+            "Latency percentiles per query template since startup, within 1/16 of the true value.");
+       for (QueryStat stat : queries.values())
+          quantiles(out, "pizzastore_query_quantile_seconds", "query", stat.label, stat.latency);
+       type(out, "pizzastore_query_rows_total", "counter", "Rows returned or changed per query template.");
+       for (QueryStat stat : queries.values())
+          sample(out, "pizzastore_query_rows_total", "query", stat.label, null, String.valueOf(stat.rows.sum()));
+       type(out, "pizzastore_query_errors_total", "counter", "Failed calls per query template.");
+       for (QueryStat stat : queries.values())
+          sample(out, "pizzastore_query_errors_total", "query", stat.label, null, String.valueOf(stat.errors.sum()));
+
+       Map<String, HandlerStat> handlers = new TreeMap<String, HandlerStat>(this._handlers);
+       type(out, "pizzastore_handler_seconds", "histogram",
+            "Time per menu handler run, including the time spent waiting for input.");
+       for (Map.Entry<String, HandlerStat> entry : handlers.entrySet())
+          histogram(out, "pizzastore_handler_seconds", "handler", entry.getKey(), entry.getValue().latency);
+       type(out, "pizzastore_handler_db_seconds_total", "counter", "Time menu handlers spent in database calls.");
+       for (Map.Entry<String, HandlerStat> entry : handlers.entrySet())
+          sample(out, "pizzastore_handler_db_seconds_total", "handler", entry.getKey(), null,
+                 seconds(entry.getValue().dbNanos.sum()));
+       type(out, "pizzastore_handler_queries_total", "counter", "Database calls made by menu handlers.");
+       for (Map.Entry<String, HandlerStat> entry : handlers.entrySet())
+          sample(out, "pizzastore_handler_queries_total", "handler", entry.getKey(), null,
+                 String.valueOf(entry.getValue().queries.sum()));
+       return out.toString();
+    }//end prometheus
+
+    private static void type(StringBuilder out, String name, String type, String help) {
+       out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+       out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String label, String value, Histogram histogram) {
+       long[] counts = histogram.snapshot();
+       long cumulative = 0;
+       int i = 0;
+       for (long bound : EXPORT_BOUNDS) {
+          for (; i < counts.length && Histogram.upperBound(i) <= bound; i++)
+             cumulative += counts[i];
+          sample(out, name + "_bucket", label, value, "le=\"" + seconds(bound) + "\"", String.valueOf(cumulative));
+       }
+       long total = Histogram.count(counts);
+       sample(out, name + "_bucket", label, value, "le=\"+Inf\"", String.valueOf(total));
+       sample(out, name + "_sum", label, value, null, seconds(histogram.sum()));
+       sample(out, name + "_count", label, value, null, String.valueOf(total));
+    }
+
+    private static void quantiles(StringBuilder out, String name, String label, String value, Histogram histogram) {
+       long[] counts = histogram.snapshot();
+       for (double q : EXPORT_QUANTILES)
+          sample(out, name, label, value, "quantile=\"" + q + "\"", seconds(Histogram.percentile(counts, q)));
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, String extra, String sample) {
+       out.append(name).append('{').append(label).append("=\"");
+       for (int i = 0; i < value.length(); i++) {
+          char c = value.charAt(i);
+          if (c == '\\' || c == '"')
+             out.append('\\').append(c);
+          else if (c == '\n')
+             out.append("\\n");
+          else
+             out.append(c);
+       }
+       out.append('"');
+       if (extra != null)
+          out.append(',').append(extra);
+       out.append("} ").append(sample).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+       return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Serves prometheus() at /metrics until close().
+     *
+     * @param host the address to listen on, normally 127.0.0.1
+     * @param port the TCP port to listen on
+     * @throws java.io.IOException when the port cannot be opened
+     */
+    public synchronized void serve(String host, int port) throws IOException {
+       HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+       server.createContext("/metrics", exchange -> {
+          byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+             out.write(body);
+          }
+       });
+       server.start();
+       this._server = server;
+    }//end serve
+
+    /**
+     * Stops serving metrics.
+     */
+    public synchronized void close() {
+       if (this._server != null)
+          this._server.stop(0);
+       this._server = null;
+    }
+ }//end QueryMetrics
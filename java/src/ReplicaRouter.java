@@ -0,0 +1,252 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.ResultSet;
+ import java.sql.SQLException;
+ import java.sql.Statement;
+ import java.util.ArrayList;
+ import java.util.List;
+ import java.util.concurrent.Executors;
+ import java.util.concurrent.ScheduledExecutorService;
+ import java.util.concurrent.TimeUnit;
+ import java.util.concurrent.atomic.AtomicInteger;
+ import java.util.concurrent.atomic.LongAdder;
+
+ /**
+  * This class picks a streaming replica for read-only statements, or the
+  * primary when no replica is fresh enough.
+  *
+  * A background check reads the primary's WAL position, then every
+  * replica's replay position. A replica that has replayed up to a primary
+  * position read at time t holds every transaction committed before t;
+  * that time is its freshness. A read goes to a replica only if
+  *
+  *  - the replica answered the last check,
+  *  - its freshness is within the maximum lag, and
+  *  - its freshness is after the session's last write, so a session sees
+  *    its own orders right after placing them.
+  *
+  * Replicas that qualify take reads in turn; when none does the read goes
+  * to the primary. Replicas are connected lazily through pools of their
+  * own, and one whose connection fails is skipped until the next check
+  * finds it working. Needs Postgres 10 or newer (pg_current_wal_lsn).
+  */
+ public class ReplicaRouter {
+
+    // how often replication positions are read, -Dpizzastore.replicas.checkMs
+    static final long CHECK_MS = Long.getLong("pizzastore.replicas.checkMs", 250);
+
+    // oldest data a replica may serve, -Dpizzastore.replicas.maxLagMs
+    static final long MAX_LAG_MS = Long.getLong("pizzastore.replicas.maxLagMs", 5000);
+
+    // primary positions remembered, enough for the maximum lag at the check interval
+    static final int SAMPLES = 256;
+
+    /**
+     * One replica with its connections and replication state
+     */
+    public static final class Replica {
+       final String url;
+       final ConnectionPool pool;
+       final LongAdder reads = new LongAdder();
+
+       // when the primary was at a position this replica has replayed, in ns
+       volatile long freshAsOf = Long.MIN_VALUE;
+       volatile boolean down = true;
+       volatile String problem = "not checked yet";
+
+       Replica(String url, ConnectionPool pool) {
+          this.url = url;
+          this.pool = pool;
+       }
+
+       public ConnectionPool pool() {
+          return this.pool;
+       }
+    }//end Replica
+
+    private final ConnectionPool _primary;
+    private final Replica[] _replicas;
+    private final long _maxLagNanos;
+    private final AtomicInteger _next = new AtomicInteger();
+    private final LongAdder _primaryReads = new LongAdder();
+    private final ScheduledExecutorService _checker;
+
+    // primary WAL positions and when they were read, a ring buffer used by the checker only
+    private final long[] _sampleLsn = new long[SAMPLES];
+    private final long[] _sampleAt = new long[SAMPLES];
+    private int _samples = 0;
+
+    /**
+     * Creates a router and starts checking the replicas
+     *
+     * @param primary the pool of the primary
+     * @param urls the JDBC URLs of the replicas
+     * @param user the user name used to login to the replicas
+     * @param passwd the user login password
+     * @param config pool settings for each replica; connections are opened on demand
+     * @param checkMs how often replication positions are read
+     * @param maxLagMs oldest data a replica may serve
+     */
+    public ReplicaRouter(ConnectionPool primary, List<String> urls, String user, String passwd,
+                         ConnectionPool.Config config, long checkMs, long maxLagMs) throws SQLException {
+       this._primary = primary;
+       this._maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMs);
+       config.minSize = 0;
+       this._replicas = new Replica[urls.size()];
+       for (int i = 0; i < this._replicas.length; i++)
+          this._replicas[i] = new Replica(urls.get(i), new ConnectionPool(urls.get(i), user, passwd, config));
+       this._checker = Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread t = new Thread(r, "replica-checker");
+          t.setDaemon(true);
+          return t;
+       });
+       this._checker.scheduleWithFixedDelay(this::check, 0, checkMs, TimeUnit.MILLISECONDS);
+    }//end ReplicaRouter
+
+    /**
+     * @return a router for the comma separated JDBC URLs in
+     *         -Dpizzastore.replicas, or null if there are none
+     */
+    public static ReplicaRouter fromSystemProperties(ConnectionPool primary, String user, String passwd) throws SQLException {
+       List<String> urls = new ArrayList<String>();
+       for (String url : System.getProperty("pizzastore.replicas", "").split(","))
+          if (!url.trim().isEmpty())
+             urls.add(url.trim());
+       if (urls.isEmpty())
+          return null;
+       return new ReplicaRouter(primary, urls, user, passwd, ConnectionPool.Config.fromSystemProperties(),
+                                CHECK_MS, MAX_LAG_MS);
+    }//end fromSystemProperties
+
+    /**
+     * Picks where a read goes.
+     *
+     * @param writtenAt System.nanoTime() of the session's last commit, or
+     *        Long.MIN_VALUE if it has not written
+     * @return a replica holding that commit, or null for the primary
+     */
+    public Replica route(long writtenAt) {
+       long now = System.nanoTime();
+       int start = this._next.getAndIncrement();
+       for (int i = 0; i < this._replicas.length; i++) {
+          Replica replica = this._replicas[Math.floorMod(start + i, this._replicas.length)];
+          long fresh = replica.freshAsOf;
+          if (!replica.down && fresh != Long.MIN_VALUE && fresh - writtenAt >= 0 && now - fresh <= this._maxLagNanos) {
+             replica.reads.increment();
+             return replica;
+          }
+       }
+       this._primaryReads.increment();
+       return null;
+    }//end route
+
+    /**
+     * Takes a replica out of rotation after a call on it failed because it
+     * is unreachable or overloaded; the next check that succeeds brings it back.
+     */
+    public void failed(Replica replica, SQLException e) {
+       if (CircuitBreaker.isOverload(e)) {
+          replica.down = true;
+          replica.problem = e.getMessage();
+       }
+    }
+
+    private void check() {
+       long at = System.nanoTime();
+       try {
+          String lsn = queryOne(this._primary, "SELECT pg_current_wal_lsn()::text");
+          int slot = this._samples++ % SAMPLES;
+          this._sampleLsn[slot] = parseLsn(lsn);
+          this._sampleAt[slot] = at;
+       } catch (SQLException | RuntimeException e) {
+          // the replicas age out until the primary answers again.
+       }
+       for (Replica replica : this._replicas) {
+          try {
+             String replayed = queryOne(replica.pool, "SELECT pg_last_wal_replay_lsn()::text");
+             if (replayed == null) {
+                replica.down = true;
+                replica.problem = "not a streaming replica";
+                continue;
+             }
+             long fresh = freshAsOf(parseLsn(replayed));
+             if (fresh != Long.MIN_VALUE)
+                replica.freshAsOf = fresh;
+             replica.down = false;
+             replica.problem = null;
+          } catch (SQLException | RuntimeException e) {
+             replica.down = true;
+             replica.problem = e.getMessage();
+          }
+       }
+    }//end check
+
+    /*
+     * @return when the newest primary position at or before lsn was read,
+     *         or Long.MIN_VALUE if every remembered one is newer
+     */
+    private long freshAsOf(long lsn) {
+       int count = Math.min(this._samples, SAMPLES);
+       for (int i = 1; i <= count; i++) {
+          int slot = Math.floorMod(this._samples - i, SAMPLES);
+          if (this._sampleLsn[slot] <= lsn)
+             return this._sampleAt[slot];
+       }
+       return Long.MIN_VALUE;
+    }
+
+    private static String queryOne(ConnectionPool pool, String sql) throws SQLException {
+       ConnectionPool.PooledConnection c = pool.borrow();
+       boolean broken = false;
+       try (Statement stmt = c.connection().createStatement()) {
+          stmt.setQueryTimeout(5);
+          try (ResultSet rs = stmt.executeQuery(sql)) {
+             return rs.next() ? rs.getString(1) : null;
+          }
+       } catch (SQLException e) {
+          broken = pool.isBroken(c, e);
+          throw e;
+       } finally {
+          pool.release(c, broken);
+       }
+    }//end queryOne
+
+    /**
+     * @return a pg_lsn such as 16/B374D848 as one number
+     */
+    static long parseLsn(String lsn) {
+       int slash = lsn.indexOf('/');
+       return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+    }
+
+    public void close() {
+       this._checker.shutdownNow();
+       for (Replica replica : this._replicas)
+          replica.pool.close();
+    }
+
+    @Override
+    public String toString() {
+       StringBuilder s = new StringBuilder("ReplicaRouter[primary reads=").append(this._primaryReads.sum());
+       long now = System.nanoTime();
+       for (Replica replica : this._replicas) {
+          s.append(", ").append(replica.url).append(" reads=").append(replica.reads.sum());
+          if (replica.down)
+             s.append(" down (").append(replica.problem).append(')');
+          else if (replica.freshAsOf != Long.MIN_VALUE)
+             s.append(" lag<=").append(TimeUnit.NANOSECONDS.toMillis(now - replica.freshAsOf)).append("ms");
+       }
+       return s.append(']').toString();
+    }
+ }//end ReplicaRouter
@@ -0,0 +1,124 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.SQLException;
+ import java.sql.SQLTransactionRollbackException;
+ import java.util.concurrent.ThreadLocalRandom;
+ import java.util.concurrent.atomic.LongAdder;
+
+ /**
+  * This class decides which failed database calls are tried again and how
+  * long to wait first. Two kinds of failure are retried:
+  *
+  *  - serialization failures and deadlocks (40001, 40P01), after which
+  *    Postgres has rolled the statement or transaction back, and
+  *  - broken connections (08xxx), but only when the caller says the call
+  *    can safely be sent again: nothing was sent yet, the statement only
+  *    reads, or the transaction had not reached its commit.
+  *
+  * Drivers that set no SQLState, like the bundled pg73jdbc3.jar, are
+  * classified by exception type and by the server's message instead.
+  *
+  * The wait before attempt n is drawn uniformly between 0 and
+  * min(maxMs, baseMs * 2^(n-1)) ("full jitter"), so callers that failed
+  * together do not all come back at the same moment.
+  */
+ public class RetryPolicy {
+
+    // attempts per call including the first, -Dpizzastore.retry.attempts; 1 turns retries off
+    static final int ATTEMPTS = Integer.getInteger("pizzastore.retry.attempts", 3);
+
+    // backoff before the first retry, doubled for every further one
+    static final long BASE_MS = Long.getLong("pizzastore.retry.baseMs", 20);
+
+    // longest backoff before a retry
+    static final long MAX_MS = Long.getLong("pizzastore.retry.maxMs", 1000);
+
+    private final int _attempts;
+    private final long _baseMs;
+    private final long _maxMs;
+    private final LongAdder _retries = new LongAdder();
+
+    /**
+     * Creates a policy
+     *
+     * @param attempts attempts per call including the first
+     * @param baseMs backoff before the first retry
+     * @param maxMs longest backoff
+     */
+    public RetryPolicy(int attempts, long baseMs, long maxMs) {
+       this._attempts = attempts;
+       this._baseMs = baseMs;
+       this._maxMs = maxMs;
+    }//end RetryPolicy
+
+    /**
+     * @return a policy configured from the pizzastore.retry.* system properties
+     */
+    public static RetryPolicy fromSystemProperties() {
+       return new RetryPolicy(ATTEMPTS, BASE_MS, MAX_MS);
+    }
+
+    /**
+     * @param e the failure of the given attempt
+     * @param attempt the attempt that failed, starting at 1
+     * @param resendable true if sending the call again cannot apply it twice
+     * @return true if the call should be tried again after backoff()
+     */
+    public boolean shouldRetry(SQLException e, int attempt, boolean resendable) {
+       if (attempt >= this._attempts)
+          return false;
+       return isRolledBack(e) || (resendable && ConnectionPool.isConnectionFailure(e));
+    }
+
+    /**
+     * @return true for failures after which Postgres rolled the work back
+     *         and running it again may succeed
+     */
+    public static boolean isRolledBack(SQLException e) {
+       String state = e.getSQLState();
+       if (state != null)
+          return state.equals("40001") || state.equals("40P01");
+       return e instanceof SQLTransactionRollbackException ||
+              ConnectionPool.mentions(e, ROLLED_BACK_MESSAGES);
+    }
+
+    // how the server words 40001 and 40P01 to drivers that set no SQLState
+    private static final String[] ROLLED_BACK_MESSAGES = {
+       "could not serialize access", "deadlock detected"
+    };
+
+    /**
+     * Sleeps before the next attempt.
+     *
+     * @param attempt the attempt that failed, starting at 1
+     * @throws java.sql.SQLException when interrupted while waiting
+     */
+    public void backoff(int attempt) throws SQLException {
+       this._retries.increment();
+       long ceiling = Math.min(this._maxMs, this._baseMs << Math.min(attempt - 1, 20));
+       try {
+          Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+       } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SQLException("Interrupted while waiting to retry a database call");
+       }
+    }//end backoff
+
+    /**
+     * @return the retries made so far
+     */
+    public long retries() {
+       return this._retries.sum();
+    }
+ }//end RetryPolicy
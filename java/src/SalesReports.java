@@ -0,0 +1,108 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.Date;
+ import java.sql.SQLException;
+ import java.time.LocalDate;
+ import java.util.ArrayList;
+ import java.util.List;
+
+ /**
+  * This class answers the manager sales reports from the summary tables in
+  * sql/src/create_analytics.sql. Every report first folds the changes
+  * queued since the last refresh into the summaries, so results include
+  * every committed order without scanning FoodOrder or ItemsInOrder.
+  *
+  * Reports cover the days from a start date up to today, for one store or
+  * for all stores when storeID is null.
+  */
+ public class SalesReports {
+
+    public static final String[] REVENUE_COLUMNS = { "Day", "Orders", "Revenue" };
+    public static final String[] TOP_ITEMS_COLUMNS = { "Item", "Quantity", "Orders" };
+    public static final String[] AVERAGE_COLUMNS = { "Orders", "Revenue", "Average Order Value" };
+    public static final String[] HOURLY_COLUMNS = { "Hour", "Orders", "Share" };
+
+    private final PizzaStore _esql;
+
+    public SalesReports(PizzaStore esql) {
+       this._esql = esql;
+    }
+
+    /**
+     * Folds queued order changes into the summary tables.
+     *
+     * @throws java.sql.SQLException when the refresh failed
+     */
+    public void refresh() throws SQLException {
+       this._esql.executeAndReturnResult("SELECT refresh_sales_summary()");
+    }
+
+    /**
+     * @return one row per day with its orders and revenue, newest first
+     */
+    public List<String[]> revenueByDay(Integer storeID, LocalDate from) throws SQLException {
+       refresh();
+       if (storeID != null)
+          return rows(this._esql.executeQueryAndReturnResult(
+             "SELECT day, orders, revenue FROM SalesDaily WHERE storeID=? AND day>=? ORDER BY day DESC",
+             storeID, Date.valueOf(from)));
+       return rows(this._esql.executeQueryAndReturnResult(
+          "SELECT day, sum(orders), sum(revenue) FROM SalesDaily WHERE day>=? GROUP BY day ORDER BY day DESC",
+          Date.valueOf(from)));
+    }
+
+    /**
+     * @return the best selling items by quantity
+     */
+    public List<String[]> topItems(Integer storeID, LocalDate from, int limit) throws SQLException {
+       refresh();
+       String sql = "SELECT itemName, sum(quantity) AS quantity, sum(orders) FROM ItemSalesDaily WHERE day>=?";
+       String order = " GROUP BY itemName ORDER BY quantity DESC, itemName LIMIT ?";
+       if (storeID != null)
+          return rows(this._esql.executeQueryAndReturnResult(sql + " AND storeID=?" + order, Date.valueOf(from), storeID, limit));
+       return rows(this._esql.executeQueryAndReturnResult(sql + order, Date.valueOf(from), limit));
+    }
+
+    /**
+     * @return a single row with the number of orders, revenue and average order value
+     */
+    public List<String[]> averageOrderValue(Integer storeID, LocalDate from) throws SQLException {
+       refresh();
+       String sql = "SELECT sum(orders), sum(revenue), round(sum(revenue) / NULLIF(sum(orders), 0), 2)" +
+                    " FROM SalesDaily WHERE day>=?";
+       if (storeID != null)
+          return rows(this._esql.executeQueryAndReturnResult(sql + " AND storeID=?", Date.valueOf(from), storeID));
+       return rows(this._esql.executeQueryAndReturnResult(sql, Date.valueOf(from)));
+    }
+
+    /**
+     * @return the orders placed in each hour of the day over all time, with
+     *         the hour's share of the total
+     */
+    public List<String[]> hourlyDemand(Integer storeID) throws SQLException {
+       refresh();
+       String sql = "SELECT hour, sum(orders), round(100.0 * sum(orders) / NULLIF(sum(sum(orders)) OVER (), 0), 1) || '%'" +
+                    " FROM HourlyDemand";
+       if (storeID != null)
+          return rows(this._esql.executeQueryAndReturnResult(sql + " WHERE storeID=? GROUP BY hour ORDER BY hour", storeID));
+       return rows(this._esql.executeQueryAndReturnResult(sql + " GROUP BY hour ORDER BY hour"));
+    }
+
+    private static List<String[]> rows(List<List<String>> result) {
+       List<String[]> rows = new ArrayList<String[]>(result.size());
+       for (List<String> row : result)
+          rows.add(row.toArray(new String[0]));
+       return rows;
+    }
+ }//end SalesReports
@@ -0,0 +1,315 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.File;
+ import java.io.FileOutputStream;
+ import java.io.IOException;
+ import java.io.OutputStream;
+ import java.nio.charset.StandardCharsets;
+ import java.sql.Connection;
+ import java.sql.PreparedStatement;
+ import java.sql.ResultSet;
+ import java.sql.SQLException;
+ import java.sql.Statement;
+ import java.time.LocalDateTime;
+ import java.util.ArrayList;
+ import java.util.List;
+ import java.util.concurrent.ArrayBlockingQueue;
+ import java.util.concurrent.ConcurrentHashMap;
+ import java.util.concurrent.ThreadPoolExecutor;
+ import java.util.concurrent.TimeUnit;
+ import java.util.concurrent.atomic.AtomicLong;
+ import java.util.regex.Pattern;
+
+ /**
+  * This class writes database calls slower than a threshold to a local
+  * log file: the query template, the bind values with text redacted, the
+  * duration, the rows and the handler that made the call. The first slow
+  * call of a template in every explain interval also gets its plan, run
+  * with the same bind values.
+  *
+  * Plain reads, SELECTs from tables that lock no rows, get the measured
+  * plan from EXPLAIN (ANALYZE, BUFFERS), which runs the query again.
+  * Everything else only gets the estimated plan from EXPLAIN, because
+  * running it again would write twice: INSERT, UPDATE, DELETE, WITH
+  * queries that may modify data, and SELECTs of functions such as
+  * nextval() or refresh_sales_summary(). Plans are captured in a
+  * transaction that is always rolled back, under a statement and lock
+  * timeout.
+  *
+  * Entries are written by one background thread, so slow calls cost the
+  * caller only a queue offer; entries arriving while the queue is full are
+  * dropped and counted. The file is rotated to file.1, file.2, ... once it
+  * grows past its size limit.
+  */
+ public class SlowQueryLog {
+
+    // calls slower than this are logged, -Dpizzastore.slowQuery.thresholdMs; 0 turns the log off
+    static final long THRESHOLD_MS = Long.getLong("pizzastore.slowQuery.thresholdMs", 0);
+
+    // shortest time between two plans of one template
+    static final long EXPLAIN_INTERVAL_MS = Long.getLong("pizzastore.slowQuery.explainIntervalMs", 60000);
+
+    // longest a plan capture may run or wait for locks
+    static final long EXPLAIN_TIMEOUT_MS = Long.getLong("pizzastore.slowQuery.explainTimeoutMs", 30000);
+
+    // what tells a plain read from a function call, a locking read or a sequence call, see isAnalyzable()
+    static final Pattern FROM = Pattern.compile("\\bFROM\\b", Pattern.CASE_INSENSITIVE);
+    static final Pattern LOCKING = Pattern.compile("\\bFOR\\s+(NO\\s+KEY\\s+)?(UPDATE|SHARE)\\b|\\bFOR\\s+KEY\\s+SHARE\\b",
+                                                  Pattern.CASE_INSENSITIVE);
+    static final Pattern SEQUENCE_CALL = Pattern.compile("\\b(nextval|setval)\\s*\\(", Pattern.CASE_INSENSITIVE);
+
+    // entries waiting to be written before further ones are dropped
+    static final int QUEUE_LIMIT = 100;
+
+    private final ConnectionPool _pool;
+    private final File _file;
+    private final long _maxBytes;
+    private final int _files;
+    private final long _thresholdNanos;
+
+    // when each template was last explained, in ms
+    private final ConcurrentHashMap<String, Long> _explainedAt = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final ThreadPoolExecutor _writer;
+
+    private OutputStream _out = null;
+    private long _size = 0;
+
+    /**
+     * Creates a log; nothing is written until the first slow call.
+     *
+     * @param pool the pool plans are captured on
+     * @param file the log file
+     * @param maxBytes the size at which the file is rotated
+     * @param files the number of rotated files kept besides the current one
+     * @param thresholdMs calls at least this slow are logged
+     */
+    public SlowQueryLog(ConnectionPool pool, File file, long maxBytes, int files, long thresholdMs) {
+       this._pool = pool;
+       this._file = file;
+       this._maxBytes = maxBytes;
+       this._files = files;
+       this._thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+       this._writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(QUEUE_LIMIT), task -> {
+             Thread thread = new Thread(task, "slow-query-log");
+             thread.setDaemon(true);
+             return thread;
+          }, (task, executor) -> this._dropped.incrementAndGet());
+    }//end SlowQueryLog
+
+    /**
+     * @return a log configured from the pizzastore.slowQuery.* system
+     *         properties, or null if it is turned off
+     */
+    public static SlowQueryLog fromSystemProperties(ConnectionPool pool) {
+       if (THRESHOLD_MS <= 0)
+          return null;
+       return new SlowQueryLog(pool,
+          new File(System.getProperty("pizzastore.slowQuery.file", "slow_queries.log")),
+          Long.getLong("pizzastore.slowQuery.maxBytes", 10L << 20),
+          Integer.getInteger("pizzastore.slowQuery.files", 5),
+          THRESHOLD_MS);
+    }//end fromSystemProperties
+
+    /**
+     * @return true if a call that took this long is logged
+     */
+    public boolean isSlow(long nanos) {
+       return nanos >= this._thresholdNanos;
+    }
+
+    /**
+     * Queues a slow call to be logged.
+     *
+     * @param sql the statement's SQL text
+     * @param params the bind values
+     * @param nanos how long the call took
+     * @param rows the rows returned or changed
+     * @param failed true if the call threw
+     * @param handler the menu handler that made the call, or null
+     */
+    public void offer(String sql, Object[] params, long nanos, long rows, boolean failed, String handler) {
+       LocalDateTime at = LocalDateTime.now();
+       Object[] values = params.clone();
+       this._writer.execute(() -> write(at, sql, values, nanos, rows, failed, handler));
+    }//end offer
+
+    private void write(LocalDateTime at, String sql, Object[] params, long nanos, long rows, boolean failed, String handler) {
+       StringBuilder entry = new StringBuilder(1024);
+       entry.append(at).append(String.format(" slow query %.1f ms, ", nanos / 1e6))
+            .append(failed ? "failed" : rows + " rows")
+            .append(handler == null ? "" : ", handler " + handler).append('\n');
+       entry.append("  ").append(sql.replaceAll("\\s+", " ").trim()).append('\n');
+       for (int i = 0; i < params.length; i++)
+          entry.append("  $").append(i + 1).append(" = ").append(redact(params[i])).append('\n');
+       long dropped = this._dropped.getAndSet(0);
+       if (dropped > 0)
+          entry.append("  (").append(dropped).append(" earlier slow queries were not logged, the log was busy)\n");
+
+       // batches are logged without their rows, so there is nothing to bind
+       boolean batch = params.length == 0 && sql.indexOf('?') >= 0;
+       if (isExplainable(sql) && !batch && claimExplain(sql)) {
+          entry.append("  plan:\n");
+          try {
+             for (String line : explain(sql, params))
+                entry.append("    ").append(line).append('\n');
+          } catch (SQLException e) {
+             entry.append("    could not be captured: ").append(e.getMessage()).append('\n');
+          }
+       }
+       entry.append('\n');
+       append(entry.toString());
+    }//end write
+
+    /*
+     * Text could be a password or personal data and is replaced by its
+     * length; numbers, booleans and dates are kept since they shape the plan.
+     */
+    static String redact(Object value) {
+       if (value == null)
+          return "NULL";
+       if (value instanceof Number || value instanceof Boolean || value instanceof java.util.Date)
+          return value.toString();
+       return "<" + value.getClass().getSimpleName().toLowerCase() + ", " + value.toString().length() + " chars>";
+    }
+
+    static boolean isExplainable(String sql) {
+       switch (keyword(sql)) {
+          case "SELECT": case "INSERT": case "UPDATE": case "DELETE": case "WITH": return true;
+          default: return false;
+       }
+    }
+
+    /*
+     * True for statements that are safe to run again under EXPLAIN ANALYZE:
+     * a SELECT reading from tables without locking rows. A SELECT without
+     * FROM is a function call, which may write; sequence calls are not
+     * undone by the rollback.
+     */
+    static boolean isAnalyzable(String sql) {
+       return keyword(sql).equals("SELECT") && FROM.matcher(sql).find() &&
+              !LOCKING.matcher(sql).find() && !SEQUENCE_CALL.matcher(sql).find();
+    }
+
+    // the statement's first word in upper case
+    private static String keyword(String sql) {
+       String start = sql.trim();
+       int end = 0;
+       while (end < start.length() && Character.isLetter(start.charAt(end)))
+          end++;
+       return start.substring(0, end).toUpperCase();
+    }
+
+    // true for at most one caller per template and explain interval
+    private boolean claimExplain(String template) {
+       long now = System.currentTimeMillis();
+       boolean[] claimed = { false };
+       this._explainedAt.compute(template, (t, last) -> {
+          if (last != null && now - last < EXPLAIN_INTERVAL_MS)
+             return last;
+          claimed[0] = true;
+          return now;
+       });
+       return claimed[0];
+    }
+
+    /*
+     * Explains the statement on a connection of its own, in a transaction
+     * that is always rolled back; see isAnalyzable() for when it is run.
+     */
+    private List<String> explain(String sql, Object[] params) throws SQLException {
+       List<String> plan = new ArrayList<String>();
+       ConnectionPool.PooledConnection c = this._pool.borrow();
+       Connection connection = c.connection();
+       boolean broken = false;
+       try {
+          connection.setAutoCommit(false);
+          try (Statement settings = connection.createStatement()) {
+             settings.execute("SET LOCAL statement_timeout = " + EXPLAIN_TIMEOUT_MS);
+             settings.execute("SET LOCAL lock_timeout = " + EXPLAIN_TIMEOUT_MS);
+          }
+          try (PreparedStatement stmt = connection.prepareStatement(
+                (isAnalyzable(sql) ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql)) {
+             for (int i = 0; i < params.length; i++)
+                stmt.setObject(i + 1, params[i]);
+             try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next())
+                   plan.add(rs.getString(1));
+             }
+          }
+          return plan;
+       } catch (SQLException e) {
+          broken = ConnectionPool.isConnectionFailure(e);
+          throw e;
+       } finally {
+          try {
+             connection.rollback();
+             connection.setAutoCommit(true);
+          } catch (SQLException e) {
+             broken = true;
+          }
+          this._pool.release(c, broken);
+       }
+    }//end explain
+
+    private void append(String entry) {
+       byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+       try {
+          if (this._out == null) {
+             this._out = new FileOutputStream(this._file, true);
+             this._size = this._file.length();
+          }
+          if (this._size > 0 && this._size + bytes.length > this._maxBytes)
+             rotate();
+          this._out.write(bytes);
+          this._out.flush();
+          this._size += bytes.length;
+       } catch (IOException e) {
+          System.err.println("Error writing the slow query log: " + e.getMessage());
+       }
+    }//end append
+
+    private void rotate() throws IOException {
+       this._out.close();
+       String name = this._file.getPath();
+       new File(name + "." + this._files).delete();
+       for (int i = this._files - 1; i >= 1; i--)
+          new File(name + "." + i).renameTo(new File(name + "." + (i + 1)));
+       if (this._files > 0)
+          this._file.renameTo(new File(name + ".1"));
+       else
+          this._file.delete();
+       this._out = new FileOutputStream(this._file, true);
+       this._size = 0;
+    }//end rotate
+
+    /**
+     * Writes the queued entries and closes the file.
+     */
+    public void close() {
+       this._writer.shutdown();
+       try {
+          this._writer.awaitTermination(EXPLAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+       } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+       }
+       try {
+          if (this._out != null)
+             this._out.close();
+       } catch (IOException e) {
+          // nothing left to write to.
+       }
+    }//end close
+ }//end SlowQueryLog
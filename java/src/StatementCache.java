@@ -0,0 +1,132 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.Connection;
+ import java.sql.PreparedStatement;
+ import java.sql.SQLException;
+ import java.util.Iterator;
+ import java.util.LinkedHashMap;
+ import java.util.Map;
+
+ /**
+  * This class keeps a bounded set of PreparedStatements for one physical
+  * connection, so repeated queries reuse the statement object and the
+  * driver's parse of the SQL text for its placeholders. The least recently
+  * used statement is closed when the cache is full.
+  *
+  * The bundled pg73 driver binds parameters on the client and sends every
+  * execution as literal SQL, so the server still parses and plans each
+  * one; the cache only saves work on the client. A driver that prepares
+  * statements on the server would keep that preparation as well.
+  *
+  * A cache belongs to exactly one connection and must only be used by the
+  * thread currently holding that connection.
+  */
+ public class StatementCache {
+
+    // connection every cached statement was prepared on.
+    private final Connection _connection;
+
+    // maximum number of statements kept open at once.
+    private final int _capacity;
+
+    // access-ordered map, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, PreparedStatement> _statements;
+
+    private long _hits = 0;
+    private long _misses = 0;
+    private long _evictions = 0;
+
+    /**
+     * Creates a new cache for the given connection
+     *
+     * @param connection the physical connection statements are prepared on
+     * @param capacity the maximum number of open statements
+     */
+    public StatementCache(Connection connection, int capacity) {
+       if (capacity < 1)
+          throw new IllegalArgumentException("capacity must be at least 1");
+       this._connection = connection;
+       this._capacity = capacity;
+       this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    }//end StatementCache
+
+    /**
+     * Returns a prepared statement for the given SQL, preparing it on a miss.
+     * The caller must not close the returned statement.
+     *
+     * @param sql the SQL text with '?' placeholders
+     * @return a statement with its parameters cleared
+     * @throws java.sql.SQLException when the statement cannot be prepared
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+       PreparedStatement stmt = this._statements.get(sql);
+       if (stmt != null) {
+          this._hits++;
+          stmt.clearParameters();
+          return stmt;
+       }
+
+       this._misses++;
+       stmt = this._connection.prepareStatement(sql);
+       this._statements.put(sql, stmt);
+
+       // evict the least recently used statement once over capacity
+       if (this._statements.size() > this._capacity) {
+          Iterator<Map.Entry<String, PreparedStatement>> eldest = this._statements.entrySet().iterator();
+          PreparedStatement evicted = eldest.next().getValue();
+          eldest.remove();
+          this._evictions++;
+          closeQuietly(evicted);
+       }
+       return stmt;
+    }//end prepare
+
+    /**
+     * Drops a statement that failed, so the next call prepares it again.
+     */
+    public synchronized void invalidate(String sql) {
+       PreparedStatement stmt = this._statements.remove(sql);
+       if (stmt != null)
+          closeQuietly(stmt);
+    }//end invalidate
+
+    public synchronized long hits() { return this._hits; }
+    public synchronized long misses() { return this._misses; }
+    public synchronized long evictions() { return this._evictions; }
+    public synchronized int size() { return this._statements.size(); }
+
+    /**
+     * Closes every cached statement. The connection itself is left open.
+     */
+    public synchronized void clear() {
+       for (PreparedStatement stmt : this._statements.values())
+          closeQuietly(stmt);
+       this._statements.clear();
+    }//end clear
+
+    @Override
+    public synchronized String toString() {
+       return "StatementCache[size=" + this._statements.size() + "/" + this._capacity +
+              ", hits=" + this._hits + ", misses=" + this._misses +
+              ", evictions=" + this._evictions + "]";
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+       try {
+          stmt.close();
+       } catch (SQLException e) {
+          // ignored.
+       }
+    }
+ }//end StatementCache
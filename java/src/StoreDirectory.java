@@ -0,0 +1,492 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.sql.SQLException;
+ import java.util.ArrayList;
+ import java.util.BitSet;
+ import java.util.Comparator;
+ import java.util.HashMap;
+ import java.util.List;
+ import java.util.Map;
+ import java.util.UUID;
+ import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+ /**
+  * This class is an in-memory index over Store (and StoreLocation) for
+  * finding stores without scanning the table.
+  *
+  * Each store gets a slot. City and state names go into prefix tries that
+  * map to sets of slots, open stores are a bitmap over the slots, and
+  * stores with coordinates are bucketed in a grid of GRID_DEGREES cells
+  * for proximity search. A search intersects the bitmaps and ranks what is
+  * left by reviewScore.
+  *
+  * Triggers log every changed storeID to StoreChange, so a refresh only
+  * reloads the stores changed since the last one. Log entries can become
+  * visible out of sequence order when transactions overlap, so the whole
+  * table is reloaded every FULL_RELOAD_MS as well. A TRUNCATE is logged
+  * without a storeID and also reloads the whole table.
+  *
+  * Every full reload records how far this index has read the log and
+  * prunes the entries all indexes have read, see prune_store_changes().
+  */
+ public class StoreDirectory {
+
+    public static final String[] COLUMNS = { "Store ID", "Address", "City", "State", "Open", "Review Score" };
+
+    // size of a proximity grid cell, in degrees of latitude and longitude
+    static final double GRID_DEGREES = 0.5;
+
+    // grid columns around the globe; column numbers wrap at the antimeridian
+    static final long GRID_COLUMNS = Math.round(360 / GRID_DEGREES);
+
+    // the whole table is reloaded at least this often, -Dpizzastore.stores.fullReloadMs
+    static final long FULL_RELOAD_MS = Long.getLong("pizzastore.stores.fullReloadMs", 300000);
+
+    // more changed stores than this in one refresh reload the whole table
+    private static final int MAX_INCREMENTAL = 500;
+
+    private static final String SELECT_STORES =
+       "SELECT s.storeID, s.address, s.city, s.state, s.isOpen, s.reviewScore, l.latitude, l.longitude" +
+       " FROM Store s LEFT JOIN StoreLocation l ON l.storeID = s.storeID";
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    /**
+     * One row of Store, with its coordinates when StoreLocation has them
+     */
+    public static final class Store {
+       public final int id;
+       public final String address;
+       public final String city;
+       public final String state;
+       public final boolean open;
+       public final double reviewScore;
+       public final double latitude;
+       public final double longitude;
+
+       Store(int id, String address, String city, String state, boolean open, double reviewScore, double latitude, double longitude) {
+          this.id = id;
+          this.address = address;
+          this.city = city;
+          this.state = state;
+          this.open = open;
+          this.reviewScore = reviewScore;
+          this.latitude = latitude;
+          this.longitude = longitude;
+       }
+
+       public boolean hasLocation() {
+          return !Double.isNaN(this.latitude) && !Double.isNaN(this.longitude);
+       }
+
+       /**
+        * @return the store as a row of COLUMNS
+        */
+       public String[] toRow() {
+          return new String[] { String.valueOf(this.id), this.address, this.city, this.state,
+                                this.open ? "yes" : "no", Double.isNaN(this.reviewScore) ? null : String.valueOf(this.reviewScore) };
+       }
+
+       /**
+        * @return the great-circle distance to a point, in km
+        */
+       public double distanceKm(double latitude, double longitude) {
+          double dLat = Math.toRadians(latitude - this.latitude);
+          double dLon = Math.toRadians(longitude - this.longitude);
+          double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                     Math.cos(Math.toRadians(this.latitude)) * Math.cos(Math.toRadians(latitude)) *
+                     Math.sin(dLon / 2) * Math.sin(dLon / 2);
+          return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+       }
+    }//end Store
+
+    /**
+     * A store found near a point
+     */
+    public static final class Nearby {
+       public final Store store;
+       public final double distanceKm;
+
+       Nearby(Store store, double distanceKm) {
+          this.store = store;
+          this.distanceKm = distanceKm;
+       }
+    }//end Nearby
+
+    /*
+     * Maps lower-cased names to the slots of the stores carrying them
+     */
+    private static final class Trie {
+       private final Map<Character, Trie> _children = new HashMap<Character, Trie>(4);
+       private final BitSet _slots = new BitSet();
+
+       void add(String key, int slot) {
+          Trie node = this;
+          for (int i = 0; i < key.length(); i++)
+             node = node._children.computeIfAbsent(key.charAt(i), c -> new Trie());
+          node._slots.set(slot);
+       }
+
+       void remove(String key, int slot) {
+          Trie node = this;
+          for (int i = 0; i < key.length() && node != null; i++)
+             node = node._children.get(key.charAt(i));
+          if (node != null)
+             node._slots.clear(slot);
+       }
+
+       /**
+        * @return the slots of every name starting with the prefix
+        */
+       BitSet withPrefix(String prefix) {
+          Trie node = this;
+          for (int i = 0; i < prefix.length() && node != null; i++)
+             node = node._children.get(prefix.charAt(i));
+          BitSet slots = new BitSet();
+          if (node != null)
+             node.collect(slots);
+          return slots;
+       }
+
+       private void collect(BitSet into) {
+          into.or(this._slots);
+          for (Trie child : this._children.values())
+             child.collect(into);
+       }
+    }//end Trie
+
+    private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+    // guarded by _lock
+    private final List<Store> _slots = new ArrayList<Store>();
+    private final Map<Integer, Integer> _slotOf = new HashMap<Integer, Integer>();
+    private final List<Integer> _freeSlots = new ArrayList<Integer>();
+    private final BitSet _used = new BitSet();
+    private final BitSet _open = new BitSet();
+    private final Trie _cities = new Trie();
+    private final Trie _states = new Trie();
+    private final Map<Long, List<Integer>> _grid = new HashMap<Long, List<Integer>>();
+
+    // refresh state, only touched by the thread holding the refresh lock
+    private final Object _refreshLock = new Object();
+    private long _lastChange = -1;
+    private long _loadedAt = 0;
+
+    // this index's row in StoreChangeReader
+    private final String _readerID = UUID.randomUUID().toString();
+
+    /**
+     * Brings the index up to date with the database: everything on the
+     * first call and every FULL_RELOAD_MS, only the changed stores otherwise.
+     *
+     * @param esql the database handle
+     * @throws java.sql.SQLException when the stores cannot be read
+     */
+    public void refresh(PizzaStore esql) throws SQLException {
+       synchronized (this._refreshLock) {
+          long now = System.currentTimeMillis();
+          if (this._lastChange < 0 || now - this._loadedAt >= FULL_RELOAD_MS) {
+             // read the log position first, so later changes are not missed
+             long lastChange = Long.parseLong(esql.executeQueryAndReturnResult(
+                "SELECT COALESCE(MAX(seq), 0) FROM StoreChange").get(0).get(0).trim());
+             reloadAll(esql);
+             this._lastChange = lastChange;
+             this._loadedAt = now;
+             prune(esql);
+             return;
+          }
+
+          List<List<String>> changes = esql.executeQueryAndReturnResult(
+             "SELECT seq, storeID FROM StoreChange WHERE seq>? ORDER BY seq LIMIT ?", this._lastChange, MAX_INCREMENTAL + 1);
+          if (changes.isEmpty())
+             return;
+          if (changes.size() > MAX_INCREMENTAL || truncated(changes)) {
+             this._loadedAt = 0;
+             refresh(esql);
+             return;
+          }
+          List<Integer> changed = new ArrayList<Integer>();
+          for (List<String> change : changes) {
+             Integer id = Integer.valueOf(change.get(1).trim());
+             if (!changed.contains(id))
+                changed.add(id);
+          }
+          reload(esql, changed);
+          this._lastChange = Long.parseLong(changes.get(changes.size() - 1).get(0).trim());
+       }
+    }//end refresh
+
+    // a change without a storeID is a TRUNCATE of Store or StoreLocation
+    private static boolean truncated(List<List<String>> changes) {
+       for (List<String> change : changes)
+          if (change.get(1) == null)
+             return true;
+       return false;
+    }
+
+    /*
+     * Reports the log position of the last full reload and drops the log
+     * entries every index has read. An index that stops reporting for
+     * twice FULL_RELOAD_MS no longer holds the log back; it reloads the
+     * whole table before it reads the log again. A failed prune is left
+     * to the next full reload.
+     */
+    private void prune(PizzaStore esql) {
+       try {
+          esql.executeAndReturnResult("SELECT prune_store_changes(?, ?, ?)", this._readerID, this._lastChange, 2 * FULL_RELOAD_MS);
+       } catch (SQLException e) {
+          // the log is pruned on the next full reload.
+       }
+    }//end prune
+
+    private void reloadAll(PizzaStore esql) throws SQLException {
+       List<Store> stores = new ArrayList<Store>();
+       for (List<String> row : esql.executeQueryAndReturnResult(SELECT_STORES + " ORDER BY s.storeID"))
+          stores.add(parse(row));
+       this._lock.writeLock().lock();
+       try {
+          this._slots.clear();
+          this._slotOf.clear();
+          this._freeSlots.clear();
+          this._used.clear();
+          this._open.clear();
+          this._cities._children.clear();
+          this._cities._slots.clear();
+          this._states._children.clear();
+          this._states._slots.clear();
+          this._grid.clear();
+          for (Store store : stores)
+             put(store);
+       } finally {
+          this._lock.writeLock().unlock();
+       }
+    }//end reloadAll
+
+    /*
+     * Re-reads the given stores; the ones no longer in Store are removed
+     */
+    private void reload(PizzaStore esql, List<Integer> ids) throws SQLException {
+       StringBuilder sql = new StringBuilder(SELECT_STORES).append(" WHERE s.storeID IN (");
+       for (int i = 0; i < ids.size(); i++)
+          sql.append(i == 0 ? "?" : ", ?");
+       sql.append(")");
+       Map<Integer, Store> current = new HashMap<Integer, Store>();
+       for (List<String> row : esql.executeQueryAndReturnResult(sql.toString(), ids.toArray())) {
+          Store store = parse(row);
+          current.put(store.id, store);
+       }
+       this._lock.writeLock().lock();
+       try {
+          for (Integer id : ids) {
+             remove(id);
+             Store store = current.get(id);
+             if (store != null)
+                put(store);
+          }
+       } finally {
+          this._lock.writeLock().unlock();
+       }
+    }//end reload
+
+    private static Store parse(List<String> row) {
+       return new Store(Integer.parseInt(row.get(0).trim()), row.get(1), row.get(2).trim(), row.get(3).trim(),
+                        row.get(4) != null && row.get(4).trim().equalsIgnoreCase("yes"),
+                        parseDouble(row.get(5)), parseDouble(row.get(6)), parseDouble(row.get(7)));
+    }
+
+    private static double parseDouble(String value) {
+       return value == null ? Double.NaN : Double.parseDouble(value.trim());
+    }
+
+    // called with the write lock held
+    private void put(Store store) {
+       int slot = this._freeSlots.isEmpty() ? this._slots.size() : this._freeSlots.remove(this._freeSlots.size() - 1);
+       if (slot == this._slots.size())
+          this._slots.add(store);
+       else
+          this._slots.set(slot, store);
+       this._slotOf.put(store.id, slot);
+       this._used.set(slot);
+       if (store.open)
+          this._open.set(slot);
+       this._cities.add(store.city.toLowerCase(), slot);
+       this._states.add(store.state.toLowerCase(), slot);
+       if (store.hasLocation())
+          this._grid.computeIfAbsent(cell(store.latitude, store.longitude), c -> new ArrayList<Integer>()).add(slot);
+    }
+
+    // called with the write lock held
+    private void remove(int id) {
+       Integer slot = this._slotOf.remove(id);
+       if (slot == null)
+          return;
+       Store store = this._slots.get(slot);
+       this._slots.set(slot, null);
+       this._freeSlots.add(slot);
+       this._used.clear(slot);
+       this._open.clear(slot);
+       this._cities.remove(store.city.toLowerCase(), slot);
+       this._states.remove(store.state.toLowerCase(), slot);
+       if (store.hasLocation()) {
+          List<Integer> cell = this._grid.get(cell(store.latitude, store.longitude));
+          cell.remove(slot);
+          if (cell.isEmpty())
+             this._grid.remove(cell(store.latitude, store.longitude));
+       }
+    }
+
+    private static long cell(double latitude, double longitude) {
+       long row = (long) Math.floor(latitude / GRID_DEGREES);
+       long column = (long) Math.floor(longitude / GRID_DEGREES);
+       return cell(row, column);
+    }
+
+    /*
+     * Columns east of 180 degrees continue at -180, so a search box that
+     * crosses the antimeridian finds the stores on both sides of it.
+     */
+    private static long cell(long row, long column) {
+       column = Math.floorMod(column + GRID_COLUMNS / 2, GRID_COLUMNS) - GRID_COLUMNS / 2;
+       return (row << 32) | (column & 0xffffffffL);
+    }
+
+    /**
+     * @return the store with this ID, or null
+     */
+    public Store get(int id) {
+       this._lock.readLock().lock();
+       try {
+          Integer slot = this._slotOf.get(id);
+          return slot == null ? null : this._slots.get(slot);
+       } finally {
+          this._lock.readLock().unlock();
+       }
+    }
+
+    /**
+     * @return every store, in storeID order
+     */
+    public List<Store> all() {
+       List<Store> stores = new ArrayList<Store>();
+       this._lock.readLock().lock();
+       try {
+          for (int slot = this._used.nextSetBit(0); slot >= 0; slot = this._used.nextSetBit(slot + 1))
+             stores.add(this._slots.get(slot));
+       } finally {
+          this._lock.readLock().unlock();
+       }
+       stores.sort(Comparator.comparingInt(store -> store.id));
+       return stores;
+    }
+
+    /**
+     * Finds stores by the start of their city and state names, best
+     * reviewed first.
+     *
+     * @param city a city name prefix, blank for any city
+     * @param state a state name prefix, blank for any state
+     * @param openOnly true to leave out closed stores
+     * @return the matching stores
+     */
+    public List<Store> search(String city, String state, boolean openOnly) {
+       List<Store> found = new ArrayList<Store>();
+       this._lock.readLock().lock();
+       try {
+          BitSet slots = (BitSet) this._used.clone();
+          if (!city.trim().isEmpty())
+             slots.and(this._cities.withPrefix(city.trim().toLowerCase()));
+          if (!state.trim().isEmpty())
+             slots.and(this._states.withPrefix(state.trim().toLowerCase()));
+          if (openOnly)
+             slots.and(this._open);
+          for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1))
+             found.add(this._slots.get(slot));
+       } finally {
+          this._lock.readLock().unlock();
+       }
+       found.sort(BY_REVIEW);
+       return found;
+    }//end search
+
+    /**
+     * Finds stores with known coordinates within a distance of a point,
+     * nearest first.
+     *
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @param radiusKm the largest distance to include
+     * @param openOnly true to leave out closed stores
+     * @return the matching stores with their distances
+     */
+    public List<Nearby> near(double latitude, double longitude, double radiusKm, boolean openOnly) {
+       List<Nearby> found = new ArrayList<Nearby>();
+       double dLat = radiusKm / 111.0;
+       double dLon = radiusKm / (111.0 * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+       long rowFrom = (long) Math.floor((latitude - dLat) / GRID_DEGREES), rowTo = (long) Math.floor((latitude + dLat) / GRID_DEGREES);
+       long colFrom = (long) Math.floor((longitude - dLon) / GRID_DEGREES), colTo = (long) Math.floor((longitude + dLon) / GRID_DEGREES);
+       if (colTo - colFrom >= GRID_COLUMNS)
+          colTo = colFrom + GRID_COLUMNS - 1;
+       this._lock.readLock().lock();
+       try {
+          List<List<Integer>> cells = new ArrayList<List<Integer>>();
+          if ((rowTo - rowFrom + 1) * (colTo - colFrom + 1) > this._grid.size()) {
+             // the box covers more cells than are occupied, visit them all
+             cells.addAll(this._grid.values());
+          } else {
+             for (long row = rowFrom; row <= rowTo; row++)
+                for (long col = colFrom; col <= colTo; col++) {
+                   List<Integer> cell = this._grid.get(cell(row, col));
+                   if (cell != null)
+                      cells.add(cell);
+                }
+          }
+          for (List<Integer> cell : cells)
+             for (int slot : cell) {
+                Store store = this._slots.get(slot);
+                if (openOnly && !store.open)
+                   continue;
+                double distance = store.distanceKm(latitude, longitude);
+                if (distance <= radiusKm)
+                   found.add(new Nearby(store, distance));
+             }
+       } finally {
+          this._lock.readLock().unlock();
+       }
+       found.sort(Comparator.comparingDouble(n -> n.distanceKm));
+       return found;
+    }//end near
+
+    /**
+     * @return the number of stores with coordinates
+     */
+    public int locatedCount() {
+       this._lock.readLock().lock();
+       try {
+          int count = 0;
+          for (List<Integer> cell : this._grid.values())
+             count += cell.size();
+          return count;
+       } finally {
+          this._lock.readLock().unlock();
+       }
+    }
+
+    // best reviewed first, unreviewed stores last, then by ID
+    private static final Comparator<Store> BY_REVIEW = (a, b) -> {
+       if (Double.isNaN(a.reviewScore) != Double.isNaN(b.reviewScore))
+          return Double.isNaN(a.reviewScore) ? 1 : -1;
+       int byScore = Double.compare(b.reviewScore, a.reviewScore);
+       return byScore != 0 ? byScore : Integer.compare(a.id, b.id);
+    };
+ }//end StoreDirectory
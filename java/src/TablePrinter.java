@@ -0,0 +1,246 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+ import java.io.PrintStream;
+ import java.sql.ResultSet;
+ import java.sql.ResultSetMetaData;
+ import java.sql.SQLException;
+ import java.util.Iterator;
+
+ /**
+  * This class writes a forward-only ResultSet, or rows already held in
+  * memory, to a stream in a single pass.
+  *
+  * In TABLE format the column widths are taken from the column names and a
+  * bounded look-ahead window of rows; rows after the window are streamed
+  * with those widths, and a longer value simply pushes its row's later
+  * columns to the right. CSV and TSV formats write one record per line
+  * with a header, for piping into other tools.
+  */
+ public class TablePrinter {
+
+    public enum Format { TABLE, CSV, TSV }
+
+    // rows buffered to size the columns before the first line is written.
+    static final int LOOKAHEAD_ROWS = 64;
+
+    // output is handed to the stream in chunks of about this many chars.
+    private static final int FLUSH_CHARS = 8192;
+
+    /**
+     * @return the format named by -Dpizzastore.output.format, TABLE by default
+     */
+    public static Format defaultFormat() {
+       String name = System.getProperty("pizzastore.output.format", "table");
+       try {
+          return Format.valueOf(name.trim().toUpperCase());
+       } catch (IllegalArgumentException e) {
+          return Format.TABLE;
+       }
+    }
+
+    /**
+     * Supplies rows one at a time, null once exhausted.
+     */
+    interface RowSource {
+       String[] next() throws SQLException;
+    }
+
+    /**
+     * Writes every row of the result set and closes it.
+     *
+     * @param rs a result set positioned before its first row
+     * @param out the stream to write to
+     * @param format how rows are laid out
+     * @return the number of rows written
+     * @throws java.sql.SQLException when reading the result set fails
+     */
+    public static int print(ResultSet rs, PrintStream out, Format format) throws SQLException {
+       try {
+          ResultSetMetaData rsmd = rs.getMetaData();
+          int numCol = rsmd.getColumnCount();
+          String[] names = new String[numCol];
+          for (int i = 0; i < numCol; i++)
+             names[i] = rsmd.getColumnName(i + 1);
+
+          return print(names, () -> {
+             if (!rs.next())
+                return null;
+             String[] row = new String[numCol];
+             for (int i = 0; i < numCol; i++)
+                row[i] = rs.getString(i + 1);
+             return row;
+          }, out, format);
+       } finally {
+          rs.close();
+       }
+    }//end print
+
+    /**
+     * Writes rows that are already in memory, laid out exactly like a
+     * query result with the same column names.
+     *
+     * @param names the column names
+     * @param rows the rows, each holding one value per column
+     * @param out the stream to write to
+     * @param format how rows are laid out
+     * @return the number of rows written
+     */
+    public static int print(String[] names, Iterable<String[]> rows, PrintStream out, Format format) {
+       Iterator<String[]> it = rows.iterator();
+       try {
+          return print(names, () -> it.hasNext() ? it.next() : null, out, format);
+       } catch (SQLException e) {
+          // an in-memory source never throws
+          throw new IllegalStateException(e);
+       }
+    }//end print
+
+    private static int print(String[] names, RowSource rows, PrintStream out, Format format) throws SQLException {
+       if (format == Format.TABLE)
+          return printTable(names, rows, out);
+       return printDelimited(names, rows, out, format == Format.CSV ? ',' : '\t');
+    }
+
+    private static int printTable(String[] names, RowSource rows, PrintStream out) throws SQLException {
+       int numCol = names.length;
+
+       // Set the width of each column to at least the length of the column name
+       int[] columnWidths = new int[numCol];
+       for (int i = 0; i < numCol; i++)
+          columnWidths[i] = names[i].length();
+
+       // Read the look-ahead window and widen the columns to fit it
+       String[][] window = new String[LOOKAHEAD_ROWS][];
+       int buffered = 0;
+       String[] row = null;
+       while (buffered < LOOKAHEAD_ROWS && (row = rows.next()) != null) {
+          for (int i = 0; i < numCol; i++) {
+             // null values are printed as "null"
+             columnWidths[i] = Math.max(columnWidths[i], row[i] == null ? 4 : row[i].length());
+          }
+          window[buffered++] = row;
+       }
+       if (buffered == 0)
+          return 0;
+
+       StringBuilder line = new StringBuilder(FLUSH_CHARS + 256);
+       for (int i = 0; i < numCol; i++)
+          appendCell(line, names[i], columnWidths[i]);
+       line.append('\n');
+
+       for (int r = 0; r < buffered; r++) {
+          for (int i = 0; i < numCol; i++)
+             appendCell(line, window[r][i], columnWidths[i]);
+          line.append('\n');
+          line = flushIfFull(line, out);
+       }
+       int rowCount = buffered;
+       window = null;
+
+       // Stream the remaining rows with the widths already chosen
+       while (row != null && (row = rows.next()) != null) {
+          for (int i = 0; i < numCol; i++)
+             appendCell(line, row[i], columnWidths[i]);
+          line.append('\n');
+          line = flushIfFull(line, out);
+          rowCount++;
+       }
+       out.append(line);
+       out.flush();
+       return rowCount;
+    }//end printTable
+
+    private static int printDelimited(String[] names, RowSource rows, PrintStream out, char delimiter) throws SQLException {
+       StringBuilder line = new StringBuilder(FLUSH_CHARS + 256);
+       for (int i = 0; i < names.length; i++) {
+          if (i > 0)
+             line.append(delimiter);
+          appendField(line, names[i], delimiter);
+       }
+       line.append('\n');
+
+       int rowCount = 0;
+       String[] row;
+       while ((row = rows.next()) != null) {
+          for (int i = 0; i < row.length; i++) {
+             if (i > 0)
+                line.append(delimiter);
+             if (row[i] != null)
+                appendField(line, row[i], delimiter);
+          }
+          line.append('\n');
+          line = flushIfFull(line, out);
+          rowCount++;
+       }
+       out.append(line);
+       out.flush();
+       return rowCount;
+    }//end printDelimited
+
+    /*
+     * Appends a value left aligned in a column of the given width, followed
+     * by the column separator.
+     */
+    private static void appendCell(StringBuilder line, String value, int width) {
+       if (value == null)
+          value = "null";
+       line.append(value);
+       for (int pad = width - value.length(); pad > 0; pad--)
+          line.append(' ');
+       line.append(" | ");
+    }
+
+    /*
+     * CSV fields are quoted when they contain the delimiter, a quote or a
+     * line break. TSV fields escape tabs and line breaks instead.
+     */
+    private static void appendField(StringBuilder line, String value, char delimiter) {
+       if (delimiter == '\t') {
+          for (int i = 0; i < value.length(); i++) {
+             char c = value.charAt(i);
+             if (c == '\t') line.append("\\t");
+             else if (c == '\n') line.append("\\n");
+             else if (c == '\r') line.append("\\r");
+             else if (c == '\\') line.append("\\\\");
+             else line.append(c);
+          }
+          return;
+       }
+       boolean quote = false;
+       for (int i = 0; i < value.length() && !quote; i++) {
+          char c = value.charAt(i);
+          quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+       }
+       if (!quote) {
+          line.append(value);
+          return;
+       }
+       line.append('"');
+       for (int i = 0; i < value.length(); i++) {
+          char c = value.charAt(i);
+          if (c == '"')
+             line.append('"');
+          line.append(c);
+       }
+       line.append('"');
+    }
+
+    private static StringBuilder flushIfFull(StringBuilder line, PrintStream out) {
+       if (line.length() >= FLUSH_CHARS) {
+          out.append(line);
+          line.setLength(0);
+       }
+       return line;
+    }
+ }//end TablePrinter
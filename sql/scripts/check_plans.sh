@@ -0,0 +1,5 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Fails (non-zero exit) if any application query plans a sequential scan
+# on a large synthetic dataset. Pass -v orders=N to change its size.
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" -v ON_ERROR_STOP=1 "$@" < $DIR/../src/check_plans.sql
@@ -0,0 +1,142 @@
+/* Builds a large synthetic copy of the schema in the plancheck schema,
+   with the same indexes as the real tables, and fails if the plan of any
+   application query reads a large table with a sequential scan. The
+   sales summaries of create_analytics.sql are copied and filled from the
+   synthetic orders too, so run it after that script.
+
+   Run through sql/scripts/check_plans.sh. The number of orders can be
+   changed with -v orders=N (default 500000). */
+
+\set ON_ERROR_STOP on
+\if :{?orders}
+\else
+\set orders 500000
+\endif
+
+DROP SCHEMA IF EXISTS plancheck CASCADE;
+CREATE SCHEMA plancheck;
+
+CREATE TABLE plancheck.Users (LIKE public.Users INCLUDING ALL);
+CREATE TABLE plancheck.Items (LIKE public.Items INCLUDING ALL);
+CREATE TABLE plancheck.Store (LIKE public.Store INCLUDING ALL);
+CREATE TABLE plancheck.StoreLocation (LIKE public.StoreLocation INCLUDING ALL);
+CREATE TABLE plancheck.FoodOrder (LIKE public.FoodOrder INCLUDING ALL);
+CREATE TABLE plancheck.ItemsInOrder (LIKE public.ItemsInOrder INCLUDING ALL);
+CREATE TABLE plancheck.FavoriteItems (LIKE public.FavoriteItems INCLUDING ALL);
+CREATE TABLE plancheck.MenuVersion (LIKE public.MenuVersion INCLUDING ALL);
+CREATE TABLE plancheck.SalesDaily (LIKE public.SalesDaily INCLUDING ALL);
+CREATE TABLE plancheck.HourlyDemand (LIKE public.HourlyDemand INCLUDING ALL);
+CREATE TABLE plancheck.ItemSalesDaily (LIKE public.ItemSalesDaily INCLUDING ALL);
+
+SET search_path = plancheck;
+
+INSERT INTO Items SELECT * FROM public.Items;
+INSERT INTO MenuVersion VALUES (0);
+
+INSERT INTO Store
+SELECT s, s || ' Main Street', 'City' || (s % 200), 'State' || (s % 50),
+       CASE WHEN s % 10 = 0 THEN 'no' ELSE 'yes' END, (s % 5) + 1
+FROM generate_series(1, 2000) s;
+
+INSERT INTO Users
+SELECT 'user' || u, 'pw' || u,
+       CASE WHEN u % 100 = 0 THEN 'driver' WHEN u % 1000 = 1 THEN 'manager' ELSE 'customer' END,
+       NULL, '555-' || u
+FROM generate_series(1, GREATEST(:orders / 20, 1000)) u;
+
+/* logins skewed towards low numbers, timestamps spread over five years */
+INSERT INTO FoodOrder
+SELECT o,
+       'user' || (1 + floor(power(random(), 2) * GREATEST(:orders / 20, 1000) * 0.999))::int,
+       1 + floor(random() * 2000)::int,
+       round((random() * 60)::numeric, 2),
+       now() - random() * interval '5 years',
+       CASE WHEN random() < 0.98 THEN 'complete' ELSE 'incomplete' END
+FROM generate_series(1, :orders) o;
+
+INSERT INTO ItemsInOrder
+SELECT o.orderID, i.itemName, 1 + floor(random() * 3)::int
+FROM FoodOrder o
+CROSS JOIN LATERAL (
+   SELECT itemName FROM Items ORDER BY random() + o.orderID * 0 LIMIT 1 + o.orderID % 3
+) i;
+
+INSERT INTO FavoriteItems
+SELECT u.login, i.itemName, 1 + length(u.login) % 3
+FROM Users u
+CROSS JOIN LATERAL (
+   SELECT itemName FROM Items ORDER BY random() + length(u.login) * 0 LIMIT 2
+) i;
+
+/* the summaries as rebuild_sales_summary() computes them */
+INSERT INTO SalesDaily
+SELECT storeID, orderTimestamp::date, count(*), sum(totalPrice) FROM FoodOrder
+WHERE orderStatus IS DISTINCT FROM 'cancelled' GROUP BY 1, 2;
+
+INSERT INTO HourlyDemand
+SELECT storeID, extract(hour FROM orderTimestamp)::smallint, count(*) FROM FoodOrder
+WHERE orderStatus IS DISTINCT FROM 'cancelled' GROUP BY 1, 2;
+
+INSERT INTO ItemSalesDaily
+SELECT o.storeID, l.itemName, o.orderTimestamp::date, sum(l.quantity), count(*)
+FROM ItemsInOrder l JOIN FoodOrder o ON o.orderID = l.orderID
+WHERE o.orderStatus IS DISTINCT FROM 'cancelled'
+GROUP BY 1, 2, 3;
+
+ANALYZE;
+
+/* One entry per query shape issued by PizzaStore.java, OrderHistory.java
+   and SalesReports.java, with literals in place of the bind parameters.
+   Full listings such as viewStores and the hourly demand of all stores
+   are deliberately left out. */
+CREATE TEMP TABLE app_queries (handler text, query text);
+INSERT INTO app_queries VALUES
+   ('LogIn',             'SELECT login, password, role FROM Users WHERE login = ''user42'''),
+   ('viewAllOrders',     'SELECT orderID, storeID, orderStatus, orderTimestamp, totalPrice FROM FoodOrder WHERE TRUE AND login = ''user42'' ORDER BY orderTimestamp DESC, orderID DESC LIMIT 20'),
+   ('viewAllOrders',     'SELECT orderID, storeID, orderStatus, orderTimestamp, totalPrice FROM FoodOrder WHERE TRUE AND (orderTimestamp, orderID) < (now() - interval ''2 years'', 4242) ORDER BY orderTimestamp DESC, orderID DESC LIMIT 20'),
+   ('viewAllOrders',     'SELECT orderID, storeID, orderStatus, orderTimestamp, totalPrice FROM FoodOrder WHERE TRUE AND storeID = 42 AND (orderTimestamp, orderID) < (now() - interval ''2 years'', 4242) ORDER BY orderTimestamp DESC, orderID DESC LIMIT 20'),
+   ('viewAllOrders',     'SELECT orderID, storeID, orderStatus, orderTimestamp, totalPrice FROM FoodOrder WHERE TRUE AND login = ''user42'' AND orderStatus = ''incomplete'' ORDER BY orderTimestamp DESC, orderID DESC LIMIT 20'),
+   ('viewAllOrders',     'SELECT orderID, storeID, orderStatus, orderTimestamp, totalPrice FROM FoodOrder WHERE TRUE AND orderStatus = ''incomplete'' AND (orderTimestamp, orderID) < (now() - interval ''2 years'', 4242) ORDER BY orderTimestamp DESC, orderID DESC LIMIT 20'),
+   ('viewAllOrders',     'SELECT orderID, storeID, orderStatus, orderTimestamp, totalPrice FROM FoodOrder WHERE TRUE AND storeID = 42 AND orderStatus = ''incomplete'' ORDER BY orderTimestamp DESC, orderID DESC LIMIT 20'),
+   ('viewRecentOrders',  'SELECT orderId FROM FoodOrder WHERE login = ''user42'' ORDER BY orderTimestamp DESC LIMIT 5'),
+   ('viewRecentOrders',  'SELECT orderId FROM FoodOrder ORDER BY orderTimestamp DESC LIMIT 5'),
+   ('CreateUser',        'SELECT login FROM Users WHERE login = ''newuser'''),
+   ('updateOrderStatus', 'SELECT orderID FROM FoodOrder WHERE orderID = 4242'),
+   ('viewOrderInfo',     'SELECT o.orderID, o.login, o.orderStatus, o.orderTimestamp, o.totalPrice, l.itemName, l.quantity, i.price, l.quantity * i.price, (SELECT version FROM MenuVersion) FROM FoodOrder o LEFT JOIN ItemsInOrder l ON l.orderID = o.orderID LEFT JOIN Items i ON i.itemName = l.itemName WHERE o.orderID = 4242 AND (false OR o.login = ''user42'') ORDER BY l.itemName'),
+   ('updateOrderStatus', 'UPDATE FoodOrder SET orderStatus = ''complete'' WHERE orderID = 4242 AND orderStatus IN (''incomplete'', ''preparing'', ''delivering'')'),
+   ('getStores',         'SELECT s.storeID, s.address, s.city, s.state, s.isOpen, s.reviewScore, l.latitude, l.longitude FROM Store s LEFT JOIN StoreLocation l ON l.storeID = s.storeID WHERE s.storeID IN (42, 43)'),
+   ('placeOrder',        'SELECT itemName, price FROM Items WHERE itemName IN (''Cheese Pizza'', ''Sprite'') FOR SHARE'),
+   ('reorder',           'SELECT f.itemName, f.quantity, i.price, NULL FROM FavoriteItems f JOIN Items i ON i.itemName = f.itemName WHERE f.login = ''user42'' ORDER BY f.itemName'),
+   ('reorder',           'SELECT l.itemName, l.quantity, i.price, o.storeID FROM (SELECT orderID, storeID FROM FoodOrder WHERE login = ''user42'' ORDER BY orderTimestamp DESC, orderID DESC LIMIT 1) o JOIN ItemsInOrder l ON l.orderID = o.orderID JOIN Items i ON i.itemName = l.itemName ORDER BY l.itemName'),
+   ('viewMenu',          'SELECT itemName, ingredients, typeOfItem, price, description FROM Items'),
+   ('revenueByDay',      'SELECT day, orders, revenue FROM SalesDaily WHERE storeID = 42 AND day >= current_date - 30 ORDER BY day DESC'),
+   ('revenueByDay',      'SELECT day, sum(orders), sum(revenue) FROM SalesDaily WHERE day >= current_date - 30 GROUP BY day ORDER BY day DESC'),
+   ('topItems',          'SELECT itemName, sum(quantity) AS quantity, sum(orders) FROM ItemSalesDaily WHERE day >= current_date - 30 AND storeID = 42 GROUP BY itemName ORDER BY quantity DESC, itemName LIMIT 10'),
+   ('topItems',          'SELECT itemName, sum(quantity) AS quantity, sum(orders) FROM ItemSalesDaily WHERE day >= current_date - 30 GROUP BY itemName ORDER BY quantity DESC, itemName LIMIT 10'),
+   ('averageOrderValue', 'SELECT sum(orders), sum(revenue), round(sum(revenue) / NULLIF(sum(orders), 0), 2) FROM SalesDaily WHERE day >= current_date - 30 AND storeID = 42'),
+   ('averageOrderValue', 'SELECT sum(orders), sum(revenue), round(sum(revenue) / NULLIF(sum(orders), 0), 2) FROM SalesDaily WHERE day >= current_date - 30'),
+   ('hourlyDemand',      'SELECT hour, sum(orders), round(100.0 * sum(orders) / NULLIF(sum(sum(orders)) OVER (), 0), 1) || ''%'' FROM HourlyDemand WHERE storeID = 42 GROUP BY hour ORDER BY hour');
+
+DO $$
+DECLARE
+   q record;
+   plan_line text;
+   failures int := 0;
+BEGIN
+   FOR q IN SELECT handler, query FROM app_queries LOOP
+      FOR plan_line IN EXECUTE 'EXPLAIN ' || q.query LOOP
+         IF plan_line ~* 'Seq Scan on (users|foodorder|itemsinorder|store|favoriteitems|salesdaily|hourlydemand|itemsalesdaily)\M' THEN
+            RAISE WARNING '% falls back to a sequential scan: %  [%]', q.handler, q.query, trim(plan_line);
+            failures := failures + 1;
+         END IF;
+      END LOOP;
+   END LOOP;
+   IF failures > 0 THEN
+      RAISE EXCEPTION '% application queries use sequential scans', failures;
+   END IF;
+   RAISE NOTICE 'all application queries use index access paths';
+END
+$$;
+
+RESET search_path;
+DROP SCHEMA plancheck CASCADE;
@@ -0,0 +1,224 @@
+/* Summary tables behind the manager sales reports (java/src/SalesReports.java).
+
+   Statement triggers on FoodOrder and ItemsInOrder append the changes of
+   each statement, already grouped, to the SalesDelta and ItemDelta
+   queues. Appending never touches a shared row, so concurrent orders do
+   not wait on each other. refresh_sales_summary() folds the queued deltas
+   into the summary tables and runs before every report, so reports read
+   a few thousand summary rows instead of scanning the orders. Cancelled
+   orders are left out of every summary: cancelling an order queues the
+   opposite of what placing it did, and so does deleting an order or some
+   of its line items.
+
+   Run after create_tables.sql and before loading data, so the load is
+   captured too. rebuild_sales_summary() recomputes everything from the
+   base tables, e.g. after updating line items of existing orders, which
+   the triggers do not follow. Needs PostgreSQL 10 or later. */
+
+DROP TABLE IF EXISTS SalesDelta CASCADE;
+DROP TABLE IF EXISTS ItemDelta CASCADE;
+DROP TABLE IF EXISTS SalesDaily CASCADE;
+DROP TABLE IF EXISTS HourlyDemand CASCADE;
+DROP TABLE IF EXISTS ItemSalesDaily CASCADE;
+
+--orders and revenue per store per day
+CREATE TABLE SalesDaily ( storeID integer NOT NULL,
+                          day date NOT NULL,
+                          orders bigint NOT NULL,
+                          revenue numeric(16,2) NOT NULL,
+                          PRIMARY KEY(storeID, day)
+);
+CREATE INDEX salesdaily_day_idx ON SalesDaily (day);
+
+--orders per store by hour of day, over all time
+CREATE TABLE HourlyDemand ( storeID integer NOT NULL,
+                            hour smallint NOT NULL,
+                            orders bigint NOT NULL,
+                            PRIMARY KEY(storeID, hour)
+);
+
+--quantity sold per item per store per day
+CREATE TABLE ItemSalesDaily ( storeID integer NOT NULL,
+                              itemName varchar(50) NOT NULL,
+                              day date NOT NULL,
+                              quantity bigint NOT NULL,
+                              orders bigint NOT NULL,
+                              PRIMARY KEY(storeID, day, itemName)
+);
+CREATE INDEX itemsalesdaily_day_idx ON ItemSalesDaily (day);
+
+--changes not yet folded into the summaries
+CREATE TABLE SalesDelta ( storeID integer NOT NULL,
+                          day date NOT NULL,
+                          hour smallint NOT NULL,
+                          orders bigint NOT NULL,
+                          revenue numeric(16,2) NOT NULL
+);
+
+CREATE TABLE ItemDelta ( storeID integer NOT NULL,
+                         itemName varchar(50) NOT NULL,
+                         day date NOT NULL,
+                         quantity bigint NOT NULL,
+                         orders bigint NOT NULL
+);
+
+CREATE OR REPLACE FUNCTION orders_inserted() RETURNS trigger AS $$
+BEGIN
+   INSERT INTO SalesDelta
+   SELECT storeID, orderTimestamp::date, extract(hour FROM orderTimestamp)::smallint, count(*), sum(totalPrice)
+   FROM new_orders
+   WHERE orderStatus IS DISTINCT FROM 'cancelled'
+   GROUP BY 1, 2, 3;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION orders_deleted() RETURNS trigger AS $$
+BEGIN
+   INSERT INTO SalesDelta
+   SELECT storeID, orderTimestamp::date, extract(hour FROM orderTimestamp)::smallint, -count(*), -sum(totalPrice)
+   FROM old_orders
+   WHERE orderStatus IS DISTINCT FROM 'cancelled'
+   GROUP BY 1, 2, 3;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+--an updated order is taken out of the summaries as it was and put back
+--as it is, if its store, time, total or cancellation changed; a cancelled
+--order is only taken out, and one no longer cancelled only put back
+CREATE OR REPLACE FUNCTION orders_updated() RETURNS trigger AS $$
+BEGIN
+   WITH moved AS (
+      SELECT o.orderID, o.storeID, o.orderTimestamp, o.totalPrice, -1 AS sign
+      FROM old_orders o JOIN new_orders n ON n.orderID = o.orderID
+      WHERE o.orderStatus IS DISTINCT FROM 'cancelled'
+        AND (o.storeID, o.orderTimestamp, o.totalPrice, true)
+            IS DISTINCT FROM (n.storeID, n.orderTimestamp, n.totalPrice, n.orderStatus IS DISTINCT FROM 'cancelled')
+      UNION ALL
+      SELECT n.orderID, n.storeID, n.orderTimestamp, n.totalPrice, 1
+      FROM old_orders o JOIN new_orders n ON n.orderID = o.orderID
+      WHERE n.orderStatus IS DISTINCT FROM 'cancelled'
+        AND (n.storeID, n.orderTimestamp, n.totalPrice, true)
+            IS DISTINCT FROM (o.storeID, o.orderTimestamp, o.totalPrice, o.orderStatus IS DISTINCT FROM 'cancelled')),
+   sales AS (
+      INSERT INTO SalesDelta
+      SELECT storeID, orderTimestamp::date, extract(hour FROM orderTimestamp)::smallint, sum(sign), sum(sign * totalPrice)
+      FROM moved
+      GROUP BY 1, 2, 3)
+   INSERT INTO ItemDelta
+   SELECT m.storeID, l.itemName, m.orderTimestamp::date, sum(m.sign * l.quantity), sum(m.sign)
+   FROM moved m JOIN ItemsInOrder l ON l.orderID = m.orderID
+   GROUP BY 1, 2, 3;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION lines_inserted() RETURNS trigger AS $$
+BEGIN
+   INSERT INTO ItemDelta
+   SELECT o.storeID, l.itemName, o.orderTimestamp::date, sum(l.quantity), count(*)
+   FROM new_lines l JOIN FoodOrder o ON o.orderID = l.orderID
+   WHERE o.orderStatus IS DISTINCT FROM 'cancelled'
+   GROUP BY 1, 2, 3;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+--line items deleted on their own; the order they belong to still exists
+CREATE OR REPLACE FUNCTION lines_deleted() RETURNS trigger AS $$
+BEGIN
+   INSERT INTO ItemDelta
+   SELECT o.storeID, l.itemName, o.orderTimestamp::date, -sum(l.quantity), -count(*)
+   FROM old_lines l JOIN FoodOrder o ON o.orderID = l.orderID
+   WHERE o.orderStatus IS DISTINCT FROM 'cancelled'
+   GROUP BY 1, 2, 3;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+--line items of a deleted order, taken out before the ON DELETE CASCADE
+--removes them; by the time lines_deleted() runs the order is gone, so
+--it does not count them twice
+CREATE OR REPLACE FUNCTION order_lines_deleted() RETURNS trigger AS $$
+BEGIN
+   IF OLD.orderStatus IS DISTINCT FROM 'cancelled' THEN
+      INSERT INTO ItemDelta
+      SELECT OLD.storeID, itemName, OLD.orderTimestamp::date, -sum(quantity), -count(*)
+      FROM ItemsInOrder
+      WHERE orderID = OLD.orderID
+      GROUP BY itemName;
+   END IF;
+   RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER orders_inserted_delta
+   AFTER INSERT ON FoodOrder REFERENCING NEW TABLE AS new_orders
+   FOR EACH STATEMENT EXECUTE PROCEDURE orders_inserted();
+
+CREATE TRIGGER orders_deleted_delta
+   AFTER DELETE ON FoodOrder REFERENCING OLD TABLE AS old_orders
+   FOR EACH STATEMENT EXECUTE PROCEDURE orders_deleted();
+
+CREATE TRIGGER order_lines_deleted_delta
+   BEFORE DELETE ON FoodOrder
+   FOR EACH ROW EXECUTE PROCEDURE order_lines_deleted();
+
+CREATE TRIGGER orders_updated_delta
+   AFTER UPDATE ON FoodOrder REFERENCING OLD TABLE AS old_orders NEW TABLE AS new_orders
+   FOR EACH STATEMENT EXECUTE PROCEDURE orders_updated();
+
+CREATE TRIGGER lines_inserted_delta
+   AFTER INSERT ON ItemsInOrder REFERENCING NEW TABLE AS new_lines
+   FOR EACH STATEMENT EXECUTE PROCEDURE lines_inserted();
+
+CREATE TRIGGER lines_deleted_delta
+   AFTER DELETE ON ItemsInOrder REFERENCING OLD TABLE AS old_lines
+   FOR EACH STATEMENT EXECUTE PROCEDURE lines_deleted();
+
+--folds the queued deltas into the summaries; only one refresh runs at a time
+CREATE OR REPLACE FUNCTION refresh_sales_summary() RETURNS void AS $$
+BEGIN
+   PERFORM pg_advisory_xact_lock(hashtext('refresh_sales_summary'));
+
+   WITH d AS (DELETE FROM SalesDelta RETURNING *),
+   daily AS (
+      INSERT INTO SalesDaily AS s
+      SELECT storeID, day, sum(orders), sum(revenue) FROM d GROUP BY storeID, day
+      ON CONFLICT (storeID, day) DO UPDATE
+      SET orders = s.orders + EXCLUDED.orders, revenue = s.revenue + EXCLUDED.revenue)
+   INSERT INTO HourlyDemand AS h
+   SELECT storeID, hour, sum(orders) FROM d GROUP BY storeID, hour
+   ON CONFLICT (storeID, hour) DO UPDATE SET orders = h.orders + EXCLUDED.orders;
+
+   WITH d AS (DELETE FROM ItemDelta RETURNING *)
+   INSERT INTO ItemSalesDaily AS i
+   SELECT storeID, itemName, day, sum(quantity), sum(orders) FROM d GROUP BY storeID, itemName, day
+   ON CONFLICT (storeID, day, itemName) DO UPDATE
+   SET quantity = i.quantity + EXCLUDED.quantity, orders = i.orders + EXCLUDED.orders;
+END;
+$$ LANGUAGE plpgsql;
+
+--recomputes the summaries from FoodOrder and ItemsInOrder
+CREATE OR REPLACE FUNCTION rebuild_sales_summary() RETURNS void AS $$
+BEGIN
+   PERFORM pg_advisory_xact_lock(hashtext('refresh_sales_summary'));
+   LOCK TABLE FoodOrder, ItemsInOrder IN SHARE MODE;
+   TRUNCATE SalesDelta, ItemDelta, SalesDaily, HourlyDemand, ItemSalesDaily;
+
+   INSERT INTO SalesDaily
+   SELECT storeID, orderTimestamp::date, count(*), sum(totalPrice) FROM FoodOrder
+   WHERE orderStatus IS DISTINCT FROM 'cancelled' GROUP BY 1, 2;
+
+   INSERT INTO HourlyDemand
+   SELECT storeID, extract(hour FROM orderTimestamp)::smallint, count(*) FROM FoodOrder
+   WHERE orderStatus IS DISTINCT FROM 'cancelled' GROUP BY 1, 2;
+
+   INSERT INTO ItemSalesDaily
+   SELECT o.storeID, l.itemName, o.orderTimestamp::date, sum(l.quantity), count(*)
+   FROM ItemsInOrder l JOIN FoodOrder o ON o.orderID = l.orderID
+   WHERE o.orderStatus IS DISTINCT FROM 'cancelled'
+   GROUP BY 1, 2, 3;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,41 @@
+/* Indexes for the access paths used by java/src/PizzaStore.java.
+   Primary keys already cover Users(login), Items(itemName), Store(storeID),
+   FoodOrder(orderID) and ItemsInOrder(orderID, itemName), which serves
+   lookups of an order's items by orderID. The menu is served from memory
+   (MenuCatalog reads all of Items in one scan), so Items has no further
+   indexes.
+   sql/scripts/check_plans.sh verifies these against a large synthetic dataset. */
+
+DROP INDEX IF EXISTS foodorder_login_time_idx;
+DROP INDEX IF EXISTS foodorder_time_idx;
+DROP INDEX IF EXISTS foodorder_open_idx;
+DROP INDEX IF EXISTS foodorder_store_idx;
+DROP INDEX IF EXISTS itemsinorder_item_idx;
+DROP INDEX IF EXISTS favoriteitems_item_idx;
+DROP INDEX IF EXISTS items_type_price_idx;
+DROP INDEX IF EXISTS items_price_idx;
+
+/* viewRecentOrders and the order history pages for a customer:
+   WHERE login = ? [AND (orderTimestamp, orderID) < (?, ?)]
+   ORDER BY orderTimestamp DESC, orderID DESC LIMIT n */
+CREATE INDEX foodorder_login_time_idx
+ON FoodOrder (login, orderTimestamp DESC, orderID DESC);
+
+/* viewRecentOrders and the order history pages for managers and drivers,
+   the same keyset over every order */
+CREATE INDEX foodorder_time_idx
+ON FoodOrder (orderTimestamp DESC, orderID DESC);
+
+/* foreign key to Store, used by cascading deletes, and the order history
+   pages filtered by store */
+CREATE INDEX foodorder_store_idx
+ON FoodOrder (storeID, orderTimestamp DESC, orderID DESC);
+
+/* foreign key to Items, used by cascading deletes and per-item reports */
+CREATE INDEX itemsinorder_item_idx
+ON ItemsInOrder (itemName);
+
+/* foreign key to Items, used by cascading deletes; reorders read a user's
+   favorites through the primary key */
+CREATE INDEX favoriteitems_item_idx
+ON FavoriteItems (itemName);
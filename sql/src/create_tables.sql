@@ -3,11 +3,17 @@ DROP TABLE IF EXISTS Items CASCADE;
 DROP TABLE IF EXISTS FoodOrder CASCADE;
 DROP TABLE IF EXISTS Store CASCADE;
 DROP TABLE IF EXISTS ItemsInOrder CASCADE;
+DROP TABLE IF EXISTS MenuVersion CASCADE;
+DROP TABLE IF EXISTS LoadProgress CASCADE;
+DROP TABLE IF EXISTS StoreLocation CASCADE;
+DROP TABLE IF EXISTS StoreChange CASCADE;
+DROP TABLE IF EXISTS StoreChangeReader CASCADE;
+DROP TABLE IF EXISTS FavoriteItems CASCADE;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
-                     password varchar(30) NOT NULL,
+                     password varchar(200) NOT NULL, --PBKDF2 hash, see PasswordHasher; plaintext until hashed
                      role char(20) NOT NULL,
-                     favoriteItems text,
+                     favoriteItems text, --free text from the data files, see import_favorite_items()
                      phoneNum varchar(20) NOT NULL,
                      PRIMARY KEY(login)
 );
@@ -29,12 +35,21 @@ CREATE TABLE Store ( storeID integer NOT NULL,
                            PRIMARY KEY(storeID)
 );
 
-CREATE TABLE FoodOrder ( orderID integer NOT NULL,
+--optional coordinates of a store, for proximity search
+CREATE TABLE StoreLocation ( storeID integer NOT NULL,
+                             latitude double precision NOT NULL,
+                             longitude double precision NOT NULL,
+                             PRIMARY KEY(storeID),
+                             FOREIGN KEY(storeID) REFERENCES Store(storeID)
+                             ON DELETE CASCADE
+);
+
+CREATE TABLE FoodOrder ( orderID serial NOT NULL, --ids come from foodorder_orderid_seq
                            login varchar(50) NOT NULL, --places relationship
                            storeID integer NOT NULL, --placedAt relationship
                            totalPrice decimal(10,2) NOT NULL,
                            orderTimestamp timestamp NOT NULL,
-                           orderStatus char(50),
+                           orderStatus char(50) CHECK (orderStatus IN ('incomplete', 'preparing', 'delivering', 'complete', 'cancelled')),
                            PRIMARY KEY(orderID),
                            FOREIGN KEY(login) REFERENCES Users(login)
                            ON DELETE CASCADE,
@@ -51,3 +66,145 @@ CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
                            ON DELETE CASCADE
 );
 
+--a user's favorite items with the quantity usually ordered, for reordering
+CREATE TABLE FavoriteItems ( login varchar(50) NOT NULL,
+                             itemName varchar(50) NOT NULL,
+                             quantity integer NOT NULL DEFAULT 1 CHECK (quantity > 0),
+                             PRIMARY KEY(login, itemName),
+                             FOREIGN KEY(login) REFERENCES Users(login)
+                             ON DELETE CASCADE,
+                             FOREIGN KEY(itemName) REFERENCES Items(itemName)
+                             ON DELETE CASCADE
+);
+
+--moves the comma separated favoriteItems text of loaded users into
+--FavoriteItems, keeping the names found on the menu; run after loading.
+--names not on the menu stay in the column, so a later run can still
+--import them once the menu has them
+CREATE OR REPLACE FUNCTION import_favorite_items() RETURNS bigint AS $$
+DECLARE
+   imported bigint;
+BEGIN
+   INSERT INTO FavoriteItems (login, itemName)
+   SELECT DISTINCT u.login, i.itemName
+   FROM Users u
+   CROSS JOIN LATERAL unnest(string_to_array(u.favoriteItems, ',')) AS f(name)
+   JOIN Items i ON lower(i.itemName) = lower(trim(f.name))
+   WHERE u.favoriteItems IS NOT NULL
+   ON CONFLICT DO NOTHING;
+   GET DIAGNOSTICS imported = ROW_COUNT;
+   UPDATE Users u SET favoriteItems = r.unmatched
+   FROM (SELECT u.login,
+                string_agg(trim(f.name), ',' ORDER BY f.pos)
+                   FILTER (WHERE i.itemName IS NULL AND trim(f.name) <> '') AS unmatched
+         FROM Users u
+         CROSS JOIN LATERAL unnest(string_to_array(u.favoriteItems, ',')) WITH ORDINALITY AS f(name, pos)
+         LEFT JOIN Items i ON lower(i.itemName) = lower(trim(f.name))
+         WHERE u.favoriteItems IS NOT NULL
+         GROUP BY u.login) r
+   WHERE u.login = r.login AND u.favoriteItems IS DISTINCT FROM r.unmatched;
+   RETURN imported;
+END;
+$$ LANGUAGE plpgsql;
+
+--bumped on every change to Items, so cached menus know to reload
+CREATE TABLE MenuVersion ( version bigint NOT NULL );
+INSERT INTO MenuVersion VALUES (0);
+
+CREATE OR REPLACE FUNCTION bump_menu_version() RETURNS trigger AS $$
+BEGIN
+   UPDATE MenuVersion SET version = version + 1;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER items_changed
+   AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Items
+   FOR EACH STATEMENT EXECUTE PROCEDURE bump_menu_version();
+
+--how far the bulk loader got through each data file, for resuming
+CREATE TABLE LoadProgress ( tableName varchar(50) NOT NULL,
+                            fileSize bigint NOT NULL,
+                            byteOffset bigint NOT NULL,
+                            rowsLoaded bigint NOT NULL,
+                            PRIMARY KEY(tableName)
+);
+
+--one row per changed store, so cached store indexes reload only those stores;
+--a NULL storeID means the whole table changed
+CREATE TABLE StoreChange ( seq bigserial NOT NULL,
+                           storeID integer,
+                           PRIMARY KEY(seq)
+);
+
+--how far each cached store index has read StoreChange, see prune_store_changes()
+CREATE TABLE StoreChangeReader ( reader varchar(50) NOT NULL,
+                                 seq bigint NOT NULL,
+                                 seenAt timestamptz NOT NULL,
+                                 PRIMARY KEY(reader)
+);
+
+--records that a reader has everything up to seq, then deletes the log
+--entries every reader has; readers not seen within staleMs do not hold
+--the log back, since they reload the whole table before reading it again
+CREATE OR REPLACE FUNCTION prune_store_changes(reader_id varchar, consumed bigint, staleMs bigint) RETURNS bigint AS $$
+DECLARE
+   pruned bigint;
+BEGIN
+   INSERT INTO StoreChangeReader VALUES (reader_id, consumed, now())
+   ON CONFLICT (reader) DO UPDATE SET seq = EXCLUDED.seq, seenAt = EXCLUDED.seenAt;
+   DELETE FROM StoreChangeReader WHERE seenAt < now() - staleMs * interval '1 millisecond';
+   DELETE FROM StoreChange WHERE seq < (SELECT min(seq) FROM StoreChangeReader);
+   GET DIAGNOSTICS pruned = ROW_COUNT;
+   RETURN pruned;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION log_store_change() RETURNS trigger AS $$
+BEGIN
+   IF TG_OP <> 'INSERT' THEN
+      INSERT INTO StoreChange (storeID) VALUES (OLD.storeID);
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      INSERT INTO StoreChange (storeID) VALUES (NEW.storeID);
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER store_changed
+   AFTER INSERT OR UPDATE OR DELETE ON Store
+   FOR EACH ROW EXECUTE PROCEDURE log_store_change();
+
+CREATE TRIGGER store_location_changed
+   AFTER INSERT OR UPDATE OR DELETE ON StoreLocation
+   FOR EACH ROW EXECUTE PROCEDURE log_store_change();
+
+--TRUNCATE fires no row triggers, so it is logged as a change of every store
+CREATE OR REPLACE FUNCTION log_store_truncate() RETURNS trigger AS $$
+BEGIN
+   INSERT INTO StoreChange (storeID) VALUES (NULL);
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER store_truncated
+   AFTER TRUNCATE ON Store
+   FOR EACH STATEMENT EXECUTE PROCEDURE log_store_truncate();
+
+CREATE TRIGGER store_location_truncated
+   AFTER TRUNCATE ON StoreLocation
+   FOR EACH STATEMENT EXECUTE PROCEDURE log_store_truncate();
+
+--publishes every order status change as "orderID status login" on order_status
+CREATE OR REPLACE FUNCTION notify_order_status() RETURNS trigger AS $$
+BEGIN
+   PERFORM pg_notify('order_status', NEW.orderID || ' ' || trim(NEW.orderStatus) || ' ' || NEW.login);
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER order_status_changed
+   AFTER UPDATE OF orderStatus ON FoodOrder
+   FOR EACH ROW WHEN (OLD.orderStatus IS DISTINCT FROM NEW.orderStatus)
+   EXECUTE PROCEDURE notify_order_status();
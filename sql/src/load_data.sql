@@ -15,6 +15,12 @@ COPY FoodOrder
 FROM '/home/csmajs/agoel006/pizza-shop/data/foodorder.csv'
 WITH DELIMITER ',' CSV HEADER;
 
+/* Continue the order id sequence after the loaded orders */
+SELECT setval('foodorder_orderid_seq', (SELECT COALESCE(MAX(orderID), 1) FROM FoodOrder));
+
 COPY ItemsInOrder
 FROM '/home/csmajs/agoel006/pizza-shop/data/itemsinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+/* Move the favorite items text of the loaded users into FavoriteItems */
+SELECT import_favorite_items();